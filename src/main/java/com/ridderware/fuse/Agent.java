@@ -19,7 +19,11 @@
 package com.ridderware.fuse;
 
 import com.ridderware.jrandom.RandomNumberGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.logging.log4j.*;
@@ -43,12 +47,16 @@ public class Agent implements IAgent {
     protected IAgentState next_state = null;
 
     private final HashSet<IBehavior<? extends IAgent>> behaviors = new HashSet<>();
-    private final HashSet<IAgentState<? extends IAgent>> states = new HashSet<>();
+    private HashSet<IAgentState<? extends IAgent>> states = null;
     private Universe universe = null;
     private boolean is_state_transition_pending = false;
     private StateTime initial_state_time = null;
     private String description = null;
 
+    // Package scope.  State of optional framework features, allocated by
+    // extension() when first needed.
+    AgentExtension extension = null;
+
     /**
      * Agent constructor.
      *
@@ -56,7 +64,20 @@ public class Agent implements IAgent {
      */
     public Agent(String name) {
         this.name = name;
-        description = "[" + name + "]";
+    }
+
+    /**
+     * Returns the state of the optional framework features for this agent,
+     * allocating it if necessary. Package scope. Only used by the simulation
+     * framework.
+     *
+     * @return the extension.
+     */
+    AgentExtension extension() {
+        if (extension == null) {
+            extension = new AgentExtension();
+        }
+        return extension;
     }
 
     @Override
@@ -90,7 +111,95 @@ public class Agent implements IAgent {
 
     @Override
     public Set<IAgentState<? extends IAgent>> getStates() {
-        return this.states;
+        return (states == null) ? Collections.<IAgentState<? extends IAgent>>emptySet() : states;
+    }
+
+    /**
+     * Tag this agent. Tags are arbitrary names by which agents can be looked
+     * up in the universe's AgentIndex.
+     *
+     * @param tag the tag.
+     * @see Universe#getAgentIndex
+     */
+    public void addTag(String tag) {
+        if ((tag != null) && !hasTag(tag)) {
+            AgentExtension extension = extension();
+            if (extension.tags == null) {
+                extension.tags = new String[2];
+                extension.tag_slots = new int[2];
+            } else if (extension.tag_count == extension.tags.length) {
+                extension.tags = Arrays.copyOf(extension.tags, extension.tag_count * 2);
+                extension.tag_slots = Arrays.copyOf(extension.tag_slots, extension.tag_count * 2);
+            }
+            extension.tags[extension.tag_count] = tag;
+            extension.tag_slots[extension.tag_count] = -1;
+            extension.tag_count++;
+            if (universe != null) {
+                universe.agentTagChanged(this, extension.tag_count - 1, true);
+            }
+        }
+    }
+
+    /**
+     * Remove a tag from this agent.
+     *
+     * @param tag the tag.
+     */
+    public void removeTag(String tag) {
+        int position = indexOfTag(tag);
+        if (position >= 0) {
+            if (universe != null) {
+                universe.agentTagChanged(this, position, false);
+            }
+            AgentExtension extension = this.extension;
+            extension.tag_count--;
+            extension.tags[position] = extension.tags[extension.tag_count];
+            extension.tag_slots[position] = extension.tag_slots[extension.tag_count];
+            extension.tags[extension.tag_count] = null;
+        }
+    }
+
+    /**
+     * Returns true if this agent has the specified tag.
+     *
+     * @param tag the tag.
+     * @return true if tagged.
+     */
+    public boolean hasTag(String tag) {
+        return indexOfTag(tag) >= 0;
+    }
+
+    /**
+     * Returns the tags of this agent.
+     *
+     * @return unmodifiable list of tags.
+     */
+    public List<String> getTags() {
+        return ((extension == null) || (extension.tag_count == 0)) ? Collections.<String>emptyList()
+                : Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(extension.tags, extension.tag_count)));
+    }
+
+    // Package scope.  Only used by simulation framework.
+    int indexOfTag(String tag) {
+        if (extension != null) {
+            for (int i = 0; i < extension.tag_count; i++) {
+                if (extension.tags[i].equals(tag)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the dense id by which the columns of the universe's
+     * AttributeStore are indexed for this agent, or -1 if the agent has none.
+     *
+     * @return attribute id.
+     * @see Universe#getAttributeStore
+     */
+    public int getAttributeId() {
+        return (extension == null) ? -1 : extension.attribute_id;
     }
 
     /**
@@ -120,6 +229,9 @@ public class Agent implements IAgent {
 
     @Override
     public String toString() {
+        if (description == null) {
+            description = "[" + name + "]";
+        }
         return description;
     }
 
@@ -141,6 +253,9 @@ public class Agent implements IAgent {
     @Override
     public void addState(IAgentState state) {
         if (state != null) {
+            if (states == null) {
+                states = new HashSet<>();
+            }
             states.add(state);
             state.associateWithAgent(this);
         }
@@ -188,8 +303,12 @@ public class Agent implements IAgent {
         if (is_state_transition_pending) {
             IAgentState old_state = current_state;
             current_state = next_state;
+            applyStateGating();
             stateChanged(old_state, current_state);
             is_state_transition_pending = false;
+            if (universe != null) {
+                universe.agentStateChanged(this, old_state, current_state);
+            }
         }
     }
 
@@ -198,7 +317,37 @@ public class Agent implements IAgent {
         if ((forced_state != null) && (forced_state != current_state)) {
             IAgentState old_state = current_state;
             current_state = forced_state;
+            applyStateGating();
             stateChanged(old_state, current_state);
+            if (universe != null) {
+                universe.agentStateChanged(this, old_state, current_state);
+            }
+        }
+    }
+
+    /**
+     * Enable the state gated behaviors which are active in the current state
+     * and disable those which are not, then hand all of the changed behaviors
+     * to the universe together so that it can reschedule them in one
+     * operation.
+     *
+     * @see Behavior#setActiveStates
+     */
+    private void applyStateGating() {
+        ArrayList<Behavior> changed = null;
+        for (IBehavior<? extends IAgent> b : behaviors) {
+            if (b instanceof Behavior) {
+                Behavior behavior = (Behavior) b;
+                if (behavior.isStateGated() && behavior.setEnabledQuietly(behavior.isActiveIn(current_state))) {
+                    if (changed == null) {
+                        changed = new ArrayList<>();
+                    }
+                    changed.add(behavior);
+                }
+            }
+        }
+        if ((changed != null) && (universe != null)) {
+            universe.behaviorsChanged(changed);
         }
     }
 
@@ -208,5 +357,8 @@ public class Agent implements IAgent {
         next_state = AgentState.UNDEFINED;
         is_state_transition_pending = false;
         initial_state_time = null;
+        if (universe != null) {
+            universe.agentStateReset(this);
+        }
     }
 }
@@ -0,0 +1,55 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * The per-agent state of the optional features of the framework, such as
+ * state occupancy accounting, the agent index, message delivery and the
+ * attribute store. It is held apart from the agent and allocated only when a
+ * feature first needs it, so that agents of a simulation which does not use
+ * these features do not pay for them. Package scope. Only used by the
+ * simulation framework.
+ *
+ * @author Jeff Ridder
+ * @see Agent
+ */
+final class AgentExtension
+{
+
+    // Time spent in each state, maintained by StateOccupancy.
+    double[] occupancy_times = null;
+    double occupancy_entered = 0;
+    int occupancy_run = -1;
+
+    // Tags, and positions in the AgentIndex maintained by the index.
+    String[] tags = null;
+    int[] tag_slots = null;
+    int tag_count = 0;
+    AgentIndex.Bucket index_state_bucket = null;
+    int index_state_slot = -1;
+    int index_class_slot = -1;
+
+    // Messages due for delivery, chained by MessageService.
+    MessageService.Envelope mailbox_head = null;
+    MessageService.Envelope mailbox_tail = null;
+    int mailbox_count = 0;
+
+    // Dense id assigned by the AttributeStore.
+    int attribute_id = -1;
+}
@@ -0,0 +1,521 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * An index of the agents in a universe by current state name, by class and by
+ * tag. The index is maintained incrementally as agents are added to and
+ * removed from the universe, change state, and are tagged, so a lookup costs
+ * time proportional to the size of its result and a count costs constant
+ * time.
+ * <p>
+ * Each group of agents is held in a dense array. The forEach methods iterate
+ * the array in place; if the group changes during the iteration, for example
+ * because a visited agent changes state, the group is copied before it is
+ * changed so that the iteration continues over the agents as they were when
+ * it began.
+ * <p>
+ * The index is created by Universe.getAgentIndex and only indexes agents added
+ * after it is created.
+ *
+ * @author Jeff Ridder
+ * @see Agent#addTag
+ */
+public final class AgentIndex
+{
+
+    /**
+     * A group of indexed agents. Package scope. Only used by the simulation
+     * framework.
+     */
+    static final class Bucket
+    {
+
+        private static final int STATE = 0;
+        private static final int CLASS = 1;
+        private static final int TAG = 2;
+
+        private final int kind;
+        private final Object key;
+        private Agent[] agents = new Agent[8];
+        private int size = 0;
+        private int readers = 0;
+
+        private Bucket(int kind, Object key)
+        {
+            this.kind = kind;
+            this.key = key;
+        }
+
+        private int add(Agent agent)
+        {
+            // Appending does not disturb an iteration in progress, which
+            // stops at the size at which it began.
+            if (size == agents.length)
+            {
+                agents = Arrays.copyOf(agents, size * 2);
+                readers = 0;
+            }
+            agents[size] = agent;
+            return size++;
+        }
+
+        private void remove(int slot)
+        {
+            if (readers > 0)
+            {
+                agents = agents.clone();
+                readers = 0;
+            }
+            Agent last = agents[--size];
+            agents[size] = null;
+            if (slot < size)
+            {
+                agents[slot] = last;
+                switch (kind)
+                {
+                    case STATE:
+                        last.extension.index_state_slot = slot;
+                        break;
+                    case CLASS:
+                        last.extension.index_class_slot = slot;
+                        break;
+                    default:
+                        last.extension.tag_slots[last.indexOfTag((String) key)] = slot;
+                        break;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends Agent> void forEach(Class<T> type, Consumer<? super T> action)
+        {
+            Agent[] snapshot = agents;
+            int count = size;
+            readers++;
+            try
+            {
+                for (int i = 0; i < count; i++)
+                {
+                    if ((type == null) || type.isInstance(snapshot[i]))
+                    {
+                        action.accept(type == null ? (T) snapshot[i] : type.cast(snapshot[i]));
+                    }
+                }
+            }
+            finally
+            {
+                if (agents == snapshot)
+                {
+                    readers--;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends Agent> void addTo(List<T> result, Class<T> type)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                if ((type == null) || type.isInstance(agents[i]))
+                {
+                    result.add((T) agents[i]);
+                }
+            }
+        }
+    }
+
+    private static final Bucket[] NO_BUCKETS = new Bucket[0];
+
+    private final HashMap<String, Bucket> states = new HashMap<>();
+    private final HashMap<Class<?>, Bucket> classes = new HashMap<>();
+    private final HashMap<String, Bucket> tags = new HashMap<>();
+    private final HashMap<Class<?>, Bucket[]> class_matches = new HashMap<>();
+    private int size = 0;
+
+    AgentIndex()
+    {
+    }
+
+    /**
+     * Returns the number of indexed agents.
+     *
+     * @return number of agents.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of agents whose current state has the specified name.
+     *
+     * @param state_name state name.
+     * @return number of agents.
+     */
+    public int countInState(String state_name)
+    {
+        Bucket bucket = states.get(state_name);
+        return (bucket == null) ? 0 : bucket.size;
+    }
+
+    /**
+     * Returns the number of agents of the specified class, including its
+     * subclasses.
+     *
+     * @param type agent class.
+     * @return number of agents.
+     */
+    public int countOfClass(Class<? extends Agent> type)
+    {
+        int result = 0;
+        for (Bucket bucket : bucketsOf(type))
+        {
+            result += bucket.size;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of agents with the specified tag.
+     *
+     * @param tag tag.
+     * @return number of agents.
+     */
+    public int countWithTag(String tag)
+    {
+        Bucket bucket = tags.get(tag);
+        return (bucket == null) ? 0 : bucket.size;
+    }
+
+    /**
+     * Returns the agents whose current state has the specified name.
+     *
+     * @param state_name state name.
+     * @return a new list of agents.
+     */
+    public List<Agent> getAgentsInState(String state_name)
+    {
+        Bucket bucket = states.get(state_name);
+        ArrayList<Agent> result = new ArrayList<>((bucket == null) ? 0 : bucket.size);
+        if (bucket != null)
+        {
+            bucket.addTo(result, null);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the agents of the specified class, including its subclasses.
+     *
+     * @param <T> agent type.
+     * @param type agent class.
+     * @return a new list of agents.
+     */
+    public <T extends Agent> List<T> getAgentsOfClass(Class<T> type)
+    {
+        ArrayList<T> result = new ArrayList<>(countOfClass(type));
+        for (Bucket bucket : bucketsOf(type))
+        {
+            bucket.addTo(result, null);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the agents with the specified tag.
+     *
+     * @param tag tag.
+     * @return a new list of agents.
+     */
+    public List<Agent> getAgentsWithTag(String tag)
+    {
+        return getAgents(Agent.class, tag);
+    }
+
+    /**
+     * Returns the agents of the specified class, including its subclasses,
+     * which have the specified tag.
+     *
+     * @param <T> agent type.
+     * @param type agent class.
+     * @param tag tag.
+     * @return a new list of agents.
+     */
+    public <T extends Agent> List<T> getAgents(Class<T> type, String tag)
+    {
+        Bucket bucket = tags.get(tag);
+        ArrayList<T> result = new ArrayList<>();
+        if (bucket != null)
+        {
+            bucket.addTo(result, (type == Agent.class) ? null : type);
+        }
+        return result;
+    }
+
+    /**
+     * Perform an action for each agent whose current state has the specified
+     * name.
+     *
+     * @param state_name state name.
+     * @param action the action.
+     */
+    public void forEachInState(String state_name, Consumer<? super Agent> action)
+    {
+        Bucket bucket = states.get(state_name);
+        if (bucket != null)
+        {
+            bucket.forEach(null, action);
+        }
+    }
+
+    /**
+     * Perform an action for each agent of the specified class, including its
+     * subclasses.
+     *
+     * @param <T> agent type.
+     * @param type agent class.
+     * @param action the action.
+     */
+    public <T extends Agent> void forEachOfClass(Class<T> type, Consumer<? super T> action)
+    {
+        for (Bucket bucket : bucketsOf(type))
+        {
+            bucket.forEach(null, action);
+        }
+    }
+
+    /**
+     * Perform an action for each agent with the specified tag.
+     *
+     * @param tag tag.
+     * @param action the action.
+     */
+    public void forEachWithTag(String tag, Consumer<? super Agent> action)
+    {
+        forEach(Agent.class, tag, action);
+    }
+
+    /**
+     * Perform an action for each agent of the specified class, including its
+     * subclasses, which has the specified tag.
+     *
+     * @param <T> agent type.
+     * @param type agent class.
+     * @param tag tag.
+     * @param action the action.
+     */
+    public <T extends Agent> void forEach(Class<T> type, String tag, Consumer<? super T> action)
+    {
+        Bucket bucket = tags.get(tag);
+        if (bucket != null)
+        {
+            bucket.forEach((type == Agent.class) ? null : type, action);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[index: " + size + " agents, " + states.size() + " states, " + classes.size() + " classes, "
+            + tags.size() + " tags]";
+    }
+
+    /**
+     * Index an agent. Package scope. Only used by the simulation framework.
+     *
+     * @param agent the agent.
+     */
+    void add(Agent agent)
+    {
+        AgentExtension extension = agent.extension();
+        if (extension.index_class_slot >= 0)
+        {
+            return;
+        }
+        Bucket bucket = classes.get(agent.getClass());
+        if (bucket == null)
+        {
+            bucket = new Bucket(Bucket.CLASS, agent.getClass());
+            classes.put(agent.getClass(), bucket);
+            class_matches.clear();
+        }
+        extension.index_class_slot = bucket.add(agent);
+        for (int i = 0; i < extension.tag_count; i++)
+        {
+            extension.tag_slots[i] = tagBucket(extension.tags[i]).add(agent);
+        }
+        update(agent);
+        ++size;
+    }
+
+    /**
+     * Remove an agent from the index. Package scope. Only used by the
+     * simulation framework.
+     *
+     * @param agent the agent.
+     */
+    void remove(Agent agent)
+    {
+        AgentExtension extension = agent.extension;
+        if ((extension == null) || (extension.index_class_slot < 0))
+        {
+            return;
+        }
+        classes.get(agent.getClass()).remove(extension.index_class_slot);
+        extension.index_class_slot = -1;
+        for (int i = 0; i < extension.tag_count; i++)
+        {
+            tags.get(extension.tags[i]).remove(extension.tag_slots[i]);
+            extension.tag_slots[i] = -1;
+        }
+        if (extension.index_state_bucket != null)
+        {
+            extension.index_state_bucket.remove(extension.index_state_slot);
+            extension.index_state_bucket = null;
+            extension.index_state_slot = -1;
+        }
+        --size;
+    }
+
+    /**
+     * Move an agent to the group of its current state. Package scope. Only
+     * used by the simulation framework.
+     *
+     * @param agent the agent.
+     */
+    void update(Agent agent)
+    {
+        AgentExtension extension = agent.extension();
+        IAgentState state = agent.getState();
+        Bucket bucket = null;
+        if (state != null)
+        {
+            bucket = extension.index_state_bucket;
+            if ((bucket == null) || !bucket.key.equals(state.getName()))
+            {
+                bucket = states.get(state.getName());
+                if (bucket == null)
+                {
+                    bucket = new Bucket(Bucket.STATE, state.getName());
+                    states.put(state.getName(), bucket);
+                }
+            }
+        }
+        if (bucket != extension.index_state_bucket)
+        {
+            if (extension.index_state_bucket != null)
+            {
+                extension.index_state_bucket.remove(extension.index_state_slot);
+            }
+            extension.index_state_bucket = bucket;
+            extension.index_state_slot = (bucket == null) ? -1 : bucket.add(agent);
+        }
+    }
+
+    /**
+     * Remove all agents from the index. Package scope. Only used by the
+     * simulation framework.
+     */
+    void clear()
+    {
+        for (Bucket bucket : classes.values())
+        {
+            for (int i = 0; i < bucket.size; i++)
+            {
+                AgentExtension extension = bucket.agents[i].extension;
+                extension.index_class_slot = -1;
+                extension.index_state_bucket = null;
+                extension.index_state_slot = -1;
+                if (extension.tag_slots != null)
+                {
+                    Arrays.fill(extension.tag_slots, 0, extension.tag_count, -1);
+                }
+            }
+        }
+        states.clear();
+        classes.clear();
+        tags.clear();
+        class_matches.clear();
+        size = 0;
+    }
+
+    /**
+     * Add or remove an indexed agent's tag. Package scope. Only used by the
+     * simulation framework.
+     *
+     * @param agent the agent.
+     * @param position position of the tag among the agent's tags.
+     * @param added true if the tag was added, false if it is being removed.
+     */
+    void tagChanged(Agent agent, int position, boolean added)
+    {
+        AgentExtension extension = agent.extension;
+        if (extension.index_class_slot < 0)
+        {
+            return;
+        }
+        if (added)
+        {
+            extension.tag_slots[position] = tagBucket(extension.tags[position]).add(agent);
+        }
+        else
+        {
+            tags.get(extension.tags[position]).remove(extension.tag_slots[position]);
+            extension.tag_slots[position] = -1;
+        }
+    }
+
+    private Bucket tagBucket(String tag)
+    {
+        Bucket bucket = tags.get(tag);
+        if (bucket == null)
+        {
+            bucket = new Bucket(Bucket.TAG, tag);
+            tags.put(tag, bucket);
+        }
+        return bucket;
+    }
+
+    private Bucket[] bucketsOf(Class<?> type)
+    {
+        Bucket[] result = class_matches.get(type);
+        if (result == null)
+        {
+            ArrayList<Bucket> matches = new ArrayList<>();
+            for (Map.Entry<Class<?>, Bucket> entry : classes.entrySet())
+            {
+                if (type.isAssignableFrom(entry.getKey()))
+                {
+                    matches.add(entry.getValue());
+                }
+            }
+            result = matches.isEmpty() ? NO_BUCKETS : matches.toArray(new Bucket[matches.size()]);
+            class_matches.put(type, result);
+        }
+        return result;
+    }
+}
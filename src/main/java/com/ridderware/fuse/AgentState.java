@@ -25,6 +25,8 @@ import org.apache.logging.log4j.*;
  * belongs to one and only one agent. States have names which, in general,
  * should only be used for logging and traceability purposes. Multiple state
  * instances with the same name are NOT the same state and should be avoided.
+ * Where many agents have the same states, SharedAgentState avoids creating
+ * a state instance per agent.
  *
  * @author Jeff Ridder
  */
@@ -41,6 +43,10 @@ public class AgentState implements IAgentState {
     private String description = null;
 
     public String getStateDesc() {
+        if (description == null) {
+            String agent_prefix = (agent == null) ? "" : agent.getName() + ": ";
+            description = "[" + agent_prefix + name + "]";
+        }
         return description;
     }
 
@@ -51,7 +57,6 @@ public class AgentState implements IAgentState {
      */
     public AgentState(String name) {
         this.name = name;
-        this.description = "[" + name + "]";
     }
 
     /**
@@ -71,14 +76,13 @@ public class AgentState implements IAgentState {
 
     @Override
     public String toString() {
-        return this.description;
+        return getStateDesc();
     }
 
     @Override
     public void associateWithAgent(IAgent agent) {
         this.agent = agent;
-        String agent_prefix = (agent == null) ? "" : agent.getName() + ": ";
-        this.description = "[" + agent_prefix + name + "]";
+        this.description = null;
     }
 
 }
@@ -0,0 +1,176 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import com.ridderware.jrandom.RandomNumberGenerator;
+
+/**
+ * Samples a discrete distribution in constant time by Walker's alias method,
+ * drawing one uniform variate per sample. The distribution is given by
+ * non-negative weights; sampleIndex returns an index with probability
+ * proportional to its weight, and sample returns the value at that index.
+ *
+ * @author Jeff Ridder
+ * @see VariateSampler
+ */
+public final class AliasSampler extends VariateSampler
+{
+
+    private final double[] values;
+    private final double[] probabilities;
+    private final int[] aliases;
+
+    /**
+     * Creates a sampler of indexes weighted by the specified weights, whose
+     * sample method returns the index as a double.
+     *
+     * @param rng the generator.
+     * @param weights the weights.
+     */
+    public AliasSampler(RandomNumberGenerator rng, double[] weights)
+    {
+        this(rng, null, weights);
+    }
+
+    /**
+     * Creates a sampler of values weighted by the specified weights.
+     *
+     * @param rng the generator.
+     * @param values the values, or null to sample indexes.
+     * @param weights the weights, one for each value.
+     */
+    public AliasSampler(RandomNumberGenerator rng, double[] values, double[] weights)
+    {
+        super(rng);
+        int n = weights.length;
+        if ((n == 0) || ((values != null) && (values.length != n)))
+        {
+            throw new IllegalArgumentException("There must be one weight for each value.");
+        }
+        double total = 0;
+        for (double weight : weights)
+        {
+            if (!(weight >= 0) || Double.isInfinite(weight))
+            {
+                throw new IllegalArgumentException("Weights must be finite and non-negative.");
+            }
+            total += weight;
+        }
+        if (total <= 0)
+        {
+            throw new IllegalArgumentException("At least one weight must be positive.");
+        }
+
+        this.values = (values == null) ? null : values.clone();
+        this.probabilities = new double[n];
+        this.aliases = new int[n];
+
+        // Vose's construction: scaled weights below one are topped up from
+        // those above one.
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int num_small = 0;
+        int num_large = 0;
+        for (int i = 0; i < n; i++)
+        {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1.0)
+            {
+                small[num_small++] = i;
+            }
+            else
+            {
+                large[num_large++] = i;
+            }
+        }
+        while ((num_small > 0) && (num_large > 0))
+        {
+            int less = small[--num_small];
+            int more = large[--num_large];
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+            if (scaled[more] < 1.0)
+            {
+                small[num_small++] = more;
+            }
+            else
+            {
+                large[num_large++] = more;
+            }
+        }
+        while (num_large > 0)
+        {
+            int i = large[--num_large];
+            probabilities[i] = 1.0;
+            aliases[i] = i;
+        }
+        while (num_small > 0)
+        {
+            int i = small[--num_small];
+            probabilities[i] = 1.0;
+            aliases[i] = i;
+        }
+    }
+
+    /**
+     * Returns the number of outcomes.
+     *
+     * @return number of outcomes.
+     */
+    public int size()
+    {
+        return probabilities.length;
+    }
+
+    /**
+     * Returns a random index with probability proportional to its weight.
+     *
+     * @return index.
+     */
+    public int sampleIndex()
+    {
+        double u = rng.nextDouble() * probabilities.length;
+        int column = (int) u;
+        return ((u - column) < probabilities[column]) ? column : aliases[column];
+    }
+
+    @Override
+    public double sample()
+    {
+        int index = sampleIndex();
+        return (values == null) ? index : values[index];
+    }
+
+    /**
+     * Generate a block of random indexes.
+     *
+     * @param indexes receives the indexes.
+     * @param offset index of the first result.
+     * @param length number of results.
+     */
+    public void fillIndexes(int[] indexes, int offset, int length)
+    {
+        for (int i = offset; i < offset + length; i++)
+        {
+            indexes[i] = sampleIndex();
+        }
+    }
+}
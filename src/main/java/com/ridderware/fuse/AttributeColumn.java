@@ -0,0 +1,50 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * The operations which an AttributeStore applies to every one of its columns
+ * alike, whatever the type of their values. Package scope. Only used by the
+ * simulation framework.
+ *
+ * @author Jeff Ridder
+ * @see AttributeStore
+ */
+abstract class AttributeColumn
+{
+
+    /**
+     * Grow the column, if necessary, to hold the specified number of ids.
+     *
+     * @param capacity required number of ids.
+     */
+    abstract void ensureCapacity(int capacity);
+
+    /**
+     * Set the value of one id to zero, or false.
+     *
+     * @param id agent id.
+     */
+    abstract void clear(int id);
+
+    /**
+     * Set every value to zero, or false.
+     */
+    abstract void clearAll();
+}
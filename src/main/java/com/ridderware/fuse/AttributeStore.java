@@ -0,0 +1,304 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Columnar storage of agent attributes. Each attribute is a typed column of
+ * primitive values indexed by a dense agent id, which the store assigns when
+ * the agent is added to the universe. Agents read and write their attributes
+ * through the columns rather than through fields, so that a computation over
+ * the whole population, such as integrating positions or reducing a
+ * statistic, runs as a loop over contiguous memory using the bulk operations
+ * of the columns.
+ * <p>
+ * The columns of a store are held either in Java arrays or, for populations
+ * too large to hold comfortably on the heap, in direct buffers outside it.
+ * <p>
+ * The store is created by Universe.getAttributeStore, or installed with
+ * Universe.setAttributeStore, and only assigns ids to agents added after it
+ * is installed. Ids are not reused within a simulation run; the attributes of
+ * an agent removed from the universe are set to zero and its presence flag is
+ * cleared, so that reductions can be restricted to present agents with the
+ * presence column as a mask. Ids are discarded when the simulation is reset.
+ *
+ * @author Jeff Ridder
+ * @see DoubleColumn
+ * @see IntColumn
+ * @see BooleanColumn
+ */
+public final class AttributeStore
+{
+
+    private final boolean off_heap;
+    private final HashMap<String, DoubleColumn> double_columns = new HashMap<>();
+    private final HashMap<String, IntColumn> int_columns = new HashMap<>();
+    private final HashMap<String, BooleanColumn> boolean_columns = new HashMap<>();
+    private final ArrayList<AttributeColumn> columns = new ArrayList<>();
+    private final BooleanColumn present;
+
+    private Agent[] agents = new Agent[1024];
+    private int size = 0;
+    private int capacity = 1024;
+
+    /**
+     * Creates a store whose columns are held on the heap.
+     */
+    public AttributeStore()
+    {
+        this(false);
+    }
+
+    /**
+     * Creates a store.
+     *
+     * @param off_heap true to hold the columns in direct buffers outside the
+     * heap.
+     */
+    public AttributeStore(boolean off_heap)
+    {
+        this(off_heap, 1024);
+    }
+
+    /**
+     * Creates a store with columns sized for the specified number of ids.
+     * Package scope. Only used by the simulation framework.
+     */
+    AttributeStore(boolean off_heap, int capacity)
+    {
+        this.off_heap = off_heap;
+        this.capacity = Math.max(capacity, 64);
+        this.present = getBooleanColumn("present");
+    }
+
+    /**
+     * Returns true if the columns of this store are held in direct buffers
+     * outside the heap.
+     *
+     * @return true if off heap.
+     */
+    public boolean isOffHeap()
+    {
+        return off_heap;
+    }
+
+    /**
+     * Returns the number of ids assigned, which bounds the bulk operations of
+     * the columns.
+     *
+     * @return number of ids.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the agent with the specified id, or null if it has been
+     * removed.
+     *
+     * @param id agent id.
+     * @return the agent.
+     */
+    public Agent getAgent(int id)
+    {
+        return ((id >= 0) && (id < Math.min(size, agents.length))) ? agents[id] : null;
+    }
+
+    /**
+     * Returns the column of presence flags, which is true for the ids of the
+     * agents currently in the universe.
+     *
+     * @return presence column.
+     */
+    public BooleanColumn getPresentColumn()
+    {
+        return present;
+    }
+
+    /**
+     * Returns the double column with the specified name, creating it if
+     * necessary. A new column is zero for every id.
+     *
+     * @param name column name.
+     * @return the column.
+     */
+    public DoubleColumn getDoubleColumn(String name)
+    {
+        DoubleColumn column = double_columns.get(name);
+        if (column == null)
+        {
+            column = new DoubleColumn(this, name, capacity);
+            double_columns.put(name, column);
+            columns.add(column);
+        }
+        return column;
+    }
+
+    /**
+     * Returns the int column with the specified name, creating it if
+     * necessary. A new column is zero for every id.
+     *
+     * @param name column name.
+     * @return the column.
+     */
+    public IntColumn getIntColumn(String name)
+    {
+        IntColumn column = int_columns.get(name);
+        if (column == null)
+        {
+            column = new IntColumn(this, name, capacity);
+            int_columns.put(name, column);
+            columns.add(column);
+        }
+        return column;
+    }
+
+    /**
+     * Returns the boolean column with the specified name, creating it if
+     * necessary. A new column is false for every id.
+     *
+     * @param name column name.
+     * @return the column.
+     */
+    public BooleanColumn getBooleanColumn(String name)
+    {
+        BooleanColumn column = boolean_columns.get(name);
+        if (column == null)
+        {
+            column = new BooleanColumn(this, name, capacity);
+            boolean_columns.put(name, column);
+            columns.add(column);
+        }
+        return column;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[attributes: " + size + " ids, " + columns.size() + " columns" + (off_heap ? ", off heap]" : "]");
+    }
+
+    /**
+     * Assign the next id to an agent. Package scope. Only used by the
+     * simulation framework.
+     *
+     * @param agent the agent.
+     */
+    void register(Agent agent)
+    {
+        if (getAgent(agent.getAttributeId()) == agent)
+        {
+            return;
+        }
+        int id = allocate(1);
+        if (id >= agents.length)
+        {
+            agents = Arrays.copyOf(agents, Math.max(id + 1, agents.length * 2));
+        }
+        agent.extension().attribute_id = id;
+        agents[id] = agent;
+    }
+
+    /**
+     * Assign a range of ids which do not belong to agent objects, as for the
+     * entries of an OffHeapPopulation. Package scope. Only used by the
+     * simulation framework.
+     *
+     * @param count number of ids.
+     * @return the first id of the range.
+     */
+    int allocate(int count)
+    {
+        int required = size + count;
+        if (required > capacity)
+        {
+            capacity = (int) Math.max(required, Math.min(Integer.MAX_VALUE - 8, capacity * 2L));
+            for (AttributeColumn column : columns)
+            {
+                column.ensureCapacity(capacity);
+            }
+        }
+        int first = size;
+        size = required;
+        for (int id = first; id < size; id++)
+        {
+            present.set(id, true);
+        }
+        return first;
+    }
+
+    /**
+     * Release an agent's id. Package scope. Only used by the simulation
+     * framework.
+     *
+     * @param agent the agent.
+     */
+    void unregister(Agent agent)
+    {
+        int id = agent.getAttributeId();
+        if ((id >= 0) && (getAgent(id) == agent))
+        {
+            for (AttributeColumn column : columns)
+            {
+                column.clear(id);
+            }
+            agents[id] = null;
+            agent.extension.attribute_id = -1;
+        }
+    }
+
+    /**
+     * Discard all ids and zero the columns. Package scope. Only used by the
+     * simulation framework.
+     */
+    void clear()
+    {
+        for (int id = 0; id < Math.min(size, agents.length); id++)
+        {
+            if (agents[id] != null)
+            {
+                agents[id].extension.attribute_id = -1;
+                agents[id] = null;
+            }
+        }
+        for (AttributeColumn column : columns)
+        {
+            column.clearAll();
+        }
+        size = 0;
+    }
+
+    /**
+     * Allocate a direct buffer in native byte order.
+     */
+    static ByteBuffer allocate(long bytes)
+    {
+        if (bytes > Integer.MAX_VALUE)
+        {
+            throw new IllegalStateException("A column of " + bytes + " bytes is too large for a direct buffer.");
+        }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+}
@@ -36,6 +36,10 @@ public abstract class Behavior<T extends IAgent> implements IBehavior<T>
 
     private T owner;
     private boolean is_enabled;
+    private String[] active_states = null;
+
+    // Package scope.  Position in a BehaviorQueue, maintained by the queue.
+    int queue_index = -1;
 
     /**
      * Behavior constructor.
@@ -69,6 +73,86 @@ public abstract class Behavior<T extends IAgent> implements IBehavior<T>
         return is_enabled;
     }
 
+    /**
+     * Restricts this behavior to the named agent states. The behavior is
+     * enabled while its agent is in one of these states and disabled
+     * otherwise; the agent applies the change as part of each state
+     * transition. For a StateMachine state, a behavior active in a composite
+     * state is also active in all of its substates. Calling this method with
+     * no names removes the restriction.
+     *
+     * @param state_names names of the states in which this behavior is active.
+     */
+    public void setActiveStates(String... state_names)
+    {
+        this.active_states = ((state_names == null) || (state_names.length == 0)) ? null : state_names.clone();
+    }
+
+    /**
+     * Returns true if this behavior is restricted to particular agent states.
+     *
+     * @return true if state gated.
+     */
+    public boolean isStateGated()
+    {
+        return active_states != null;
+    }
+
+    /**
+     * Returns true if this behavior is active in the specified state. An
+     * ungated behavior is active in every state.
+     *
+     * @param state an agent state.
+     * @return true if active.
+     */
+    public boolean isActiveIn(IAgentState state)
+    {
+        if (active_states == null)
+        {
+            return true;
+        }
+        if (state == null)
+        {
+            return false;
+        }
+        for (String name : active_states)
+        {
+            if (name.equals(state.getName()))
+            {
+                return true;
+            }
+            if (state instanceof StateMachine.State)
+            {
+                for (StateMachine.State parent = ((StateMachine.State) state).getParent(); parent != null; parent = parent.getParent())
+                {
+                    if (name.equals(parent.getName()))
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the enabled flag without informing the universe. The caller is
+     * responsible for passing the behavior to Universe.behaviorsChanged.
+     * Package scope.  Only used by simulation framework.
+     *
+     * @param enabled the new enabled flag.
+     * @return true if the flag changed.
+     */
+    boolean setEnabledQuietly(boolean enabled)
+    {
+        if (enabled != is_enabled)
+        {
+            is_enabled = enabled;
+            return true;
+        }
+        return false;
+    }
+
     public T getAgent()
     {
         return this.owner;
@@ -112,7 +196,7 @@ public abstract class Behavior<T extends IAgent> implements IBehavior<T>
 
     private void init()
     {
-        is_enabled = true;
+        is_enabled = (active_states == null) || (owner == null) || isActiveIn(owner.getState());
     }
 
 
@@ -0,0 +1,371 @@
+/* %%
+ *
+ * Fast Universal Simulation Engine (FUSE)
+ *
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An array based binary min-heap of behaviors ordered by scheduled time. Unlike
+ * java.util.PriorityQueue, a large group of behaviors can be added in linear
+ * time by appending them and restoring the heap property bottom-up. The
+ * scheduled time of each behavior is captured when it is added and kept in a
+ * parallel array, so that sifting compares primitive keys without touching
+ * the behaviors themselves. When a queued behavior's scheduled time changes,
+ * update must be called to restore its position.
+ * <p>
+ * The queue records the position of each Behavior in its queue_index field,
+ * so that a Behavior can be found and removed in logarithmic rather than
+ * linear time. Package scope. Only used by the simulation framework.
+ *
+ * @author Jeff Ridder
+ */
+final class BehaviorQueue
+{
+
+    private IBehavior<? extends IAgent>[] heap;
+    private double[] times;
+    private int size = 0;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param capacity initial capacity.
+     */
+    @SuppressWarnings("unchecked")
+    BehaviorQueue(int capacity)
+    {
+        heap = new IBehavior[Math.max(capacity, 16)];
+        times = new double[heap.length];
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    void clear()
+    {
+        for (int i = 0; i < size; i++)
+        {
+            unplace(heap[i]);
+        }
+        Arrays.fill(heap, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Returns true if the specified behavior is in this queue.
+     *
+     * @param behavior the behavior.
+     * @return true if queued.
+     */
+    boolean contains(Object behavior)
+    {
+        return indexOf(behavior) >= 0;
+    }
+
+    /**
+     * Grow the queue, if necessary, so that it can hold the specified number
+     * of behaviors without further reallocation.
+     *
+     * @param capacity required capacity.
+     */
+    void ensureCapacity(int capacity)
+    {
+        if (capacity > heap.length)
+        {
+            int length = Math.max(capacity, heap.length + (heap.length >> 1));
+            heap = Arrays.copyOf(heap, length);
+            times = Arrays.copyOf(times, length);
+        }
+    }
+
+    /**
+     * Returns the behavior with the earliest scheduled time, or null if the
+     * queue is empty.
+     *
+     * @return earliest behavior.
+     */
+    IBehavior<? extends IAgent> peek()
+    {
+        return (size == 0) ? null : heap[0];
+    }
+
+    /**
+     * Returns the earliest scheduled time, or Double.MAX_VALUE if the queue is
+     * empty.
+     *
+     * @return earliest scheduled time.
+     */
+    double peekTime()
+    {
+        return (size == 0) ? Double.MAX_VALUE : times[0];
+    }
+
+    /**
+     * Removes and returns the behavior with the earliest scheduled time, or
+     * null if the queue is empty.
+     *
+     * @return earliest behavior.
+     */
+    IBehavior<? extends IAgent> poll()
+    {
+        if (size == 0)
+        {
+            return null;
+        }
+        IBehavior<? extends IAgent> result = heap[0];
+        IBehavior<? extends IAgent> last = heap[--size];
+        double last_time = times[size];
+        heap[size] = null;
+        if (size > 0)
+        {
+            siftDown(0, last, last_time);
+        }
+        unplace(result);
+        return result;
+    }
+
+    /**
+     * Move a queued behavior to its new position after its scheduled time has
+     * changed. For the behavior at the head of the queue this is a single
+     * sift down, half the work of removing and reinserting it.
+     *
+     * @param behavior the behavior, which must be queued.
+     */
+    void update(IBehavior<? extends IAgent> behavior)
+    {
+        int index = indexOf(behavior);
+        if (index >= 0)
+        {
+            double time = behavior.getScheduledTime();
+            siftDown(index, behavior, time);
+            if (heap[index] == behavior)
+            {
+                siftUp(index, behavior, time);
+            }
+        }
+    }
+
+    void add(IBehavior<? extends IAgent> behavior)
+    {
+        ensureCapacity(size + 1);
+        siftUp(size++, behavior, behavior.getScheduledTime());
+    }
+
+    /**
+     * Add a group of behaviors. When the group is at least as large as the
+     * current queue the behaviors are appended and the heap is rebuilt in
+     * linear time, otherwise each behavior is sifted into place.
+     *
+     * @param behaviors behaviors to add.
+     */
+    void addAll(Collection<? extends IBehavior<? extends IAgent>> behaviors)
+    {
+        int count = behaviors.size();
+        ensureCapacity(size + count);
+        if (count >= size)
+        {
+            for (IBehavior<? extends IAgent> behavior : behaviors)
+            {
+                place(size++, behavior, behavior.getScheduledTime());
+            }
+            heapify();
+        }
+        else
+        {
+            for (IBehavior<? extends IAgent> behavior : behaviors)
+            {
+                siftUp(size++, behavior, behavior.getScheduledTime());
+            }
+        }
+    }
+
+    /**
+     * Remove the specified behavior.
+     *
+     * @param behavior behavior to remove.
+     * @return true if the behavior was found.
+     */
+    boolean remove(Object behavior)
+    {
+        int index = indexOf(behavior);
+        if (index >= 0)
+        {
+            removeAt(index);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove a group of behaviors. When the group is large relative to the
+     * queue the behaviors are removed together and the heap is rebuilt in
+     * linear time, otherwise each behavior is removed individually.
+     *
+     * @param behaviors behaviors to remove.
+     * @return the number of behaviors found and removed.
+     */
+    int removeAll(Collection<?> behaviors)
+    {
+        int removed = 0;
+        if ((long) behaviors.size() * (32 - Integer.numberOfLeadingZeros(size)) <= size)
+        {
+            for (Object behavior : behaviors)
+            {
+                if (remove(behavior))
+                {
+                    removed++;
+                }
+            }
+            return removed;
+        }
+
+        for (Object behavior : behaviors)
+        {
+            int index = indexOf(behavior);
+            if (index >= 0)
+            {
+                unplace(heap[index]);
+                heap[index] = null;
+                removed++;
+            }
+        }
+        if (removed > 0)
+        {
+            int n = 0;
+            for (int i = 0; i < size; i++)
+            {
+                if (heap[i] != null)
+                {
+                    place(n++, heap[i], times[i]);
+                }
+            }
+            Arrays.fill(heap, n, size, null);
+            size = n;
+            heapify();
+        }
+        return removed;
+    }
+
+    private int indexOf(Object behavior)
+    {
+        if (behavior instanceof Behavior)
+        {
+            int index = ((Behavior<?>) behavior).queue_index;
+            return ((index >= 0) && (index < size) && (heap[index] == behavior)) ? index : -1;
+        }
+        for (int i = 0; i < size; i++)
+        {
+            if (heap[i] == behavior)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeAt(int index)
+    {
+        IBehavior<? extends IAgent> removed = heap[index];
+        IBehavior<? extends IAgent> last = heap[--size];
+        double last_time = times[size];
+        heap[size] = null;
+        if (index < size)
+        {
+            siftDown(index, last, last_time);
+            if (heap[index] == last)
+            {
+                siftUp(index, last, last_time);
+            }
+        }
+        unplace(removed);
+    }
+
+    private void heapify()
+    {
+        for (int i = (size >>> 1) - 1; i >= 0; i--)
+        {
+            siftDown(i, heap[i], times[i]);
+        }
+    }
+
+    private void siftUp(int index, IBehavior<? extends IAgent> behavior, double time)
+    {
+        while (index > 0)
+        {
+            int parent = (index - 1) >>> 1;
+            double parent_time = times[parent];
+            if (time >= parent_time)
+            {
+                break;
+            }
+            place(index, heap[parent], parent_time);
+            index = parent;
+        }
+        place(index, behavior, time);
+    }
+
+    private void siftDown(int index, IBehavior<? extends IAgent> behavior, double time)
+    {
+        int half = size >>> 1;
+        while (index < half)
+        {
+            int child = (index << 1) + 1;
+            double child_time = times[child];
+            int right = child + 1;
+            if ((right < size) && (times[right] < child_time))
+            {
+                child = right;
+                child_time = times[right];
+            }
+            if (time <= child_time)
+            {
+                break;
+            }
+            place(index, heap[child], child_time);
+            index = child;
+        }
+        place(index, behavior, time);
+    }
+
+    private void place(int index, IBehavior<? extends IAgent> behavior, double time)
+    {
+        heap[index] = behavior;
+        times[index] = time;
+        if (behavior instanceof Behavior)
+        {
+            ((Behavior<?>) behavior).queue_index = index;
+        }
+    }
+
+    private static void unplace(IBehavior<? extends IAgent> behavior)
+    {
+        if (behavior instanceof Behavior)
+        {
+            ((Behavior<?>) behavior).queue_index = -1;
+        }
+    }
+}
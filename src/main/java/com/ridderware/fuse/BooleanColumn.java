@@ -0,0 +1,260 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * A column of boolean attributes in an AttributeStore, indexed by agent id
+ * and packed one bit per agent. The bulk operations cover every id assigned
+ * by the store.
+ *
+ * @author Jeff Ridder
+ * @see AttributeStore
+ */
+public final class BooleanColumn extends AttributeColumn
+{
+
+    private final AttributeStore store;
+    private final String name;
+    private long[] words = null;
+    private LongBuffer buffer = null;
+
+    BooleanColumn(AttributeStore store, String name, int capacity)
+    {
+        this.store = store;
+        this.name = name;
+        int length = (capacity + 63) >>> 6;
+        if (store.isOffHeap())
+        {
+            buffer = AttributeStore.allocate(8L * length).asLongBuffer();
+        }
+        else
+        {
+            words = new long[length];
+        }
+    }
+
+    /**
+     * Returns the name of this column.
+     *
+     * @return column name.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the value of one id.
+     *
+     * @param id agent id.
+     * @return the value.
+     */
+    public boolean get(int id)
+    {
+        return (word(id >>> 6) & (1L << id)) != 0;
+    }
+
+    /**
+     * Sets the value of one id.
+     *
+     * @param id agent id.
+     * @param value the value.
+     */
+    public void set(int id, boolean value)
+    {
+        int index = id >>> 6;
+        long word = word(index);
+        setWord(index, value ? (word | (1L << id)) : (word & ~(1L << id)));
+    }
+
+    /**
+     * Returns the value of an agent which has been assigned an id by the
+     * store.
+     *
+     * @param agent the agent.
+     * @return the value.
+     */
+    public boolean get(Agent agent)
+    {
+        return get(agent.getAttributeId());
+    }
+
+    /**
+     * Sets the value of an agent which has been assigned an id by the store.
+     *
+     * @param agent the agent.
+     * @param value the value.
+     */
+    public void set(Agent agent, boolean value)
+    {
+        set(agent.getAttributeId(), value);
+    }
+
+    /**
+     * Set every value to the specified value.
+     *
+     * @param value the value.
+     */
+    public void fill(boolean value)
+    {
+        int n = store.size();
+        int full = n >>> 6;
+        long fill = value ? -1L : 0L;
+        for (int i = 0; i < full; i++)
+        {
+            setWord(i, fill);
+        }
+        for (int id = full << 6; id < n; id++)
+        {
+            set(id, value);
+        }
+    }
+
+    /**
+     * Returns the number of true values.
+     *
+     * @return count.
+     */
+    public long count()
+    {
+        int n = store.size();
+        int full = n >>> 6;
+        long result = 0;
+        for (int i = 0; i < full; i++)
+        {
+            result += Long.bitCount(word(i));
+        }
+        if ((n & 63) != 0)
+        {
+            result += Long.bitCount(word(full) & ((1L << n) - 1));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of ids for which both this column and another are
+     * true.
+     *
+     * @param other a boolean column from the same store.
+     * @return count.
+     */
+    public long countAnd(BooleanColumn other)
+    {
+        int n = store.size();
+        int full = n >>> 6;
+        long result = 0;
+        for (int i = 0; i < full; i++)
+        {
+            result += Long.bitCount(word(i) & other.word(i));
+        }
+        if ((n & 63) != 0)
+        {
+            result += Long.bitCount(word(full) & other.word(full) & ((1L << n) - 1));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first id at or after the specified id whose value is true.
+     *
+     * @param from the first id to consider.
+     * @return an id, or -1 if there is none.
+     */
+    public int nextSet(int from)
+    {
+        int n = store.size();
+        if (from >= n)
+        {
+            return -1;
+        }
+        int index = from >>> 6;
+        long word = word(index) & (-1L << from);
+        while (true)
+        {
+            if (word != 0)
+            {
+                int id = (index << 6) + Long.numberOfTrailingZeros(word);
+                return (id < n) ? id : -1;
+            }
+            if (++index > ((n - 1) >>> 6))
+            {
+                return -1;
+            }
+            word = word(index);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + name + ": boolean]";
+    }
+
+    @Override
+    void clear(int id)
+    {
+        set(id, false);
+    }
+
+    @Override
+    void clearAll()
+    {
+        fill(false);
+    }
+
+    @Override
+    void ensureCapacity(int capacity)
+    {
+        int length = (capacity + 63) >>> 6;
+        if (words != null)
+        {
+            if (length > words.length)
+            {
+                words = Arrays.copyOf(words, length);
+            }
+        }
+        else if (length > buffer.capacity())
+        {
+            LongBuffer grown = AttributeStore.allocate(8L * length).asLongBuffer();
+            buffer.clear();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    private long word(int index)
+    {
+        return (words != null) ? words[index] : buffer.get(index);
+    }
+
+    private void setWord(int index, long word)
+    {
+        if (words != null)
+        {
+            words[index] = word;
+        }
+        else
+        {
+            buffer.put(index, word);
+        }
+    }
+}
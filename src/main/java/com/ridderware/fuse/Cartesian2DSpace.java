@@ -18,6 +18,7 @@
  */
 package com.ridderware.fuse;
 
+import com.ridderware.jrandom.RandomNumberGenerator;
 import java.awt.geom.Rectangle2D;
 import org.apache.logging.log4j.*;
 
@@ -91,10 +92,25 @@ public class Cartesian2DSpace extends Space
      */
     public Double3D getRandomCoordinate()
     {
+        RandomNumberGenerator random = getRandom();
         return new Double3D(random.nextDouble() * getDeltaX() + getXmin(),
                 random.nextDouble() * getDeltaY() + getYmin(), 0);
     }
     
+    /**
+     * Creates a uniform grid index over the bounds of this space and installs
+     * it as the spatial index of this space.
+     * @param cell_size The width and height of a grid cell, best chosen near
+     * the typical query range
+     * @return The grid
+     */
+    public SpatialGrid2D<Agent> createSpatialGrid(double cell_size)
+    {
+        SpatialGrid2D<Agent> grid = new SpatialGrid2D<>(getXmin(), getXmax(), getYmin(), getYmax(), cell_size);
+        setSpatialIndex(grid);
+        return grid;
+    }
+    
     /**
      * Returns the bounds of this space in the cartesian coordinate system.
      * Used primarily for drawing / scaling purposes.
@@ -19,6 +19,7 @@
 
 package com.ridderware.fuse;
 
+import com.ridderware.jrandom.RandomNumberGenerator;
 import java.awt.geom.Rectangle2D;
 import org.apache.logging.log4j.*;
 
@@ -95,6 +96,20 @@ public class Cartesian3DSpace extends Space
         super(name, xmin,xmax,ymin,ymax,zmin,zmax);
     }
     
+    /**
+     * Creates a loose octree index over the bounds of this space and installs
+     * it as the spatial index of this space.
+     * @param min_node_size The width below which octree nodes do not split
+     * @return The octree
+     */
+    public LooseOctree<Agent> createLooseOctree(double min_node_size)
+    {
+        LooseOctree<Agent> octree = new LooseOctree<>(getXmin(), getXmax(), getYmin(), getYmax(),
+                getZmin(), getZmax(), min_node_size);
+        setSpatialIndex(octree);
+        return octree;
+    }
+    
     /**
      * Returns the bounds of this space in the cartesian coordinate system.
      * Used primarily for drawing / scaling purposes.
@@ -136,6 +151,7 @@ public class Cartesian3DSpace extends Space
      */
     public Double3D getRandomCoordinate()
     {
+        RandomNumberGenerator random = getRandom();
         return new Double3D(random.nextDouble() * getDeltaX() + getXmin(),
                 random.nextDouble() * getDeltaY() + getYmin(),
                 random.nextDouble() * getDeltaZ() + getZmin());
@@ -0,0 +1,159 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.ArrayList;
+
+/**
+ * A spatial index which combines a dynamic index of moving items with any
+ * number of static indexes, such as StaticKDTree instances over immobile
+ * items, so that each query spans all of them. Insertions, moves and removals
+ * are made in the dynamic index, and handles are those of the dynamic index.
+ *
+ * @author Jeff Ridder
+ * @param <T> the type of the indexed items.
+ * @see StaticKDTree
+ */
+public class CompositeSpatialIndex<T> implements ISpatialIndex<T>
+{
+
+    private final ISpatialIndex<T> dynamic_index;
+
+    private final ArrayList<ISpatialQuery<? extends T>> static_indexes = new ArrayList<>();
+
+    /**
+     * Creates a composite of a dynamic index and no static indexes.
+     *
+     * @param dynamic_index the index of moving items.
+     */
+    public CompositeSpatialIndex(ISpatialIndex<T> dynamic_index)
+    {
+        if (dynamic_index == null)
+        {
+            throw new IllegalArgumentException("A dynamic index is required.");
+        }
+        this.dynamic_index = dynamic_index;
+    }
+
+    /**
+     * Add a static index, whose items are included in every query.
+     *
+     * @param static_index the index.
+     */
+    public void addStaticIndex(ISpatialQuery<? extends T> static_index)
+    {
+        if (static_index != null)
+        {
+            static_indexes.add(static_index);
+        }
+    }
+
+    /**
+     * Remove a static index.
+     *
+     * @param static_index the index.
+     */
+    public void removeStaticIndex(ISpatialQuery<? extends T> static_index)
+    {
+        static_indexes.remove(static_index);
+    }
+
+    /**
+     * Returns the index of moving items, which holds the handles.
+     *
+     * @return the dynamic index.
+     */
+    public ISpatialIndex<T> getDynamicIndex()
+    {
+        return dynamic_index;
+    }
+
+    @Override
+    public int size()
+    {
+        int size = dynamic_index.size();
+        for (int i = 0; i < static_indexes.size(); i++)
+        {
+            size += static_indexes.get(i).size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean forEachWithin(double x, double y, double z, double range, ISpatialVisitor<? super T> visitor)
+    {
+        if (!dynamic_index.forEachWithin(x, y, z, range, visitor))
+        {
+            return false;
+        }
+        for (int i = 0; i < static_indexes.size(); i++)
+        {
+            if (!static_indexes.get(i).forEachWithin(x, y, z, range, visitor))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void collectNearest(double x, double y, double z, double max_range, NeighborBuffer<? super T> buffer)
+    {
+        // Each index prunes against the nearest items the others have offered.
+        dynamic_index.collectNearest(x, y, z, max_range, buffer);
+        for (int i = 0; i < static_indexes.size(); i++)
+        {
+            static_indexes.get(i).collectNearest(x, y, z, max_range, buffer);
+        }
+    }
+
+    @Override
+    public int insert(T item, double x, double y, double z)
+    {
+        return dynamic_index.insert(item, x, y, z);
+    }
+
+    @Override
+    public void move(int handle, double x, double y, double z)
+    {
+        dynamic_index.move(handle, x, y, z);
+    }
+
+    @Override
+    public void remove(int handle)
+    {
+        dynamic_index.remove(handle);
+    }
+
+    @Override
+    public T get(int handle)
+    {
+        return dynamic_index.get(handle);
+    }
+
+    /**
+     * Remove every item from the dynamic index. The static indexes are
+     * unaffected.
+     */
+    @Override
+    public void clear()
+    {
+        dynamic_index.clear();
+    }
+}
@@ -19,10 +19,9 @@
 package com.ridderware.fuse;
 
 import java.text.DecimalFormat;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashSet;
-
-import java.util.PriorityQueue;
 import java.util.Set;
 import org.apache.logging.log4j.*;
 
@@ -42,14 +41,13 @@ public class ContinuousTimeUniverse extends Universe
     /**
      * All of the agents in this Universe.
      */
-    private final LinkedHashSet<IAgent> agents = new LinkedHashSet<IAgent>(2500);
+    private LinkedHashSet<IAgent> agents = new LinkedHashSet<IAgent>(2500);
 
     /**
      * Agents that have been added to the Universe but which have not yet had
      * their behaviors considered for scheduling.
      */
-    private final LinkedHashSet<IAgent> new_agents = new LinkedHashSet<IAgent>(
-            2500);
+    private final ArrayList<IAgent> new_agents = new ArrayList<IAgent>(2500);
     /**
      * Behaviors that have been enabled that will be reevaluated prior to the
      * next simulation step.
@@ -59,17 +57,29 @@ public class ContinuousTimeUniverse extends Universe
     /**
      * All of the behaviors in this universe.
      */
-    private final PriorityQueue<IBehavior<? extends IAgent>> behaviors
-            = new PriorityQueue<IBehavior<? extends IAgent>>(100,
-                    new Comparator<IBehavior<? extends IAgent>>()
-                    {
+    private final BehaviorQueue behaviors = new BehaviorQueue(100);
 
-                        @Override
-                        public int compare(IBehavior<? extends IAgent> o1, IBehavior<? extends IAgent> o2)
-                        {
-                            return Double.compare(o1.getScheduledTime(), o2.getScheduledTime());
-                        }
-                    });
+    /**
+     * A scratch list which, during a fast-forward, contains the catch-up
+     * behaviors to be returned to the background queue.
+     */
+    private final ArrayList<IBehavior<? extends IAgent>> due = new ArrayList<>(100);
+
+    /**
+     * True if periodic behaviors are scheduled in per-period lanes rather than
+     * in the behaviors queue.
+     */
+    private boolean periodic_lanes = true;
+
+    /**
+     * One lane for each distinct period of the periodic behaviors.
+     */
+    private final ArrayList<PeriodicLane> lanes = new ArrayList<>();
+
+    /**
+     * The catch-up behaviors, while fast-forward is enabled.
+     */
+    private final BehaviorQueue background = new BehaviorQueue(16);
 
     /**
      * A scratch list which, during a step, contains the indexes into the
@@ -88,6 +98,31 @@ public class ContinuousTimeUniverse extends Universe
     {
     }
 
+    /**
+     * Selects whether periodic behaviors are scheduled in lanes. When enabled,
+     * which is the default, each PeriodicBehavior is kept in a lane with the
+     * other periodic behaviors of the same period and is rescheduled in
+     * constant time, bypassing the general queue. Only the heads of the lanes
+     * are compared with the head of the queue.
+     *
+     * @param periodic_lanes true to schedule periodic behaviors in lanes.
+     * @see PeriodicBehavior
+     */
+    public void setPeriodicLanes(boolean periodic_lanes)
+    {
+        this.periodic_lanes = periodic_lanes;
+    }
+
+    /**
+     * Returns true if periodic behaviors are scheduled in lanes.
+     *
+     * @return true if lanes are used.
+     */
+    public boolean isPeriodicLanes()
+    {
+        return periodic_lanes;
+    }
+
     /**
      * Get the number of agents in this universe.
      *
@@ -127,6 +162,9 @@ public class ContinuousTimeUniverse extends Universe
                 current_time = start_time;
             }
 
+            // Gather the enabled behaviors so that they can be added to
+            // the queue with a single linear time heapify.
+            ArrayList<IBehavior<? extends IAgent>> scheduled = new ArrayList<>(new_agents.size());
             for (IAgent agent : new_agents)
             {
                 Set<IBehavior<? extends IAgent>> agent_behaviors = agent.getBehaviors();
@@ -136,18 +174,47 @@ public class ContinuousTimeUniverse extends Universe
                     updateScheduledTime(behavior, current_time);
                     if (behavior.isEnabled())
                     {
-                        behaviors.add(behavior);
+                        if (isBackground(behavior))
+                        {
+                            background.add(behavior);
+                        }
+                        else if (isLaned(behavior))
+                        {
+                            laneFor((PeriodicBehavior<?>) behavior).add((PeriodicBehavior<?>) behavior);
+                        }
+                        else
+                        {
+                            scheduled.add(behavior);
+                        }
                     }
                 }
             }
+            behaviors.addAll(scheduled);
 
             new_agents.clear();
 
         }
 
-        // Build a list of indexes of schedule items
-        // that are next to run.
-        if (behaviors.isEmpty() || behaviors.peek().getScheduledTime() == Double.MAX_VALUE)
+        // Find the earliest time at which a behavior,
+        // either in the queue or at the head of a lane,
+        // is scheduled.
+        double next_time = behaviors.peekTime();
+        for (int i = 0; i < lanes.size(); i++)
+        {
+            PeriodicLane lane = lanes.get(i);
+            lane.flush();
+            next_time = Math.min(next_time, lane.peekTime());
+        }
+
+        // Skip over any stretch in which only catch-up
+        // behaviors are scheduled.
+        if (fast_forward && (background.peekTime() < next_time))
+        {
+            fastForward(Math.min(next_time, Math.nextUp(end_time)));
+        }
+        next_time = Math.min(next_time, background.peekTime());
+
+        if (next_time == Double.MAX_VALUE)
         {
             logger.info("No more scheduled behaviors after time " + double_formatter.format(
                     current_time));
@@ -155,7 +222,7 @@ public class ContinuousTimeUniverse extends Universe
         }
         else
         {
-            current_time = behaviors.peek().getScheduledTime();
+            current_time = next_time;
             if (current_time > end_time)
             {
                 logger.info("Simulation end time boundary reached.");
@@ -163,30 +230,68 @@ public class ContinuousTimeUniverse extends Universe
             }
             else
             {
-                // Execute the ready behaviors.
-                int numBehaviorsExecuted = 0;
-                do
+                // Execute the ready behaviors in the queue,
+                // then those at the heads of the lanes.
+                if (behaviors.peekTime() == current_time)
                 {
-                    final IBehavior<? extends IAgent> toExecute = behaviors.remove();
-                    toExecute.perform(current_time);
-                    updateScheduledTime(toExecute, current_time);
-                    behaviors.add(toExecute);
-                    numBehaviorsExecuted++;
-                } while (behaviors.peek().getScheduledTime() == current_time);
+                    int numBehaviorsExecuted = 0;
+                    do
+                    {
+                        // The behavior is performed in place at the head of
+                        // the queue and then moved to its new position with
+                        // a single sift, rather than removed and reinserted.
+                        final IBehavior<? extends IAgent> toExecute = behaviors.peek();
+                        toExecute.perform(current_time);
+                        // A behavior disabled while performing has already
+                        // been removed; if it was re-enabled it is rescheduled
+                        // with the other recently enabled ones.
+                        if (behaviors.contains(toExecute))
+                        {
+                            updateScheduledTime(toExecute, current_time);
+                            if (toExecute.isEnabled())
+                            {
+                                behaviors.update(toExecute);
+                            }
+                        }
+                        numBehaviorsExecuted++;
+                    } while (behaviors.peekTime() == current_time);
 
-                step_behavior_count += numBehaviorsExecuted;
+                    step_behavior_count += numBehaviorsExecuted;
+                }
+                step_behavior_count += performLanes();
+                step_behavior_count += performBackground();
 
                 // Update the schedules of any
                 // behaviors that have been reenabled
                 // since the last step.
                 if (!recentlyEnabledBehaviors.isEmpty())
                 {
-                    for (IBehavior<? extends IAgent> reschedule : recentlyEnabledBehaviors)
+                    IBehavior[] enabled = recentlyEnabledBehaviors.toArray(new IBehavior[recentlyEnabledBehaviors.size()]);
+                    recentlyEnabledBehaviors.clear();
+                    for (IBehavior<? extends IAgent> reschedule : enabled)
                     {
+                        if (isQueued(reschedule))
+                        {
+                            // Enabled before it was first scheduled.
+                            continue;
+                        }
                         updateScheduledTime(reschedule, current_time);
+                        if (reschedule.isEnabled())
+                        {
+                            if (isBackground(reschedule))
+                            {
+                                background.add(reschedule);
+                            }
+                            else if (isLaned(reschedule))
+                            {
+                                laneFor((PeriodicBehavior<?>) reschedule).add((PeriodicBehavior<?>) reschedule);
+                            }
+                            else
+                            {
+                                behaviors.add(reschedule);
+                            }
+                        }
                     }
-                    behaviors.addAll(recentlyEnabledBehaviors);
-                    recentlyEnabledBehaviors.clear();
                 }
             }
 
@@ -195,6 +300,111 @@ public class ContinuousTimeUniverse extends Universe
         performed_behavior_count += step_behavior_count;
     }
 
+    /**
+     * Perform the periodic behaviors at the heads of the lanes which are due
+     * at the current time and return each to the tail of its lane.
+     *
+     * @return the number of behaviors performed.
+     */
+    private int performLanes()
+    {
+        int performed = 0;
+        for (int i = 0; i < lanes.size(); i++)
+        {
+            PeriodicLane lane = lanes.get(i);
+            while (lane.peekTime() == current_time)
+            {
+                PeriodicBehavior<?> behavior = lane.poll();
+                behavior.perform(current_time);
+                performed++;
+                updateScheduledTime(behavior, current_time);
+                if (behavior.isEnabled())
+                {
+                    lane.append(behavior);
+                }
+            }
+        }
+        return performed;
+    }
+
+    /**
+     * Perform the catch-up behaviors which are due at the current time.
+     *
+     * @return the number of behaviors performed.
+     */
+    private int performBackground()
+    {
+        int performed = 0;
+        while (background.peekTime() == current_time)
+        {
+            IBehavior<? extends IAgent> behavior = background.poll();
+            behavior.perform(current_time);
+            performed++;
+            if (recentlyEnabledBehaviors.isEmpty() || !recentlyEnabledBehaviors.contains(behavior))
+            {
+                updateScheduledTime(behavior, current_time);
+                if (behavior.isEnabled())
+                {
+                    background.add(behavior);
+                }
+            }
+        }
+        return performed;
+    }
+
+    /**
+     * Account in bulk for the events of the catch-up behaviors which are
+     * scheduled before the horizon, the time of the next event of any other
+     * behavior.
+     *
+     * @param horizon the end of the idle stretch (exclusive).
+     */
+    private void fastForward(double horizon)
+    {
+        double caught_up_time = Math.nextDown(horizon);
+        while (background.peekTime() < horizon)
+        {
+            IBehavior<? extends IAgent> behavior = background.poll();
+            elided_event_count += ((ICatchUpBehavior<?>) behavior).catchUp(behavior.getScheduledTime(), horizon);
+            updateScheduledTime(behavior, caught_up_time);
+            if (behavior.isEnabled())
+            {
+                due.add(behavior);
+            }
+        }
+        background.addAll(due);
+        due.clear();
+    }
+
+    private boolean isBackground(IBehavior<? extends IAgent> behavior)
+    {
+        return fast_forward && (behavior instanceof ICatchUpBehavior);
+    }
+
+    private boolean isLaned(IBehavior<? extends IAgent> behavior)
+    {
+        return periodic_lanes && (behavior instanceof PeriodicBehavior);
+    }
+
+    /**
+     * Returns the lane for the period of the specified behavior, creating it
+     * if necessary.
+     */
+    private PeriodicLane laneFor(PeriodicBehavior<?> behavior)
+    {
+        double period = behavior.getPeriod();
+        for (int i = 0; i < lanes.size(); i++)
+        {
+            if (lanes.get(i).getPeriod() == period)
+            {
+                return lanes.get(i);
+            }
+        }
+        PeriodicLane lane = new PeriodicLane(period);
+        lanes.add(lane);
+        return lane;
+    }
+
     /**
      * Add a new agent to this Universe. The behaviors associated with the
      * specified agent will be considered for scheduling prior to the next
@@ -206,13 +416,57 @@ public class ContinuousTimeUniverse extends Universe
     public void addAgent(Agent agent)
     {
         super.addAgent(agent);
-        if (agent != null)
+        if ((agent != null) && agents.add(agent))
         {
-            agents.add(agent);
             new_agents.add(agent);
         }
     }
 
+    /**
+     * Remove an agent from this Universe. Its behaviors are removed from the
+     * schedule; entries in the periodic lanes become stale and are discarded
+     * when they reach the head of their lane.
+     *
+     * @param agent The agent to remove.
+     */
+    @Override
+    public void removeAgent(Agent agent)
+    {
+        if ((agent != null) && agents.remove(agent))
+        {
+            new_agents.remove(agent);
+            for (IBehavior<? extends IAgent> behavior : agent.getBehaviors())
+            {
+                if ((behavior instanceof PeriodicBehavior) && ((PeriodicBehavior<?>) behavior).in_lane)
+                {
+                    ((PeriodicBehavior<?>) behavior).in_lane = false;
+                }
+                else if (!behaviors.remove(behavior) && !background.remove(behavior))
+                {
+                    recentlyEnabledBehaviors.remove(behavior);
+                }
+            }
+            super.removeAgent(agent);
+        }
+    }
+
+    /**
+     * Add a collection of agents to this Universe. The agent registries are
+     * sized once for the whole collection.
+     *
+     * @param agents The agents to add.
+     */
+    @Override
+    public void addAgents(Collection<? extends Agent> agents)
+    {
+        if (agents != null)
+        {
+            this.agents = ensureAgentCapacity(this.agents, agents.size());
+            new_agents.ensureCapacity(new_agents.size() + agents.size());
+            super.addAgents(agents);
+        }
+    }
+
     /**
      * Inform the Universe that a previously disabled behavior has been enabled
      * or vice-versa. The behavior needs to be considered for scheduling before
@@ -227,13 +481,64 @@ public class ContinuousTimeUniverse extends Universe
         {
             recentlyEnabledBehaviors.add(behavior);
         }
+        else if ((behavior instanceof PeriodicBehavior) && ((PeriodicBehavior<?>) behavior).in_lane)
+        {
+            // The lane entry is now stale and is discarded when it
+            // reaches the head of the lane.
+            ((PeriodicBehavior<?>) behavior).in_lane = false;
+        }
         else
         {
-            if (!behaviors.remove(behavior))
+            if (!behaviors.remove(behavior) && !background.remove(behavior))
+            {
+                recentlyEnabledBehaviors.remove(behavior);
+            }
+        }
+    }
+
+    /**
+     * Inform the Universe that a group of behaviors has been enabled or
+     * disabled together. The disabled behaviors are removed from the queue in
+     * one operation, which rebuilds the heap when the group is large.
+     *
+     * @param changed The behaviors which have changed.
+     */
+    @Override
+    public final void behaviorsChanged(final Collection<? extends Behavior> changed)
+    {
+        ArrayList<Behavior> disabled = new ArrayList<>(changed.size());
+        for (Behavior behavior : changed)
+        {
+            if (behavior.isEnabled())
+            {
+                recentlyEnabledBehaviors.add(behavior);
+            }
+            else if ((behavior instanceof PeriodicBehavior) && ((PeriodicBehavior<?>) behavior).in_lane)
+            {
+                ((PeriodicBehavior<?>) behavior).in_lane = false;
+            }
+            else if (behaviors.contains(behavior))
+            {
+                disabled.add(behavior);
+            }
+            else if (!background.remove(behavior))
             {
                 recentlyEnabledBehaviors.remove(behavior);
             }
         }
+        if (!disabled.isEmpty())
+        {
+            behaviors.removeAll(disabled);
+        }
+    }
+
+    private boolean isQueued(IBehavior<? extends IAgent> behavior)
+    {
+        if ((behavior instanceof PeriodicBehavior) && ((PeriodicBehavior<?>) behavior).in_lane)
+        {
+            return true;
+        }
+        return behaviors.contains(behavior) || background.contains(behavior);
     }
 
     private static void updateScheduledTime(IBehavior<? extends IAgent> behavior, double current_time)
@@ -270,11 +575,45 @@ public class ContinuousTimeUniverse extends Universe
 
         agents.clear();
         behaviors.clear();
+        background.clear();
+        clearLanes();
         new_agents.clear();
         recentlyEnabledBehaviors.clear();
 
     }
 
+    /**
+     * Retain the current population and clear the schedule in preparation
+     * for another replication.
+     *
+     * @param start_time
+     * @param end_time
+     * @see com.ridderware.fuse.Universe #warmResetSimulation
+     */
+    @Override
+    public void warmResetSimulation(double start_time, double end_time)
+    {
+
+        super.warmResetSimulation(start_time, end_time);
+
+        behaviors.clear();
+        background.clear();
+        clearLanes();
+        recentlyEnabledBehaviors.clear();
+        new_agents.clear();
+        new_agents.addAll(agents);
+
+    }
+
+    private void clearLanes()
+    {
+        for (int i = 0; i < lanes.size(); i++)
+        {
+            lanes.get(i).clear();
+        }
+        lanes.clear();
+    }
+
     @Override
     void stateTransitionRequestedBy(Agent agent) {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
@@ -0,0 +1,388 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import org.apache.logging.log4j.*;
+
+/**
+ * A compact registry of agents which do nothing until they are first needed.
+ * Each entry is held as a dense integer id, one long of user data and an
+ * optional wake time, so that tens of millions of entries cost only a few
+ * bytes each. No agent object exists and nothing is scheduled for an entry
+ * until it is activated, either explicitly by calling activate (typically from
+ * the behavior of an agent which triggers it) or automatically at its wake
+ * time. On activation the materializer creates the full agent, which is added
+ * to the universe and has its behaviors scheduled before the next simulation
+ * step.
+ * <p>
+ * The population is itself an agent and must be added to the universe like
+ * any other. Entries should be registered before the simulation run begins;
+ * registering entries with wake times during a run is supported but causes the
+ * wake schedule to be rebuilt. Every reset, warm or cold, returns every entry
+ * to dormancy: the agents activated during a run are removed from the
+ * universe, so each replication starts from the same population and
+ * materializes its agents again.
+ *
+ * @author Jeff Ridder
+ * @see IDormantAgentMaterializer
+ */
+public class DormantPopulation extends ServiceAgent
+{
+
+    private static final Logger logger = LogManager.getLogger(DormantPopulation.class);
+
+    private final IDormantAgentMaterializer materializer;
+
+    private int count = 0;
+    private long[] data;
+    private double[] wake_times = null;
+
+    private final BitSet active = new BitSet();
+    private final AgentTable materialized = new AgentTable();
+
+    /**
+     * Entry ids in ascending order of wake time, and the position of the next
+     * entry to be woken.
+     */
+    private int[] wake_order = null;
+    private int wake_cursor = 0;
+    private boolean wake_order_valid = false;
+
+    /**
+     * DormantPopulation constructor.
+     *
+     * @param name The name of the population.
+     * @param capacity The number of entries expected.
+     * @param materializer creates the agent for an entry on activation.
+     */
+    public DormantPopulation(String name, int capacity, IDormantAgentMaterializer materializer)
+    {
+        super(name);
+        if (materializer == null)
+        {
+            throw new IllegalArgumentException("A materializer is required.");
+        }
+        this.materializer = materializer;
+        this.data = new long[Math.max(16, capacity)];
+    }
+
+    /**
+     * Register a dormant entry which is activated only on demand.
+     *
+     * @param data user data passed to the materializer.
+     * @return the id of the entry.
+     */
+    public int register(long data)
+    {
+        ensureCapacity(count + 1);
+        this.data[count] = data;
+        if (wake_times != null)
+        {
+            wake_times[count] = Double.MAX_VALUE;
+        }
+        return count++;
+    }
+
+    /**
+     * Register a dormant entry which is activated automatically at the
+     * specified simulation time if it has not been activated before then.
+     *
+     * @param data user data passed to the materializer.
+     * @param wake_time simulation time at which to activate the entry.
+     * @return the id of the entry.
+     */
+    public int register(long data, double wake_time)
+    {
+        if (wake_times == null)
+        {
+            wake_times = new double[this.data.length];
+            Arrays.fill(wake_times, 0, count, Double.MAX_VALUE);
+        }
+        int id = register(data);
+        wake_times[id] = wake_time;
+        if (wake_order_valid)
+        {
+            wake_order_valid = false;
+            reschedule();
+        }
+        return id;
+    }
+
+    /**
+     * The number of registered entries.
+     *
+     * @return entry count.
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * The number of entries which have been activated.
+     *
+     * @return active count.
+     */
+    public int getActiveCount()
+    {
+        return materialized.size;
+    }
+
+    /**
+     * Returns the data registered with the specified entry.
+     *
+     * @param id entry id.
+     * @return entry data.
+     */
+    public long getData(int id)
+    {
+        checkId(id);
+        return data[id];
+    }
+
+    /**
+     * Returns true if the specified entry has been activated.
+     *
+     * @param id entry id.
+     * @return true if active.
+     */
+    public boolean isActive(int id)
+    {
+        checkId(id);
+        return active.get(id);
+    }
+
+    /**
+     * Returns the agent of an activated entry.
+     *
+     * @param id entry id.
+     * @return the agent, or null if the entry is still dormant.
+     */
+    public Agent getAgent(int id)
+    {
+        checkId(id);
+        return active.get(id) ? materialized.get(id) : null;
+    }
+
+    /**
+     * Activate the specified entry if it is dormant. The agent is created and
+     * added to the universe; its behaviors are scheduled before the next
+     * simulation step.
+     *
+     * @param id entry id.
+     * @return the agent of the entry.
+     */
+    public Agent activate(int id)
+    {
+        checkId(id);
+        if (active.get(id))
+        {
+            return materialized.get(id);
+        }
+        Universe universe = getUniverse();
+        if (universe == null)
+        {
+            throw new IllegalStateException("Population " + this + " has not been added to a universe.");
+        }
+        Agent agent = materializer.materialize(id, data[id]);
+        active.set(id);
+        materialized.put(id, agent);
+        universe.addAgent(agent);
+        return agent;
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        wake_order_valid = false;
+        active.clear();
+        materialized.clear();
+    }
+
+    /**
+     * Remove the agents of the activated entries from the universe and return
+     * the entries to dormancy. Package scope. Only used by the simulation
+     * framework, before a warm reset.
+     */
+    void deactivateAll()
+    {
+        Universe universe = getUniverse();
+        if (universe != null)
+        {
+            for (int id = active.nextSetBit(0); id >= 0; id = active.nextSetBit(id + 1))
+            {
+                universe.removeAgent(materialized.get(id));
+            }
+        }
+        active.clear();
+        materialized.clear();
+    }
+
+    @Override
+    protected double getNextServiceTime(double current_time)
+    {
+        if (wake_times == null)
+        {
+            return Double.MAX_VALUE;
+        }
+        if (!wake_order_valid)
+        {
+            wake_order = IndexSort.sortedIndexes(wake_times, count);
+            wake_cursor = 0;
+            wake_order_valid = true;
+        }
+        while ((wake_cursor < wake_order.length) && active.get(wake_order[wake_cursor]))
+        {
+            wake_cursor++;
+        }
+        if (wake_cursor == wake_order.length)
+        {
+            return Double.MAX_VALUE;
+        }
+        double wake_time = wake_times[wake_order[wake_cursor]];
+        if (wake_time == Double.MAX_VALUE)
+        {
+            return Double.MAX_VALUE;
+        }
+        return (wake_time > current_time) ? wake_time : Math.nextUp(current_time);
+    }
+
+    @Override
+    protected void service(double current_time)
+    {
+        int woken = 0;
+        while ((wake_cursor < wake_order.length) && (wake_times[wake_order[wake_cursor]] <= current_time))
+        {
+            int id = wake_order[wake_cursor++];
+            if (!active.get(id))
+            {
+                activate(id);
+                woken++;
+            }
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Woke " + woken + " agents of " + this + " at time " + current_time + ".");
+        }
+    }
+
+    private void ensureCapacity(int required)
+    {
+        if (required > data.length)
+        {
+            int capacity = Math.max(required, (int) Math.min(Integer.MAX_VALUE - 8, data.length * 2L));
+            data = Arrays.copyOf(data, capacity);
+            if (wake_times != null)
+            {
+                wake_times = Arrays.copyOf(wake_times, capacity);
+            }
+        }
+    }
+
+    private void checkId(int id)
+    {
+        if ((id < 0) || (id >= count))
+        {
+            throw new IndexOutOfBoundsException("Entry " + id + " of " + this);
+        }
+    }
+
+    /**
+     * The agents of the activated entries, in an open addressed table keyed by
+     * entry id, so that its size follows the number of activations rather
+     * than the number of entries.
+     */
+    private static final class AgentTable
+    {
+
+        /**
+         * Entry id plus one of each slot, or zero for an empty slot.
+         */
+        private int[] keys = new int[64];
+        private Agent[] agents = new Agent[64];
+        int size = 0;
+
+        Agent get(int id)
+        {
+            int mask = keys.length - 1;
+            for (int slot = home(id, mask); keys[slot] != 0; slot = (slot + 1) & mask)
+            {
+                if (keys[slot] == id + 1)
+                {
+                    return agents[slot];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Add the agent of an entry which is not yet in the table.
+         */
+        void put(int id, Agent agent)
+        {
+            if (2 * (size + 1) > keys.length)
+            {
+                int[] old_keys = keys;
+                Agent[] old_agents = agents;
+                keys = new int[old_keys.length * 2];
+                agents = new Agent[old_keys.length * 2];
+                for (int i = 0; i < old_keys.length; i++)
+                {
+                    if (old_keys[i] != 0)
+                    {
+                        place(old_keys[i], old_agents[i]);
+                    }
+                }
+            }
+            place(id + 1, agent);
+            size++;
+        }
+
+        void clear()
+        {
+            if (size > 0)
+            {
+                Arrays.fill(keys, 0);
+                Arrays.fill(agents, null);
+                size = 0;
+            }
+        }
+
+        private void place(int key, Agent agent)
+        {
+            int mask = keys.length - 1;
+            int slot = home(key - 1, mask);
+            while (keys[slot] != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            agents[slot] = agent;
+        }
+
+        private static int home(int id, int mask)
+        {
+            int h = id * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+}
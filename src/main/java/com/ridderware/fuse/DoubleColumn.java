@@ -0,0 +1,351 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A column of double attributes in an AttributeStore, indexed by agent id.
+ * The bulk operations cover every id assigned by the store.
+ *
+ * @author Jeff Ridder
+ * @see AttributeStore
+ */
+public final class DoubleColumn extends AttributeColumn
+{
+
+    private final AttributeStore store;
+    private final String name;
+    private double[] values = null;
+    private DoubleBuffer buffer = null;
+
+    DoubleColumn(AttributeStore store, String name, int capacity)
+    {
+        this.store = store;
+        this.name = name;
+        if (store.isOffHeap())
+        {
+            buffer = AttributeStore.allocate(8L * capacity).asDoubleBuffer();
+        }
+        else
+        {
+            values = new double[capacity];
+        }
+    }
+
+    /**
+     * Returns the name of this column.
+     *
+     * @return column name.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the value of one id.
+     *
+     * @param id agent id.
+     * @return the value.
+     */
+    public double get(int id)
+    {
+        return (values != null) ? values[id] : buffer.get(id);
+    }
+
+    /**
+     * Sets the value of one id.
+     *
+     * @param id agent id.
+     * @param value the value.
+     */
+    public void set(int id, double value)
+    {
+        if (values != null)
+        {
+            values[id] = value;
+        }
+        else
+        {
+            buffer.put(id, value);
+        }
+    }
+
+    /**
+     * Returns the value of an agent which has been assigned an id by the
+     * store.
+     *
+     * @param agent the agent.
+     * @return the value.
+     */
+    public double get(Agent agent)
+    {
+        return get(agent.getAttributeId());
+    }
+
+    /**
+     * Sets the value of an agent which has been assigned an id by the store.
+     *
+     * @param agent the agent.
+     * @param value the value.
+     */
+    public void set(Agent agent, double value)
+    {
+        set(agent.getAttributeId(), value);
+    }
+
+    /**
+     * Add a value to the attribute of one agent.
+     *
+     * @param id agent id.
+     * @param delta value to add.
+     */
+    public void add(int id, double delta)
+    {
+        set(id, get(id) + delta);
+    }
+
+    /**
+     * Set every value to the specified value.
+     *
+     * @param value the value.
+     */
+    public void fill(double value)
+    {
+        int n = store.size();
+        if (values != null)
+        {
+            Arrays.fill(values, 0, n, value);
+        }
+        else
+        {
+            for (int i = 0; i < n; i++)
+            {
+                buffer.put(i, value);
+            }
+        }
+    }
+
+    /**
+     * Multiply every value by a factor.
+     *
+     * @param factor the factor.
+     */
+    public void scale(double factor)
+    {
+        int n = store.size();
+        if (values != null)
+        {
+            double[] v = values;
+            for (int i = 0; i < n; i++)
+            {
+                v[i] *= factor;
+            }
+        }
+        else
+        {
+            for (int i = 0; i < n; i++)
+            {
+                buffer.put(i, buffer.get(i) * factor);
+            }
+        }
+    }
+
+    /**
+     * Add a multiple of another column to this one, element by element. For
+     * example, positions are integrated over a time step dt by
+     * x.addScaled(vx, dt).
+     *
+     * @param other the other column, from the same store.
+     * @param factor the multiple.
+     */
+    public void addScaled(DoubleColumn other, double factor)
+    {
+        int n = store.size();
+        if ((values != null) && (other.values != null))
+        {
+            double[] v = values;
+            double[] o = other.values;
+            for (int i = 0; i < n; i++)
+            {
+                v[i] += factor * o[i];
+            }
+        }
+        else
+        {
+            for (int i = 0; i < n; i++)
+            {
+                set(i, get(i) + factor * other.get(i));
+            }
+        }
+    }
+
+    /**
+     * Replace every value with the result of applying an operator to it.
+     *
+     * @param operator the operator.
+     */
+    public void apply(DoubleUnaryOperator operator)
+    {
+        int n = store.size();
+        for (int i = 0; i < n; i++)
+        {
+            set(i, operator.applyAsDouble(get(i)));
+        }
+    }
+
+    /**
+     * Returns the sum of the values.
+     *
+     * @return sum.
+     */
+    public double sum()
+    {
+        int n = store.size();
+        double result = 0;
+        if (values != null)
+        {
+            double[] v = values;
+            for (int i = 0; i < n; i++)
+            {
+                result += v[i];
+            }
+        }
+        else
+        {
+            for (int i = 0; i < n; i++)
+            {
+                result += buffer.get(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the sum of the values for which the mask is true.
+     *
+     * @param mask a boolean column from the same store.
+     * @return sum.
+     */
+    public double sum(BooleanColumn mask)
+    {
+        int n = store.size();
+        double result = 0;
+        for (int i = 0; i < n; i++)
+        {
+            if (mask.get(i))
+            {
+                result += get(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the mean of the values of the agents in the universe.
+     *
+     * @return mean, or NaN if there are none.
+     */
+    public double mean()
+    {
+        BooleanColumn present = store.getPresentColumn();
+        long count = present.count();
+        return (count == 0) ? Double.NaN : sum(present) / count;
+    }
+
+    /**
+     * Returns the smallest value of the agents in the universe.
+     *
+     * @return minimum, or Double.MAX_VALUE if there are none.
+     */
+    public double min()
+    {
+        BooleanColumn present = store.getPresentColumn();
+        int n = store.size();
+        double result = Double.MAX_VALUE;
+        for (int i = 0; i < n; i++)
+        {
+            if (present.get(i))
+            {
+                result = Math.min(result, get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the largest value of the agents in the universe.
+     *
+     * @return maximum, or -Double.MAX_VALUE if there are none.
+     */
+    public double max()
+    {
+        BooleanColumn present = store.getPresentColumn();
+        int n = store.size();
+        double result = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++)
+        {
+            if (present.get(i))
+            {
+                result = Math.max(result, get(i));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + name + ": double]";
+    }
+
+    @Override
+    void clear(int id)
+    {
+        set(id, 0);
+    }
+
+    @Override
+    void clearAll()
+    {
+        fill(0);
+    }
+
+    @Override
+    void ensureCapacity(int capacity)
+    {
+        if (values != null)
+        {
+            if (capacity > values.length)
+            {
+                values = Arrays.copyOf(values, capacity);
+            }
+        }
+        else if (capacity > buffer.capacity())
+        {
+            DoubleBuffer grown = AttributeStore.allocate(8L * capacity).asDoubleBuffer();
+            buffer.clear();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+}
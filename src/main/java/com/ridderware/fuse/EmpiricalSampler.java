@@ -0,0 +1,90 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import com.ridderware.jrandom.RandomNumberGenerator;
+import java.util.Arrays;
+
+/**
+ * Samples the continuous empirical distribution of a set of observations in
+ * constant time. The observations are sorted once, and a sample is the
+ * linear interpolation between adjacent order statistics at a uniform
+ * position, which inverts the piecewise linear empirical distribution
+ * function. For a discrete empirical distribution, in which only the
+ * observed values occur, use an AliasSampler over the distinct values and
+ * their frequencies.
+ *
+ * @author Jeff Ridder
+ * @see VariateSampler
+ * @see AliasSampler
+ */
+public final class EmpiricalSampler extends VariateSampler
+{
+
+    private final double[] sorted;
+
+    /**
+     * Creates a sampler of the specified observations.
+     *
+     * @param rng the generator.
+     * @param observations the observations.
+     */
+    public EmpiricalSampler(RandomNumberGenerator rng, double[] observations)
+    {
+        super(rng);
+        if (observations.length == 0)
+        {
+            throw new IllegalArgumentException("At least one observation is required.");
+        }
+        this.sorted = observations.clone();
+        Arrays.sort(sorted);
+    }
+
+    @Override
+    public double sample()
+    {
+        double position = rng.nextDouble() * (sorted.length - 1);
+        int index = (int) position;
+        if (index >= sorted.length - 1)
+        {
+            return sorted[sorted.length - 1];
+        }
+        return sorted[index] + (position - index) * (sorted[index + 1] - sorted[index]);
+    }
+
+    /**
+     * Returns the smallest observation.
+     *
+     * @return minimum.
+     */
+    public double getMinimum()
+    {
+        return sorted[0];
+    }
+
+    /**
+     * Returns the largest observation.
+     *
+     * @return maximum.
+     */
+    public double getMaximum()
+    {
+        return sorted[sorted.length - 1];
+    }
+}
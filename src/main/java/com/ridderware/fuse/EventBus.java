@@ -0,0 +1,437 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Topic based publish and subscribe for agents. Subscribers subscribe to a
+ * named topic with a delivery delay and an optional filter. An event
+ * published on a topic is delivered to each subscriber at the publish time
+ * plus the subscriber's delay, or as soon as possible after the publish time
+ * if the delay is not positive.
+ * <p>
+ * The subscribers of a topic are held in compact arrays, sorted by delay,
+ * which are replaced rather than modified when the subscriptions change. The
+ * subscriptions added to a topic are merged into new arrays all at once when
+ * the topic is next used, so subscribing many subscribers costs no more than
+ * sorting them. An event is delivered to the subscribers of its topic as they
+ * were when it was published: later subscriptions do not receive it and
+ * cancelled ones still do. Publishing shares the current arrays rather than
+ * copying them, and schedules one delivery for each distinct delay rather
+ * than one for each subscriber. Filters are applied when the event is
+ * delivered.
+ * <p>
+ * The bus is itself an agent and must be added to the universe like any
+ * other. Subscriptions persist across a reset; pending deliveries are
+ * discarded. Subscribers which are agents removed from their universe are
+ * skipped.
+ *
+ * @author Jeff Ridder
+ * @see IEventSubscriber
+ * @see IEventFilter
+ */
+public class EventBus extends ServiceAgent
+{
+
+    /**
+     * The immutable subscriptions of a topic, grouped by delay.
+     */
+    private static final class Subscriptions
+    {
+
+        private static final Subscriptions EMPTY = new Subscriptions(new IEventSubscriber[0], new double[0],
+            new IEventFilter[0]);
+
+        private final IEventSubscriber[] subscribers;
+        private final double[] delays;
+        private final IEventFilter[] filters;
+
+        /**
+         * The distinct delays, and the index of the first subscriber with
+         * each delay followed by the number of subscribers.
+         */
+        private final double[] group_delays;
+        private final int[] group_starts;
+
+        private Subscriptions(IEventSubscriber[] subscribers, double[] delays, IEventFilter[] filters)
+        {
+            this.subscribers = subscribers;
+            this.delays = delays;
+            this.filters = filters;
+            int groups = 0;
+            for (int i = 0; i < delays.length; i++)
+            {
+                if ((i == 0) || (delays[i] != delays[i - 1]))
+                {
+                    groups++;
+                }
+            }
+            group_delays = new double[groups];
+            group_starts = new int[groups + 1];
+            for (int i = 0, g = 0; i < delays.length; i++)
+            {
+                if ((i == 0) || (delays[i] != delays[i - 1]))
+                {
+                    group_delays[g] = delays[i];
+                    group_starts[g++] = i;
+                }
+            }
+            group_starts[groups] = delays.length;
+        }
+
+        /**
+         * Returns these subscriptions with the added ones merged in. Added
+         * subscriptions follow the existing ones with the same delay, in the
+         * order in which they were added.
+         */
+        private Subscriptions with(IEventSubscriber[] added_subscribers, double[] added_delays,
+            IEventFilter[] added_filters, int count)
+        {
+            int[] order = IndexSort.sortedIndexes(added_delays, count);
+            int n = subscribers.length + count;
+            IEventSubscriber[] new_subscribers = new IEventSubscriber[n];
+            double[] new_delays = new double[n];
+            IEventFilter[] new_filters = new IEventFilter[n];
+            int i = 0;
+            int a = 0;
+            for (int k = 0; k < n; k++)
+            {
+                if ((a == count) || ((i < subscribers.length) && (delays[i] <= added_delays[order[a]])))
+                {
+                    new_subscribers[k] = subscribers[i];
+                    new_delays[k] = delays[i];
+                    new_filters[k] = filters[i++];
+                }
+                else
+                {
+                    int j = order[a++];
+                    new_subscribers[k] = added_subscribers[j];
+                    new_delays[k] = added_delays[j];
+                    new_filters[k] = added_filters[j];
+                }
+            }
+            return new Subscriptions(new_subscribers, new_delays, new_filters);
+        }
+
+        private Subscriptions without(IEventSubscriber subscriber)
+        {
+            int n = subscribers.length;
+            int kept = 0;
+            IEventSubscriber[] new_subscribers = new IEventSubscriber[n];
+            double[] new_delays = new double[n];
+            IEventFilter[] new_filters = new IEventFilter[n];
+            for (int i = 0; i < n; i++)
+            {
+                if (subscribers[i] != subscriber)
+                {
+                    new_subscribers[kept] = subscribers[i];
+                    new_delays[kept] = delays[i];
+                    new_filters[kept++] = filters[i];
+                }
+            }
+            if (kept == n)
+            {
+                return this;
+            }
+            return new Subscriptions(Arrays.copyOf(new_subscribers, kept), Arrays.copyOf(new_delays, kept),
+                Arrays.copyOf(new_filters, kept));
+        }
+    }
+
+    /**
+     * The subscriptions of a topic, and the subscriptions added to it since
+     * they were last built.
+     */
+    private static final class Topic
+    {
+
+        private Subscriptions subscriptions = Subscriptions.EMPTY;
+        private IEventSubscriber[] added_subscribers = new IEventSubscriber[4];
+        private double[] added_delays = new double[4];
+        private IEventFilter[] added_filters = new IEventFilter[4];
+        private int added_count = 0;
+
+        private void add(IEventSubscriber subscriber, double delay, IEventFilter filter)
+        {
+            if (added_count == added_delays.length)
+            {
+                added_subscribers = Arrays.copyOf(added_subscribers, added_count * 2);
+                added_delays = Arrays.copyOf(added_delays, added_count * 2);
+                added_filters = Arrays.copyOf(added_filters, added_count * 2);
+            }
+            added_subscribers[added_count] = subscriber;
+            added_delays[added_count] = delay;
+            added_filters[added_count++] = filter;
+        }
+
+        /**
+         * Returns the current subscriptions, merging in any added ones.
+         */
+        private Subscriptions get()
+        {
+            if (added_count > 0)
+            {
+                subscriptions = subscriptions.with(added_subscribers, added_delays, added_filters, added_count);
+                Arrays.fill(added_subscribers, 0, added_count, null);
+                Arrays.fill(added_filters, 0, added_count, null);
+                added_count = 0;
+            }
+            return subscriptions;
+        }
+
+        private int size()
+        {
+            return subscriptions.subscribers.length + added_count;
+        }
+    }
+
+    /**
+     * The delivery of one event to the subscribers of one delay group.
+     */
+    private static final class Delivery extends TimedQueue.Entry
+    {
+
+        private String topic;
+        private Object event;
+        private Subscriptions subscriptions;
+        private int group;
+        private double publish_time;
+
+        @Override
+        void clear()
+        {
+            topic = null;
+            event = null;
+            subscriptions = null;
+        }
+    }
+
+    private final HashMap<String, Topic> topics = new HashMap<>();
+
+    private final TimedQueue<Delivery> queue = new TimedQueue<>();
+    private long sequence = 0;
+
+    private double next_service_time = Double.MAX_VALUE;
+    private long published_count = 0;
+    private long delivered_count = 0;
+
+    /**
+     * EventBus constructor.
+     *
+     * @param name The name of the bus.
+     */
+    public EventBus(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Subscribe to a topic with no delay and no filter.
+     *
+     * @param topic the topic.
+     * @param subscriber the subscriber.
+     */
+    public void subscribe(String topic, IEventSubscriber subscriber)
+    {
+        subscribe(topic, subscriber, 0, null);
+    }
+
+    /**
+     * Subscribe to a topic. A subscriber may subscribe to a topic more than
+     * once, in which case it receives each event once for each subscription.
+     * The subscription takes effect for events published after it is made.
+     *
+     * @param topic the topic.
+     * @param subscriber the subscriber.
+     * @param delay the delivery delay for this subscriber.
+     * @param filter selects the events delivered, or null for all events.
+     */
+    public void subscribe(String topic, IEventSubscriber subscriber, double delay, IEventFilter filter)
+    {
+        if ((topic == null) || (subscriber == null))
+        {
+            throw new IllegalArgumentException("A topic and a subscriber are required.");
+        }
+        Topic subscriptions = topics.get(topic);
+        if (subscriptions == null)
+        {
+            subscriptions = new Topic();
+            topics.put(topic, subscriptions);
+        }
+        subscriptions.add(subscriber, Math.max(0, delay), filter);
+    }
+
+    /**
+     * Cancel all of a subscriber's subscriptions to a topic. Events already
+     * published are still delivered to it.
+     *
+     * @param topic the topic.
+     * @param subscriber the subscriber.
+     * @return true if the subscriber was subscribed.
+     */
+    public boolean unsubscribe(String topic, IEventSubscriber subscriber)
+    {
+        Topic subscriptions = topics.get(topic);
+        if (subscriptions == null)
+        {
+            return false;
+        }
+        Subscriptions current = subscriptions.get();
+        Subscriptions remaining = current.without(subscriber);
+        if (remaining.subscribers.length == 0)
+        {
+            topics.remove(topic);
+        }
+        else
+        {
+            subscriptions.subscriptions = remaining;
+        }
+        return remaining != current;
+    }
+
+    /**
+     * Returns the number of subscriptions to a topic.
+     *
+     * @param topic the topic.
+     * @return subscription count.
+     */
+    public int getSubscriberCount(String topic)
+    {
+        Topic subscriptions = topics.get(topic);
+        return (subscriptions == null) ? 0 : subscriptions.size();
+    }
+
+    /**
+     * Publish an event on a topic.
+     *
+     * @param topic the topic.
+     * @param event the event.
+     */
+    public void publish(String topic, Object event)
+    {
+        Topic entry = topics.get(topic);
+        published_count++;
+        if (entry == null)
+        {
+            return;
+        }
+        Subscriptions subscriptions = entry.get();
+        double now = (getUniverse() == null) ? 0 : getUniverse().getCurrentTime();
+        double earliest = Double.MAX_VALUE;
+        for (int group = 0; group < subscriptions.group_delays.length; group++)
+        {
+            double time = now + subscriptions.group_delays[group];
+            if (!(time > now))
+            {
+                time = Math.nextUp(now);
+            }
+            Delivery delivery = queue.obtain();
+            if (delivery == null)
+            {
+                delivery = new Delivery();
+            }
+            delivery.topic = topic;
+            delivery.event = event;
+            delivery.subscriptions = subscriptions;
+            delivery.group = group;
+            delivery.publish_time = now;
+            delivery.time = time;
+            delivery.sequence = sequence++;
+            queue.offer(delivery);
+            earliest = Math.min(earliest, time);
+        }
+        if (earliest < next_service_time)
+        {
+            next_service_time = earliest;
+            reschedule();
+        }
+    }
+
+    /**
+     * Returns the number of events published since the bus was reset.
+     *
+     * @return published event count.
+     */
+    public long getPublishedCount()
+    {
+        return published_count;
+    }
+
+    /**
+     * Returns the number of deliveries made to subscribers since the bus was
+     * reset.
+     *
+     * @return delivered event count.
+     */
+    public long getDeliveredCount()
+    {
+        return delivered_count;
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        queue.clear();
+        next_service_time = Double.MAX_VALUE;
+        published_count = 0;
+        delivered_count = 0;
+    }
+
+    @Override
+    protected double getNextServiceTime(double current_time)
+    {
+        next_service_time = queue.peekTime();
+        return next_service_time;
+    }
+
+    @Override
+    protected void service(double current_time)
+    {
+        while (queue.peekTime() <= current_time)
+        {
+            Delivery delivery = queue.poll();
+            Subscriptions subscriptions = delivery.subscriptions;
+            int end = subscriptions.group_starts[delivery.group + 1];
+            for (int i = subscriptions.group_starts[delivery.group]; i < end; i++)
+            {
+                IEventSubscriber subscriber = subscriptions.subscribers[i];
+                if ((subscriber instanceof Agent) && (((Agent) subscriber).getUniverse() == null))
+                {
+                    continue;
+                }
+                IEventFilter filter = subscriptions.filters[i];
+                if ((filter == null) || filter.accept(delivery.topic, delivery.event))
+                {
+                    subscriber.receiveEvent(delivery.topic, delivery.event, delivery.publish_time);
+                    delivered_count++;
+                }
+            }
+            queue.release(delivery);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + getName() + ": " + topics.size() + " topics, " + queue.size() + " deliveries queued]";
+    }
+}
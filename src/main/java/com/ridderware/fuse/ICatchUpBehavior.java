@@ -0,0 +1,53 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * A behavior whose events can be accounted for analytically rather than
+ * performed one at a time. When fast-forward is enabled on the universe and
+ * nothing but catch-up behaviors is scheduled before some future time, the
+ * universe skips over the idle stretch by invoking catchUp on each catch-up
+ * behavior instead of stepping through its events.
+ * <p>
+ * A behavior may implement this interface only if the events it would perform
+ * during an idle stretch affect nothing but its own state and that of its
+ * agent: they must not enable or disable other behaviors, request state
+ * transitions, add agents or update simulation counters.
+ *
+ * @param <T> type of agent owning the behavior.
+ * @author Jeff Ridder
+ * @see Universe#setFastForward
+ */
+public interface ICatchUpBehavior<T extends IAgent> extends IBehavior<T>
+{
+
+    /**
+     * Bring the behavior to the state it would have reached by performing all
+     * of its events scheduled at times from the first time up to, but not
+     * including, the second. The first time is the behavior's currently
+     * scheduled time. After this method returns the universe reschedules the
+     * behavior by invoking getNextScheduledTime with the time immediately
+     * before the second time.
+     *
+     * @param from the scheduled time of the first event to account for.
+     * @param to the end of the idle stretch (exclusive).
+     * @return the number of events accounted for.
+     */
+    public long catchUp(double from, double to);
+}
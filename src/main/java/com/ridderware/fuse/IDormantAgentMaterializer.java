@@ -0,0 +1,41 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * Creates the full agent for an entry of a DormantPopulation when that entry
+ * is first activated.
+ *
+ * @author Jeff Ridder
+ * @see DormantPopulation
+ */
+public interface IDormantAgentMaterializer
+{
+
+    /**
+     * Create the agent for the specified dormant entry. The agent is added to
+     * the universe by the population and its behaviors are scheduled before
+     * the next simulation step.
+     *
+     * @param id the dense index of the entry within its population.
+     * @param data the data registered with the entry.
+     * @return the new agent (non-null).
+     */
+    public Agent materialize(int id, long data);
+}
@@ -0,0 +1,38 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * Selects the events of a topic which a subscription receives.
+ *
+ * @author Jeff Ridder
+ * @see EventBus
+ */
+public interface IEventFilter
+{
+
+    /**
+     * Returns true if the subscriber should receive the event.
+     *
+     * @param topic the topic.
+     * @param event the event.
+     * @return true to deliver the event.
+     */
+    public boolean accept(String topic, Object event);
+}
@@ -0,0 +1,40 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * A subscriber to the topics of an EventBus.
+ *
+ * @author Jeff Ridder
+ * @see EventBus
+ */
+public interface IEventSubscriber
+{
+
+    /**
+     * Receive an event published on a topic to which this subscriber is
+     * subscribed. The event is delivered at its publish time plus the delay of
+     * the subscription.
+     *
+     * @param topic the topic.
+     * @param event the event.
+     * @param publish_time the time at which the event was published.
+     */
+    public void receiveEvent(String topic, Object event, double publish_time);
+}
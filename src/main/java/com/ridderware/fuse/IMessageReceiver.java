@@ -0,0 +1,40 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * An agent which can receive messages through a MessageService.
+ *
+ * @author Jeff Ridder
+ * @see MessageService
+ */
+public interface IMessageReceiver
+{
+
+    /**
+     * Receive the messages delivered to this agent at the current time. All
+     * messages which arrive at the same time are passed in a single call, in
+     * the order in which they were sent. The batch is a reusable view and is
+     * only valid for the duration of this call; copy out any values which
+     * must be kept.
+     *
+     * @param messages the messages.
+     */
+    public void receiveMessages(MessageBatch messages);
+}
@@ -0,0 +1,53 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * The behavior shared by every entry of an OffHeapPopulation. The behavior is
+ * stateless with respect to the entries: everything it knows about an entry
+ * is read through the OffHeapAgent view it is passed, or from columns of the
+ * population's attribute store indexed by the entry id.
+ *
+ * @author Jeff Ridder
+ * @see OffHeapPopulation
+ */
+public interface IOffHeapBehavior
+{
+
+    /**
+     * Initialize an entry at the start of a simulation run, typically by
+     * setting its state and attributes.
+     *
+     * @param agent view of the entry.
+     * @param start_time the simulation start time.
+     * @return the time of the entry's first event, or Double.MAX_VALUE if it
+     * has none.
+     */
+    public double initialize(OffHeapAgent agent, double start_time);
+
+    /**
+     * Perform the event of an entry which is due at the current time.
+     *
+     * @param agent view of the entry.
+     * @param current_time the current simulation time.
+     * @return the time of the entry's next event. A time which is not later
+     * than the current time leaves the entry unscheduled.
+     */
+    public double perform(OffHeapAgent agent, double current_time);
+}
@@ -0,0 +1,80 @@
+/* %%
+ *
+ * Fast Universal Simulation Engine (FUSE)
+ *
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An agent factory whose population can be constructed in independent
+ * partitions. When a Scenario is configured with more than one population
+ * thread, the partitions are built concurrently on a thread pool, each into a
+ * buffer of its own, and the buffers are then added to the universe in
+ * partition order. The resulting universe is identical to the one produced by
+ * building the partitions one after another.
+ *
+ * @author Jeff Ridder
+ * @see Scenario#setPopulationThreads
+ */
+public interface IParallelAgentFactory extends IAgentFactory
+{
+
+    /**
+     * The number of independent partitions that make up the population for
+     * the next simulation run.
+     *
+     * @return number of partitions.
+     */
+    public int getPartitionCount();
+
+    /**
+     * Construct the agents of the specified partition and append them to the
+     * buffer in the order in which they should be added to the universe. This
+     * method may be invoked concurrently for different partitions. It must not
+     * reference the universe or any state shared between partitions. When the
+     * partitions are built on a thread pool, each is built on a thread bound to
+     * a stream of the universe's RandomStreams provider that depends only on
+     * the partition, so random draws made through TimeUtil, Space or
+     * RandomStreams.currentStream yield the same population for a given seed.
+     *
+     * @param partition partition index, from 0 to getPartitionCount() - 1.
+     * @param buffer the buffer to receive the constructed agents.
+     */
+    public void createAgents(int partition, List<Agent> buffer);
+
+    /**
+     * Build the partitions one after another on the calling thread, adding
+     * each to the universe as it is built. Used when the population is not
+     * built on a thread pool. Random draws are made from the calling thread's
+     * stream.
+     *
+     * @param universe An instance of a simulation Universe.
+     */
+    @Override
+    public default void populateUniverse(Universe universe)
+    {
+        ArrayList<Agent> buffer = new ArrayList<>();
+        for (int partition = 0; partition < getPartitionCount(); partition++)
+        {
+            createAgents(partition, buffer);
+            universe.addAgents(buffer);
+            buffer.clear();
+        }
+    }
+}
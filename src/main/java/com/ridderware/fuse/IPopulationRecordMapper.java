@@ -0,0 +1,39 @@
+/* %%
+ *
+ * Fast Universal Simulation Engine (FUSE)
+ *
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * Converts one record of a population file into an Agent.
+ *
+ * @author Jeff Ridder
+ * @see MappedPopulationFactory
+ */
+public interface IPopulationRecordMapper
+{
+
+    /**
+     * Create the agent described by the specified record. The record is a
+     * reusable view over the mapped file and is only valid for the duration of
+     * this call; copy out any values the agent needs to keep.
+     *
+     * @param record the current record.
+     * @return the new agent, or null to skip this record.
+     */
+    public Agent createAgent(PopulationRecord record);
+}
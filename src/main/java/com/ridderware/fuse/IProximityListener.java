@@ -0,0 +1,51 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * Notified when pairs of items tracked by a SweepAndPrune engine come within
+ * or leave proximity of each other.
+ *
+ * @author Jeff Ridder
+ * @param <T> the type of the tracked items.
+ * @see SweepAndPrune
+ */
+public interface IProximityListener<T>
+{
+
+    /**
+     * Two items have come within proximity.
+     *
+     * @param item the item to which the listener is subscribed, or the first
+     * item of the pair for a listener to all pairs.
+     * @param other the other item.
+     * @param time the time of the update which detected the change.
+     */
+    public void proximityBegan(T item, T other, double time);
+
+    /**
+     * Two items are no longer within proximity, or one has been removed.
+     *
+     * @param item the item to which the listener is subscribed, or the first
+     * item of the pair for a listener to all pairs.
+     * @param other the other item.
+     * @param time the time of the update which detected the change.
+     */
+    public void proximityEnded(T item, T other, double time);
+}
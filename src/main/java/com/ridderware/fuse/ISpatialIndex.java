@@ -0,0 +1,73 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * A spatial index of items, such as agents, whose positions change. Each
+ * inserted item is identified by an integer handle, through which it is
+ * moved and removed in constant or near constant time.
+ *
+ * @author Jeff Ridder
+ * @param <T> the type of the indexed items.
+ * @see Space#getSpatialIndex
+ */
+public interface ISpatialIndex<T> extends ISpatialQuery<T>
+{
+
+    /**
+     * Insert an item at a point.
+     *
+     * @param item the item.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param z z coordinate.
+     * @return the handle of the item.
+     */
+    public int insert(T item, double x, double y, double z);
+
+    /**
+     * Move an item to a new point.
+     *
+     * @param handle the handle of the item.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param z z coordinate.
+     */
+    public void move(int handle, double x, double y, double z);
+
+    /**
+     * Remove an item. Its handle may be reused by a later insertion.
+     *
+     * @param handle the handle of the item.
+     */
+    public void remove(int handle);
+
+    /**
+     * Returns the item with the specified handle.
+     *
+     * @param handle the handle.
+     * @return the item, or null if there is none.
+     */
+    public T get(int handle);
+
+    /**
+     * Remove every item.
+     */
+    public void clear();
+}
@@ -0,0 +1,68 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * Range and nearest neighbor queries over items at points in space. Distances
+ * are Euclidean in three dimensions, as with Double3D.isWithinRange. Queries
+ * allocate nothing; results are delivered to a visitor or to a reusable
+ * NeighborBuffer.
+ *
+ * @author Jeff Ridder
+ * @param <T> the type of the indexed items.
+ * @see ISpatialIndex
+ * @see NeighborBuffer
+ */
+public interface ISpatialQuery<T>
+{
+
+    /**
+     * Returns the number of indexed items.
+     *
+     * @return number of items.
+     */
+    public int size();
+
+    /**
+     * Visit every item within the specified range of a point, in no
+     * particular order.
+     *
+     * @param x x coordinate of the point.
+     * @param y y coordinate of the point.
+     * @param z z coordinate of the point.
+     * @param range the range.
+     * @param visitor the visitor.
+     * @return false if the visitor ended the query.
+     */
+    public boolean forEachWithin(double x, double y, double z, double range, ISpatialVisitor<? super T> visitor);
+
+    /**
+     * Offer the items nearest a point to a buffer which retains the nearest
+     * it has been offered. The buffer is neither cleared nor sorted, so the
+     * nearest items of several indexes may be collected into one buffer.
+     *
+     * @param x x coordinate of the point.
+     * @param y y coordinate of the point.
+     * @param z z coordinate of the point.
+     * @param max_range items beyond this range are not offered.
+     * @param buffer the buffer.
+     * @see NeighborBuffer#findNearest
+     */
+    public void collectNearest(double x, double y, double z, double max_range, NeighborBuffer<? super T> buffer);
+}
@@ -0,0 +1,40 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * Receives the items found by a spatial query.
+ *
+ * @author Jeff Ridder
+ * @param <T> the type of the indexed items.
+ * @see ISpatialQuery
+ */
+public interface ISpatialVisitor<T>
+{
+
+    /**
+     * Visit an item found by a query. The index must not be modified while it
+     * is being visited.
+     *
+     * @param item the item.
+     * @param distance_sq the squared distance of the item from the query point.
+     * @return false to end the query.
+     */
+    public boolean visit(T item, double distance_sq);
+}
@@ -0,0 +1,38 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * An action executed when a state machine enters or exits a state, or takes a
+ * transition.
+ *
+ * @param <T> type of agent the state machine drives.
+ * @author Jeff Ridder
+ * @see StateMachineBuilder
+ */
+public interface IStateAction<T extends StateMachineAgent>
+{
+
+    /**
+     * Execute the action.
+     *
+     * @param agent the agent whose state machine is executing the action.
+     */
+    public void execute(T agent);
+}
@@ -0,0 +1,110 @@
+/* %%
+ *
+ * Fast Universal Simulation Engine (FUSE)
+ *
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * Stable sorting of primitive keys by index, without boxing. Package scope.
+ * Only used by the simulation framework.
+ *
+ * @author Jeff Ridder
+ */
+final class IndexSort
+{
+
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    private IndexSort()
+    {
+    }
+
+    /**
+     * Returns the indexes 0..count-1 ordered by ascending key value. Indexes of
+     * equal keys retain their original relative order.
+     *
+     * @param keys the keys to sort by.
+     * @param count the number of keys to consider.
+     * @return sorted indexes.
+     */
+    static int[] sortedIndexes(double[] keys, int count)
+    {
+        int[] order = new int[count];
+        boolean sorted = true;
+        for (int i = 0; i < count; i++)
+        {
+            order[i] = i;
+            if ((i > 0) && (keys[i] < keys[i - 1]))
+            {
+                sorted = false;
+            }
+        }
+        if (!sorted)
+        {
+            int[] scratch = order.clone();
+            mergeSort(keys, scratch, order, 0, count);
+        }
+        return order;
+    }
+
+    /**
+     * Sorts dest[from, to) using src as scratch space. On entry src and dest
+     * hold the same indexes.
+     */
+    private static void mergeSort(double[] keys, int[] src, int[] dest, int from, int to)
+    {
+        int length = to - from;
+        if (length < INSERTION_SORT_THRESHOLD)
+        {
+            for (int i = from + 1; i < to; i++)
+            {
+                int index = dest[i];
+                double key = keys[index];
+                int j = i - 1;
+                while ((j >= from) && (keys[dest[j]] > key))
+                {
+                    dest[j + 1] = dest[j];
+                    j--;
+                }
+                dest[j + 1] = index;
+            }
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        mergeSort(keys, dest, src, from, mid);
+        mergeSort(keys, dest, src, mid, to);
+
+        if (keys[src[mid - 1]] <= keys[src[mid]])
+        {
+            System.arraycopy(src, from, dest, from, length);
+            return;
+        }
+
+        for (int i = from, p = from, q = mid; i < to; i++)
+        {
+            if ((q >= to) || ((p < mid) && (keys[src[p]] <= keys[src[q]])))
+            {
+                dest[i] = src[p++];
+            }
+            else
+            {
+                dest[i] = src[q++];
+            }
+        }
+    }
+}
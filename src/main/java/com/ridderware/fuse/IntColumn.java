@@ -0,0 +1,266 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A column of int attributes in an AttributeStore, indexed by agent id. The
+ * bulk operations cover every id assigned by the store.
+ *
+ * @author Jeff Ridder
+ * @see AttributeStore
+ */
+public final class IntColumn extends AttributeColumn
+{
+
+    private final AttributeStore store;
+    private final String name;
+    private int[] values = null;
+    private IntBuffer buffer = null;
+
+    IntColumn(AttributeStore store, String name, int capacity)
+    {
+        this.store = store;
+        this.name = name;
+        if (store.isOffHeap())
+        {
+            buffer = AttributeStore.allocate(4L * capacity).asIntBuffer();
+        }
+        else
+        {
+            values = new int[capacity];
+        }
+    }
+
+    /**
+     * Returns the name of this column.
+     *
+     * @return column name.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the value of one id.
+     *
+     * @param id agent id.
+     * @return the value.
+     */
+    public int get(int id)
+    {
+        return (values != null) ? values[id] : buffer.get(id);
+    }
+
+    /**
+     * Sets the value of one id.
+     *
+     * @param id agent id.
+     * @param value the value.
+     */
+    public void set(int id, int value)
+    {
+        if (values != null)
+        {
+            values[id] = value;
+        }
+        else
+        {
+            buffer.put(id, value);
+        }
+    }
+
+    /**
+     * Returns the value of an agent which has been assigned an id by the
+     * store.
+     *
+     * @param agent the agent.
+     * @return the value.
+     */
+    public int get(Agent agent)
+    {
+        return get(agent.getAttributeId());
+    }
+
+    /**
+     * Sets the value of an agent which has been assigned an id by the store.
+     *
+     * @param agent the agent.
+     * @param value the value.
+     */
+    public void set(Agent agent, int value)
+    {
+        set(agent.getAttributeId(), value);
+    }
+
+    /**
+     * Add a value to the attribute of one agent.
+     *
+     * @param id agent id.
+     * @param delta value to add.
+     */
+    public void add(int id, int delta)
+    {
+        set(id, get(id) + delta);
+    }
+
+    /**
+     * Set every value to the specified value.
+     *
+     * @param value the value.
+     */
+    public void fill(int value)
+    {
+        int n = store.size();
+        if (values != null)
+        {
+            Arrays.fill(values, 0, n, value);
+        }
+        else
+        {
+            for (int i = 0; i < n; i++)
+            {
+                buffer.put(i, value);
+            }
+        }
+    }
+
+    /**
+     * Replace every value with the result of applying an operator to it.
+     *
+     * @param operator the operator.
+     */
+    public void apply(IntUnaryOperator operator)
+    {
+        int n = store.size();
+        for (int i = 0; i < n; i++)
+        {
+            set(i, operator.applyAsInt(get(i)));
+        }
+    }
+
+    /**
+     * Returns the sum of the values.
+     *
+     * @return sum.
+     */
+    public long sum()
+    {
+        int n = store.size();
+        long result = 0;
+        if (values != null)
+        {
+            int[] v = values;
+            for (int i = 0; i < n; i++)
+            {
+                result += v[i];
+            }
+        }
+        else
+        {
+            for (int i = 0; i < n; i++)
+            {
+                result += buffer.get(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of ids with the specified value.
+     *
+     * @param value the value.
+     * @return count.
+     */
+    public int count(int value)
+    {
+        int n = store.size();
+        int result = 0;
+        for (int i = 0; i < n; i++)
+        {
+            if (get(i) == value)
+            {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Count the ids with each value in the range [0, counts.length). Values
+     * outside the range are not counted. This is a single pass histogram,
+     * for example of a column of state indexes.
+     *
+     * @param counts receives the counts, and is first set to zero.
+     */
+    public void histogram(long[] counts)
+    {
+        Arrays.fill(counts, 0);
+        int n = store.size();
+        for (int i = 0; i < n; i++)
+        {
+            int value = get(i);
+            if ((value >= 0) && (value < counts.length))
+            {
+                counts[value]++;
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + name + ": int]";
+    }
+
+    @Override
+    void clear(int id)
+    {
+        set(id, 0);
+    }
+
+    @Override
+    void clearAll()
+    {
+        fill(0);
+    }
+
+    @Override
+    void ensureCapacity(int capacity)
+    {
+        if (values != null)
+        {
+            if (capacity > values.length)
+            {
+                values = Arrays.copyOf(values, capacity);
+            }
+        }
+        else if (capacity > buffer.capacity())
+        {
+            IntBuffer grown = AttributeStore.allocate(4L * capacity).asIntBuffer();
+            buffer.clear();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+}
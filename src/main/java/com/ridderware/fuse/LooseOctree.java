@@ -0,0 +1,677 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.Arrays;
+
+/**
+ * A loose octree spatial index over a three dimensional space. Each node is a
+ * cube whose loose bounds extend half its width beyond it on every side, so
+ * a node's loose bounds are twice as wide as the node. An item is inserted
+ * into the deepest node whose cube contains it and stays there as long as it
+ * moves within that node's loose bounds, so most moves of continuously moving
+ * items only update their coordinates. Queries prune subtrees against their
+ * loose bounds.
+ * <p>
+ * A node splits into eight children when it holds more than LEAF_CAPACITY
+ * items and is wider than the minimum node size, and a subtree collapses back
+ * into its root when removals leave it with few items. Nodes are held in
+ * arrays and allocated from a pool of blocks of eight, and items in arrays
+ * indexed by handle, so continuous motion creates no garbage. Items outside
+ * the bounds of the tree are held by the root.
+ *
+ * @author Jeff Ridder
+ * @param <T> the type of the indexed items.
+ * @see Cartesian3DSpace#createLooseOctree
+ */
+public class LooseOctree<T> implements ISpatialIndex<T>
+{
+
+    /**
+     * The number of items a node may hold before it splits.
+     */
+    public static final int LEAF_CAPACITY = 16;
+
+    private static final int ROOT = 0;
+
+    private final double min_half_size;
+
+    /**
+     * Per node. The first child of a leaf is -1; the children of a node are
+     * the eight consecutive nodes from its first child, in octant order.
+     */
+    private double[] center_x;
+    private double[] center_y;
+    private double[] center_z;
+    private double[] half_size;
+    private int[] parent;
+    private int[] first_child;
+    private int[] heads;
+    private int[] node_counts;
+    private int[] subtree_counts;
+    private int node_high_water = 1;
+
+    /**
+     * The first nodes of released blocks of eight.
+     */
+    private int[] free_blocks = new int[16];
+    private int num_free_blocks = 0;
+
+    /**
+     * Per handle. The node of a free handle is -1, and its next is the next
+     * free handle.
+     */
+    private double[] xs;
+    private double[] ys;
+    private double[] zs;
+    private Object[] items;
+    private int[] nodes;
+    private int[] next;
+    private int[] previous;
+
+    private int high_water = 0;
+    private int free_head = -1;
+    private int count = 0;
+
+    /**
+     * Creates an octree whose root is the smallest cube containing the
+     * specified extent.
+     *
+     * @param xmin minimum x.
+     * @param xmax maximum x.
+     * @param ymin minimum y.
+     * @param ymax maximum y.
+     * @param zmin minimum z.
+     * @param zmax maximum z.
+     * @param min_node_size nodes no wider than this do not split.
+     */
+    public LooseOctree(double xmin, double xmax, double ymin, double ymax, double zmin, double zmax, double min_node_size)
+    {
+        if (!(min_node_size > 0) || !(xmax >= xmin) || !(ymax >= ymin) || !(zmax >= zmin))
+        {
+            throw new IllegalArgumentException("The extent must be non-empty and the minimum node size positive.");
+        }
+        this.min_half_size = 0.5 * min_node_size;
+        allocateNodes(64);
+        center_x[ROOT] = 0.5 * (xmin + xmax);
+        center_y[ROOT] = 0.5 * (ymin + ymax);
+        center_z[ROOT] = 0.5 * (zmin + zmax);
+        half_size[ROOT] = Math.max(min_half_size, 0.5 * Math.max(xmax - xmin, Math.max(ymax - ymin, zmax - zmin)));
+        parent[ROOT] = -1;
+        first_child[ROOT] = -1;
+        heads[ROOT] = -1;
+        allocateItems(64);
+    }
+
+    @Override
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the number of nodes in use.
+     *
+     * @return number of nodes.
+     */
+    public int getNodeCount()
+    {
+        return node_high_water - 8 * num_free_blocks;
+    }
+
+    @Override
+    public int insert(T item, double x, double y, double z)
+    {
+        int handle;
+        if (free_head >= 0)
+        {
+            handle = free_head;
+            free_head = next[handle];
+        }
+        else
+        {
+            if (high_water == items.length)
+            {
+                allocateItems(items.length * 2);
+            }
+            handle = high_water++;
+        }
+        items[handle] = item;
+        xs[handle] = x;
+        ys[handle] = y;
+        zs[handle] = z;
+        place(handle, ROOT);
+        count++;
+        return handle;
+    }
+
+    @Override
+    public void move(int handle, double x, double y, double z)
+    {
+        checkHandle(handle);
+        xs[handle] = x;
+        ys[handle] = y;
+        zs[handle] = z;
+        int node = nodes[handle];
+        if (withinLooseBounds(node, x, y, z))
+        {
+            return;
+        }
+        unlink(handle);
+        int ancestor = (node == ROOT) ? ROOT : parent[node];
+        while ((ancestor != ROOT) && !withinBounds(ancestor, x, y, z))
+        {
+            ancestor = parent[ancestor];
+        }
+        for (int n = node; n != ancestor; n = parent[n])
+        {
+            subtree_counts[n]--;
+        }
+        subtree_counts[ancestor]--;
+        place(handle, ancestor);
+        collapse(node);
+    }
+
+    @Override
+    public void remove(int handle)
+    {
+        checkHandle(handle);
+        int node = nodes[handle];
+        unlink(handle);
+        for (int n = node; n >= 0; n = parent[n])
+        {
+            subtree_counts[n]--;
+        }
+        items[handle] = null;
+        nodes[handle] = -1;
+        next[handle] = free_head;
+        free_head = handle;
+        count--;
+        collapse(node);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int handle)
+    {
+        return ((handle >= 0) && (handle < high_water)) ? (T) items[handle] : null;
+    }
+
+    /**
+     * Returns the x coordinate of the item with the specified handle.
+     *
+     * @param handle the handle of the item.
+     * @return x coordinate.
+     */
+    public double getX(int handle)
+    {
+        return xs[handle];
+    }
+
+    /**
+     * Returns the y coordinate of the item with the specified handle.
+     *
+     * @param handle the handle of the item.
+     * @return y coordinate.
+     */
+    public double getY(int handle)
+    {
+        return ys[handle];
+    }
+
+    /**
+     * Returns the z coordinate of the item with the specified handle.
+     *
+     * @param handle the handle of the item.
+     * @return z coordinate.
+     */
+    public double getZ(int handle)
+    {
+        return zs[handle];
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill(items, 0, high_water, null);
+        high_water = 0;
+        free_head = -1;
+        count = 0;
+        node_high_water = 1;
+        num_free_blocks = 0;
+        first_child[ROOT] = -1;
+        heads[ROOT] = -1;
+        node_counts[ROOT] = 0;
+        subtree_counts[ROOT] = 0;
+    }
+
+    @Override
+    public boolean forEachWithin(double x, double y, double z, double range, ISpatialVisitor<? super T> visitor)
+    {
+        if ((count == 0) || !(range >= 0))
+        {
+            return true;
+        }
+        return forEachWithin(ROOT, x, y, z, range * range, visitor);
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean forEachWithin(int node, double x, double y, double z, double range_sq, ISpatialVisitor<? super T> visitor)
+    {
+        for (int h = heads[node]; h >= 0; h = next[h])
+        {
+            double dx = xs[h] - x;
+            double dy = ys[h] - y;
+            double dz = zs[h] - z;
+            double d2 = dx * dx + dy * dy + dz * dz;
+            if ((d2 <= range_sq) && !visitor.visit((T) items[h], d2))
+            {
+                return false;
+            }
+        }
+        int child = first_child[node];
+        if (child >= 0)
+        {
+            for (int i = child; i < child + 8; i++)
+            {
+                if ((subtree_counts[i] > 0) && (looseDistanceSq(i, x, y, z) <= range_sq)
+                    && !forEachWithin(i, x, y, z, range_sq, visitor))
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Visit every item within an axis aligned box, in no particular order.
+     * The distance passed to the visitor is from the center of the box.
+     *
+     * @param xmin minimum x.
+     * @param xmax maximum x.
+     * @param ymin minimum y.
+     * @param ymax maximum y.
+     * @param zmin minimum z.
+     * @param zmax maximum z.
+     * @param visitor the visitor.
+     * @return false if the visitor ended the query.
+     */
+    public boolean forEachInBox(double xmin, double xmax, double ymin, double ymax, double zmin, double zmax,
+        ISpatialVisitor<? super T> visitor)
+    {
+        if (count == 0)
+        {
+            return true;
+        }
+        return forEachInBox(ROOT, xmin, xmax, ymin, ymax, zmin, zmax, visitor);
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean forEachInBox(int node, double xmin, double xmax, double ymin, double ymax, double zmin, double zmax,
+        ISpatialVisitor<? super T> visitor)
+    {
+        double mx = 0.5 * (xmin + xmax);
+        double my = 0.5 * (ymin + ymax);
+        double mz = 0.5 * (zmin + zmax);
+        for (int h = heads[node]; h >= 0; h = next[h])
+        {
+            double px = xs[h];
+            double py = ys[h];
+            double pz = zs[h];
+            if ((px >= xmin) && (px <= xmax) && (py >= ymin) && (py <= ymax) && (pz >= zmin) && (pz <= zmax))
+            {
+                double dx = px - mx;
+                double dy = py - my;
+                double dz = pz - mz;
+                if (!visitor.visit((T) items[h], dx * dx + dy * dy + dz * dz))
+                {
+                    return false;
+                }
+            }
+        }
+        int child = first_child[node];
+        if (child >= 0)
+        {
+            for (int i = child; i < child + 8; i++)
+            {
+                double loose = 2 * half_size[i];
+                if ((subtree_counts[i] > 0)
+                    && (center_x[i] - loose <= xmax) && (center_x[i] + loose >= xmin)
+                    && (center_y[i] - loose <= ymax) && (center_y[i] + loose >= ymin)
+                    && (center_z[i] - loose <= zmax) && (center_z[i] + loose >= zmin)
+                    && !forEachInBox(i, xmin, xmax, ymin, ymax, zmin, zmax, visitor))
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void collectNearest(double x, double y, double z, double max_range, NeighborBuffer<? super T> buffer)
+    {
+        if ((count == 0) || !(max_range >= 0))
+        {
+            return;
+        }
+        collectNearest(ROOT, x, y, z, max_range * max_range, buffer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collectNearest(int node, double x, double y, double z, double max_range_sq, NeighborBuffer<? super T> buffer)
+    {
+        for (int h = heads[node]; h >= 0; h = next[h])
+        {
+            double dx = xs[h] - x;
+            double dy = ys[h] - y;
+            double dz = zs[h] - z;
+            double d2 = dx * dx + dy * dy + dz * dz;
+            if ((d2 <= max_range_sq) && (d2 < buffer.getWorstDistanceSq()))
+            {
+                buffer.offer((T) items[h], d2);
+            }
+        }
+        int child = first_child[node];
+        if (child >= 0)
+        {
+            // Search the octant containing the point first, then the others
+            // in order of increasing octant difference, pruning each against
+            // the farthest item retained so far.
+            int near = octant(node, x, y, z);
+            for (int i = 0; i < 8; i++)
+            {
+                int c = child + (near ^ i);
+                if (subtree_counts[c] > 0)
+                {
+                    double d2 = looseDistanceSq(c, x, y, z);
+                    if ((d2 <= max_range_sq) && (d2 < buffer.getWorstDistanceSq()))
+                    {
+                        collectNearest(c, x, y, z, max_range_sq, buffer);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Link an item into the deepest node below the specified node whose cube
+     * contains it, splitting that node if it becomes too full.
+     */
+    private void place(int handle, int node)
+    {
+        double x = xs[handle];
+        double y = ys[handle];
+        double z = zs[handle];
+        subtree_counts[node]++;
+        if ((node != ROOT) || withinBounds(ROOT, x, y, z))
+        {
+            while (first_child[node] >= 0)
+            {
+                node = first_child[node] + octant(node, x, y, z);
+                subtree_counts[node]++;
+            }
+        }
+        link(handle, node);
+        if ((node_counts[node] > LEAF_CAPACITY) && (first_child[node] < 0) && (half_size[node] > min_half_size))
+        {
+            split(node);
+        }
+    }
+
+    /**
+     * Give a node eight children and move into them the items which their
+     * cubes contain. The others stay with the node.
+     */
+    private void split(int node)
+    {
+        int child = allocateBlock();
+        double quarter = 0.5 * half_size[node];
+        for (int i = 0; i < 8; i++)
+        {
+            int c = child + i;
+            center_x[c] = center_x[node] + (((i & 1) != 0) ? quarter : -quarter);
+            center_y[c] = center_y[node] + (((i & 2) != 0) ? quarter : -quarter);
+            center_z[c] = center_z[node] + (((i & 4) != 0) ? quarter : -quarter);
+            half_size[c] = quarter;
+            parent[c] = node;
+            first_child[c] = -1;
+            heads[c] = -1;
+            node_counts[c] = 0;
+            subtree_counts[c] = 0;
+        }
+        first_child[node] = child;
+
+        int h = heads[node];
+        while (h >= 0)
+        {
+            int following = next[h];
+            if (withinBounds(node, xs[h], ys[h], zs[h]))
+            {
+                int c = child + octant(node, xs[h], ys[h], zs[h]);
+                unlink(h);
+                link(h, c);
+                subtree_counts[c]++;
+            }
+            h = following;
+        }
+        for (int i = child; i < child + 8; i++)
+        {
+            if ((node_counts[i] > LEAF_CAPACITY) && (half_size[i] > min_half_size))
+            {
+                split(i);
+            }
+        }
+    }
+
+    /**
+     * After a removal from a node, collapse the highest of the node and its
+     * ancestors whose subtree has become small enough to be held by a single
+     * node.
+     */
+    private void collapse(int node)
+    {
+        int target = -1;
+        for (int n = node; n >= 0; n = parent[n])
+        {
+            if (subtree_counts[n] > LEAF_CAPACITY / 2)
+            {
+                break;
+            }
+            target = n;
+        }
+        if ((target >= 0) && (first_child[target] >= 0))
+        {
+            int child = first_child[target];
+            first_child[target] = -1;
+            gather(child, target);
+        }
+    }
+
+    /**
+     * Move the items of a block of children and their descendants into a
+     * node, and release the blocks.
+     */
+    private void gather(int child, int node)
+    {
+        for (int c = child; c < child + 8; c++)
+        {
+            int h = heads[c];
+            while (h >= 0)
+            {
+                int following = next[h];
+                link(h, node);
+                h = following;
+            }
+            if (first_child[c] >= 0)
+            {
+                gather(first_child[c], node);
+            }
+        }
+        if (num_free_blocks == free_blocks.length)
+        {
+            free_blocks = Arrays.copyOf(free_blocks, free_blocks.length * 2);
+        }
+        free_blocks[num_free_blocks++] = child;
+    }
+
+    private int octant(int node, double x, double y, double z)
+    {
+        return ((x >= center_x[node]) ? 1 : 0) | ((y >= center_y[node]) ? 2 : 0) | ((z >= center_z[node]) ? 4 : 0);
+    }
+
+    private boolean withinBounds(int node, double x, double y, double z)
+    {
+        double h = half_size[node];
+        return (Math.abs(x - center_x[node]) <= h) && (Math.abs(y - center_y[node]) <= h) && (Math.abs(z - center_z[node]) <= h);
+    }
+
+    private boolean withinLooseBounds(int node, double x, double y, double z)
+    {
+        if (node == ROOT)
+        {
+            // The root holds items wherever they are.
+            return (first_child[ROOT] < 0) || !withinBounds(ROOT, x, y, z);
+        }
+        double h = 2 * half_size[node];
+        return (Math.abs(x - center_x[node]) <= h) && (Math.abs(y - center_y[node]) <= h) && (Math.abs(z - center_z[node]) <= h);
+    }
+
+    /**
+     * The squared distance of a point from the loose bounds of a node.
+     */
+    private double looseDistanceSq(int node, double x, double y, double z)
+    {
+        double h = 2 * half_size[node];
+        double dx = Math.max(0, Math.abs(x - center_x[node]) - h);
+        double dy = Math.max(0, Math.abs(y - center_y[node]) - h);
+        double dz = Math.max(0, Math.abs(z - center_z[node]) - h);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private void link(int handle, int node)
+    {
+        int head = heads[node];
+        nodes[handle] = node;
+        previous[handle] = -1;
+        next[handle] = head;
+        if (head >= 0)
+        {
+            previous[head] = handle;
+        }
+        heads[node] = handle;
+        node_counts[node]++;
+    }
+
+    private void unlink(int handle)
+    {
+        int node = nodes[handle];
+        int p = previous[handle];
+        int n = next[handle];
+        if (p >= 0)
+        {
+            next[p] = n;
+        }
+        else
+        {
+            heads[node] = n;
+        }
+        if (n >= 0)
+        {
+            previous[n] = p;
+        }
+        node_counts[node]--;
+    }
+
+    private void checkHandle(int handle)
+    {
+        if ((handle < 0) || (handle >= high_water) || (nodes[handle] < 0))
+        {
+            throw new IllegalArgumentException("No item has handle " + handle + ".");
+        }
+    }
+
+    private int allocateBlock()
+    {
+        if (num_free_blocks > 0)
+        {
+            return free_blocks[--num_free_blocks];
+        }
+        if (node_high_water + 8 > center_x.length)
+        {
+            allocateNodes(center_x.length * 2);
+        }
+        int block = node_high_water;
+        node_high_water += 8;
+        return block;
+    }
+
+    private void allocateNodes(int capacity)
+    {
+        if (center_x == null)
+        {
+            center_x = new double[capacity];
+            center_y = new double[capacity];
+            center_z = new double[capacity];
+            half_size = new double[capacity];
+            parent = new int[capacity];
+            first_child = new int[capacity];
+            heads = new int[capacity];
+            node_counts = new int[capacity];
+            subtree_counts = new int[capacity];
+        }
+        else
+        {
+            center_x = Arrays.copyOf(center_x, capacity);
+            center_y = Arrays.copyOf(center_y, capacity);
+            center_z = Arrays.copyOf(center_z, capacity);
+            half_size = Arrays.copyOf(half_size, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            first_child = Arrays.copyOf(first_child, capacity);
+            heads = Arrays.copyOf(heads, capacity);
+            node_counts = Arrays.copyOf(node_counts, capacity);
+            subtree_counts = Arrays.copyOf(subtree_counts, capacity);
+        }
+    }
+
+    private void allocateItems(int capacity)
+    {
+        if (items == null)
+        {
+            xs = new double[capacity];
+            ys = new double[capacity];
+            zs = new double[capacity];
+            items = new Object[capacity];
+            nodes = new int[capacity];
+            next = new int[capacity];
+            previous = new int[capacity];
+        }
+        else
+        {
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+            items = Arrays.copyOf(items, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+            next = Arrays.copyOf(next, capacity);
+            previous = Arrays.copyOf(previous, capacity);
+        }
+    }
+}
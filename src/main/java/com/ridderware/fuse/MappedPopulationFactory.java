@@ -0,0 +1,261 @@
+/* %%
+ *
+ * Fast Universal Simulation Engine (FUSE)
+ *
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormat;
+import org.apache.logging.log4j.*;
+
+/**
+ * An agent factory which streams a population from a CSV or fixed width binary
+ * file. The file is memory-mapped a window at a time and each record is handed,
+ * as a zero-copy PopulationRecord view, to a pluggable mapper which creates the
+ * corresponding agent. Agents are added to the universe as they are created,
+ * so no intermediate collection is built and memory use during the load is
+ * bounded by the agents themselves rather than by the size of the file.
+ *
+ * @author Jeff Ridder
+ * @see IPopulationRecordMapper
+ */
+public class MappedPopulationFactory implements IAgentFactory
+{
+
+    private static final Logger logger = LogManager.getLogger(MappedPopulationFactory.class);
+
+    private static final DecimalFormat long_formatter = (DecimalFormat) DecimalFormat.getNumberInstance();
+
+    /**
+     * The default number of bytes mapped at a time.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final File file;
+    private final IPopulationRecordMapper mapper;
+    private byte delimiter = ',';
+    private int header_lines = 0;
+    private int[] field_widths = null;
+    private int record_size = 0;
+    private long header_bytes = 0;
+    private ByteOrder byte_order = ByteOrder.BIG_ENDIAN;
+    private int window_size = DEFAULT_WINDOW_SIZE;
+
+    static
+    {
+        long_formatter.applyPattern("###,###,###,###,###");
+    }
+
+    /**
+     * Creates a factory which reads the specified CSV file. Use
+     * setBinaryLayout to read a fixed width binary file instead.
+     *
+     * @param file the population file.
+     * @param mapper converts each record into an agent.
+     */
+    public MappedPopulationFactory(File file, IPopulationRecordMapper mapper)
+    {
+        this.file = file;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Sets the CSV field delimiter. The default is a comma.
+     *
+     * @param delimiter an ASCII delimiter character.
+     */
+    public void setDelimiter(char delimiter)
+    {
+        this.delimiter = (byte) delimiter;
+    }
+
+    /**
+     * Sets the number of CSV header lines to skip. The default is zero.
+     *
+     * @param header_lines number of lines to skip.
+     */
+    public void setHeaderLines(int header_lines)
+    {
+        this.header_lines = Math.max(0, header_lines);
+    }
+
+    /**
+     * Read the file as fixed width binary records rather than CSV.
+     *
+     * @param header_bytes number of bytes to skip at the start of the file.
+     * @param byte_order the byte order of numeric fields.
+     * @param field_widths the width in bytes of each field of a record.
+     */
+    public void setBinaryLayout(long header_bytes, ByteOrder byte_order, int... field_widths)
+    {
+        int size = 0;
+        for (int width : field_widths)
+        {
+            if (width <= 0)
+            {
+                throw new IllegalArgumentException("Field widths must be positive.");
+            }
+            size += width;
+        }
+        this.field_widths = field_widths.clone();
+        this.record_size = size;
+        this.header_bytes = Math.max(0, header_bytes);
+        this.byte_order = (byte_order == null) ? ByteOrder.BIG_ENDIAN : byte_order;
+    }
+
+    /**
+     * Sets the number of bytes mapped at a time. A window is grown
+     * automatically if a single CSV record does not fit.
+     *
+     * @param window_size window size in bytes.
+     */
+    public void setWindowSize(int window_size)
+    {
+        this.window_size = Math.max(4096, window_size);
+    }
+
+    /**
+     * Stream the population file into the universe.
+     *
+     * @param universe An instance of a simulation Universe.
+     */
+    @Override
+    public void populateUniverse(Universe universe)
+    {
+        long records = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            if (field_widths != null)
+            {
+                records = readBinary(channel, universe);
+            }
+            else
+            {
+                records = readCsv(channel, universe);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Unable to read population file " + file + ".", e);
+        }
+        logger.debug("Read " + long_formatter.format(records) + " records from " + file + ".");
+    }
+
+    private long readBinary(FileChannel channel, Universe universe) throws IOException
+    {
+        PopulationRecord record = new PopulationRecord(field_widths);
+        long size = channel.size();
+        long position = header_bytes;
+        long record_number = 0;
+        int records_per_window = Math.max(1, window_size / record_size);
+
+        while (position + record_size <= size)
+        {
+            long remaining = (size - position) / record_size;
+            int count = (int) Math.min(records_per_window, remaining);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * record_size);
+            buffer.order(byte_order);
+            for (int i = 0, offset = 0; i < count; i++, offset += record_size)
+            {
+                record.setBinary(buffer, offset, record_number++);
+                addAgent(universe, record);
+            }
+            position += (long) count * record_size;
+        }
+        if (position < size)
+        {
+            logger.warn("Ignored " + (size - position) + " trailing bytes in " + file + ".");
+        }
+        return record_number;
+    }
+
+    private long readCsv(FileChannel channel, Universe universe) throws IOException
+    {
+        PopulationRecord record = new PopulationRecord();
+        long size = channel.size();
+        long position = 0;
+        long record_number = 0;
+        int lines_to_skip = header_lines;
+        int window = window_size;
+
+        while (position < size)
+        {
+            int length = (int) Math.min(window, size - position);
+            boolean last_window = (position + length == size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+            // Only complete lines are processed.  The partial line at
+            // the end of a window is mapped again by the next window.
+            int limit = length;
+            if (!last_window)
+            {
+                while ((limit > 0) && (buffer.get(limit - 1) != '\n'))
+                {
+                    limit--;
+                }
+                if (limit == 0)
+                {
+                    window = (window > Integer.MAX_VALUE / 2) ? Integer.MAX_VALUE : window * 2;
+                    continue;
+                }
+            }
+
+            int start = 0;
+            while (start < limit)
+            {
+                int end = start;
+                while ((end < limit) && (buffer.get(end) != '\n'))
+                {
+                    end++;
+                }
+                int next = end + 1;
+                if ((end > start) && (buffer.get(end - 1) == '\r'))
+                {
+                    end--;
+                }
+
+                if (lines_to_skip > 0)
+                {
+                    lines_to_skip--;
+                }
+                else if (end > start)
+                {
+                    record.setCsv(buffer, start, end, delimiter, record_number++);
+                    addAgent(universe, record);
+                }
+                start = next;
+            }
+            position += limit;
+        }
+        return record_number;
+    }
+
+    private void addAgent(Universe universe, PopulationRecord record)
+    {
+        Agent agent = mapper.createAgent(record);
+        if (agent != null)
+        {
+            universe.addAgent(agent);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.Arrays;
+
+/**
+ * A reusable view of the messages delivered to one agent at one time.
+ * Messages are addressed by index, in the order in which they were sent.
+ *
+ * @author Jeff Ridder
+ * @see IMessageReceiver
+ */
+public final class MessageBatch
+{
+
+    private MessageService.Envelope[] envelopes = new MessageService.Envelope[16];
+    private int size = 0;
+    private double time = 0;
+
+    MessageBatch()
+    {
+    }
+
+    /**
+     * The number of messages in this batch.
+     *
+     * @return message count.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * The time at which the messages are delivered.
+     *
+     * @return delivery time.
+     */
+    public double getDeliveryTime()
+    {
+        return time;
+    }
+
+    /**
+     * Returns the payload of the specified message.
+     *
+     * @param index message index.
+     * @return payload.
+     */
+    public Object getPayload(int index)
+    {
+        return envelope(index).payload;
+    }
+
+    /**
+     * Returns the payload of the specified message cast to the specified
+     * type.
+     *
+     * @param <T> payload type.
+     * @param index message index.
+     * @param type payload class.
+     * @return payload.
+     */
+    public <T> T getPayload(int index, Class<T> type)
+    {
+        return type.cast(envelope(index).payload);
+    }
+
+    /**
+     * Returns the sender of the specified message.
+     *
+     * @param index message index.
+     * @return sender, which may be null.
+     */
+    public Agent getSender(int index)
+    {
+        return envelope(index).sender;
+    }
+
+    /**
+     * Returns the time at which the specified message was sent.
+     *
+     * @param index message index.
+     * @return send time.
+     */
+    public double getSendTime(int index)
+    {
+        return envelope(index).send_time;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + size + " messages at " + time + "]";
+    }
+
+    /**
+     * Point this view at a chain of envelopes linked through their next
+     * fields.
+     */
+    void set(MessageService.Envelope first, int count, double time)
+    {
+        if (count > envelopes.length)
+        {
+            envelopes = new MessageService.Envelope[Math.max(count, envelopes.length * 2)];
+        }
+        int i = 0;
+        for (MessageService.Envelope envelope = first; envelope != null; envelope = envelope.next)
+        {
+            envelopes[i++] = envelope;
+        }
+        this.size = count;
+        this.time = time;
+    }
+
+    void clear()
+    {
+        Arrays.fill(envelopes, 0, size, null);
+        size = 0;
+    }
+
+    private MessageService.Envelope envelope(int index)
+    {
+        if ((index < 0) || (index >= size))
+        {
+            throw new IndexOutOfBoundsException("Message " + index + " of " + this);
+        }
+        return envelopes[index];
+    }
+}
@@ -0,0 +1,302 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Timestamped message passing between agents. An agent sends a payload to
+ * another agent, which must implement IMessageReceiver, with a delivery delay.
+ * Deliveries are scheduled as events of the service rather than made as
+ * direct calls, and all of the messages which arrive at an agent at the same
+ * time are passed to it in one call to receiveMessages.
+ * <p>
+ * Messages are carried in pooled envelopes, so sending allocates nothing once
+ * the pool has grown to the number of messages in flight. Sent messages are
+ * staged on a lock-free stack, so send may be called from any thread; the
+ * staged messages are moved to the delivery queue by the service. A send
+ * from another thread, such as the body of a process behavior, asks the
+ * universe to reschedule the service on the simulation thread. Envelopes
+ * are recycled only for sends made on the thread which runs the simulation.
+ * <p>
+ * The service is itself an agent and must be added to the universe like any
+ * other. Pending messages are discarded when it is reset. Messages addressed
+ * to an agent which has been removed from its universe are dropped.
+ *
+ * @author Jeff Ridder
+ * @see IMessageReceiver
+ * @see MessageBatch
+ */
+public class MessageService extends ServiceAgent
+{
+
+    /**
+     * A message in flight. Package scope. Only used by the simulation
+     * framework.
+     */
+    static final class Envelope extends TimedQueue.Entry
+    {
+
+        Agent sender;
+        Agent target;
+        Object payload;
+        double send_time;
+        Envelope next;
+
+        @Override
+        void clear()
+        {
+            sender = null;
+            target = null;
+            payload = null;
+            next = null;
+        }
+    }
+
+    private final AtomicReference<Envelope> staged = new AtomicReference<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile Thread simulation_thread = Thread.currentThread();
+
+    private final TimedQueue<Envelope> queue = new TimedQueue<>();
+
+    private final ArrayList<Agent> recipients = new ArrayList<>();
+    private final MessageBatch batch = new MessageBatch();
+    private double next_service_time = Double.MAX_VALUE;
+    private long delivered_count = 0;
+    private long dropped_count = 0;
+
+    /**
+     * MessageService constructor.
+     *
+     * @param name The name of the service.
+     */
+    public MessageService(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Send a message. The message is delivered at the current time plus the
+     * delay or, if the delay is not positive, as soon as possible after the
+     * current time.
+     *
+     * @param sender the sending agent, which may be null.
+     * @param target the receiving agent.
+     * @param payload the message payload.
+     * @param delay the delivery delay.
+     */
+    public void send(Agent sender, IMessageReceiver target, Object payload, double delay)
+    {
+        if (!(target instanceof Agent))
+        {
+            throw new IllegalArgumentException("The target of a message must be an agent.");
+        }
+        double now = (getUniverse() == null) ? 0 : getUniverse().getCurrentTime();
+        double time = now + delay;
+        if (!(time > now))
+        {
+            time = Math.nextUp(now);
+        }
+
+        boolean on_simulation_thread = (Thread.currentThread() == simulation_thread);
+        Envelope envelope = on_simulation_thread ? queue.obtain() : null;
+        if (envelope == null)
+        {
+            envelope = new Envelope();
+        }
+        envelope.sender = sender;
+        envelope.target = (Agent) target;
+        envelope.payload = payload;
+        envelope.send_time = now;
+        envelope.time = time;
+        envelope.sequence = sequence.getAndIncrement();
+
+        Envelope head;
+        do
+        {
+            head = staged.get();
+            envelope.next = head;
+        } while (!staged.compareAndSet(head, envelope));
+
+        if (!on_simulation_thread)
+        {
+            requestReschedule();
+        }
+        else if (time < next_service_time)
+        {
+            next_service_time = time;
+            reschedule();
+        }
+    }
+
+    /**
+     * Returns the number of messages sent but not yet delivered.
+     *
+     * @return pending message count.
+     */
+    public int getPendingCount()
+    {
+        int result = queue.size();
+        for (Envelope envelope = staged.get(); envelope != null; envelope = envelope.next)
+        {
+            result++;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of messages delivered since the service was reset.
+     *
+     * @return delivered message count.
+     */
+    public long getDeliveredCount()
+    {
+        return delivered_count;
+    }
+
+    /**
+     * Returns the number of messages dropped because their target had been
+     * removed from its universe.
+     *
+     * @return dropped message count.
+     */
+    public long getDroppedCount()
+    {
+        return dropped_count;
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        simulation_thread = Thread.currentThread();
+        unstage();
+        queue.clear();
+        next_service_time = Double.MAX_VALUE;
+        delivered_count = 0;
+        dropped_count = 0;
+    }
+
+    @Override
+    protected void rescheduleRequested()
+    {
+        unstage();
+        if (queue.peekTime() < next_service_time)
+        {
+            next_service_time = queue.peekTime();
+            reschedule();
+        }
+    }
+
+    @Override
+    protected double getNextServiceTime(double current_time)
+    {
+        unstage();
+        next_service_time = queue.peekTime();
+        return next_service_time;
+    }
+
+    @Override
+    protected void service(double current_time)
+    {
+        simulation_thread = Thread.currentThread();
+        unstage();
+
+        // Chain the due messages of each recipient in its mailbox, then
+        // hand each mailbox over in a single call.
+        while (queue.peekTime() <= current_time)
+        {
+            Envelope envelope = queue.poll();
+            Agent target = envelope.target;
+            AgentExtension mailbox = target.extension();
+            envelope.next = null;
+            if (mailbox.mailbox_head == null)
+            {
+                mailbox.mailbox_head = envelope;
+                recipients.add(target);
+            }
+            else
+            {
+                mailbox.mailbox_tail.next = envelope;
+            }
+            mailbox.mailbox_tail = envelope;
+            mailbox.mailbox_count++;
+        }
+
+        for (int i = 0; i < recipients.size(); i++)
+        {
+            Agent target = recipients.get(i);
+            AgentExtension mailbox = target.extension;
+            Envelope first = mailbox.mailbox_head;
+            int count = mailbox.mailbox_count;
+            mailbox.mailbox_head = null;
+            mailbox.mailbox_tail = null;
+            mailbox.mailbox_count = 0;
+
+            if (target.getUniverse() == null)
+            {
+                dropped_count += count;
+            }
+            else
+            {
+                batch.set(first, count, current_time);
+                try
+                {
+                    ((IMessageReceiver) target).receiveMessages(batch);
+                }
+                finally
+                {
+                    batch.clear();
+                }
+                delivered_count += count;
+            }
+
+            while (first != null)
+            {
+                Envelope next = first.next;
+                queue.release(first);
+                first = next;
+            }
+        }
+        recipients.clear();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + getName() + ": " + queue.size() + " messages queued]";
+    }
+
+    /**
+     * Move the staged messages to the delivery queue.
+     */
+    private void unstage()
+    {
+        Envelope envelope = staged.getAndSet(null);
+        while (envelope != null)
+        {
+            Envelope next = envelope.next;
+            envelope.next = null;
+            queue.offer(envelope);
+            envelope = next;
+        }
+    }
+}
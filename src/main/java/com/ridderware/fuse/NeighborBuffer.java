@@ -0,0 +1,318 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.Arrays;
+
+/**
+ * A reusable buffer of the items found by a spatial query and their squared
+ * distances from the query point. A buffer may be limited to the nearest k
+ * items offered to it, which it holds in a bounded heap so that indexes can
+ * prune their search against the farthest of them.
+ * <p>
+ * <pre>
+ * int n = buffer.findNearest(index, x, y, z, 8, sensor_range);
+ * for (int i = 0; i &lt; n; i++)
+ * {
+ *     Agent contact = buffer.getItem(i);
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author Jeff Ridder
+ * @param <T> the type of the items.
+ * @see ISpatialQuery
+ */
+public final class NeighborBuffer<T> implements ISpatialVisitor<T>
+{
+
+    private Object[] items;
+    private double[] distances_sq;
+    private int size = 0;
+    private int limit = Integer.MAX_VALUE;
+
+    /**
+     * Creates an empty, unlimited buffer.
+     */
+    public NeighborBuffer()
+    {
+        this(16);
+    }
+
+    /**
+     * Creates an empty, unlimited buffer.
+     *
+     * @param capacity the initial capacity.
+     */
+    public NeighborBuffer(int capacity)
+    {
+        items = new Object[Math.max(1, capacity)];
+        distances_sq = new double[items.length];
+    }
+
+    /**
+     * Collect every item of an index within the specified range of a point,
+     * replacing the contents of this buffer. The items are not sorted.
+     *
+     * @param index the index.
+     * @param x x coordinate of the point.
+     * @param y y coordinate of the point.
+     * @param z z coordinate of the point.
+     * @param range the range.
+     * @return the number of items found.
+     */
+    public int findWithin(ISpatialQuery<? extends T> index, double x, double y, double z, double range)
+    {
+        clear();
+        index.forEachWithin(x, y, z, range, this);
+        return size;
+    }
+
+    /**
+     * Collect the k items of an index nearest a point, replacing the contents
+     * of this buffer. The items are sorted nearest first.
+     *
+     * @param index the index.
+     * @param x x coordinate of the point.
+     * @param y y coordinate of the point.
+     * @param z z coordinate of the point.
+     * @param k the number of items.
+     * @param max_range items beyond this range are not collected.
+     * @return the number of items found, at most k.
+     */
+    public int findNearest(ISpatialQuery<? extends T> index, double x, double y, double z, int k, double max_range)
+    {
+        clear(k);
+        index.collectNearest(x, y, z, max_range, this);
+        sort();
+        return size;
+    }
+
+    /**
+     * Empty this buffer and remove its limit.
+     */
+    public void clear()
+    {
+        clear(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Empty this buffer and limit it to the nearest k items offered.
+     *
+     * @param k the limit.
+     */
+    public void clear(int k)
+    {
+        if (k < 1)
+        {
+            throw new IllegalArgumentException("The limit must be positive.");
+        }
+        Arrays.fill(items, 0, size, null);
+        size = 0;
+        limit = k;
+    }
+
+    /**
+     * Returns the number of items in this buffer.
+     *
+     * @return number of items.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns true if this buffer holds as many items as its limit.
+     *
+     * @return true if full.
+     */
+    public boolean isFull()
+    {
+        return size >= limit;
+    }
+
+    /**
+     * Returns the squared distance beyond which an offered item would not be
+     * retained: that of the farthest item if this buffer is full, and
+     * infinity otherwise.
+     *
+     * @return squared distance.
+     */
+    public double getWorstDistanceSq()
+    {
+        return (size >= limit) ? distances_sq[0] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the item at the specified position in this buffer.
+     *
+     * @param i position, from 0 to size() - 1.
+     * @return the item.
+     */
+    @SuppressWarnings("unchecked")
+    public T getItem(int i)
+    {
+        return (T) items[i];
+    }
+
+    /**
+     * Returns the squared distance of the item at the specified position
+     * from the query point.
+     *
+     * @param i position, from 0 to size() - 1.
+     * @return squared distance.
+     */
+    public double getDistanceSq(int i)
+    {
+        return distances_sq[i];
+    }
+
+    /**
+     * Returns the distance of the item at the specified position from the
+     * query point.
+     *
+     * @param i position, from 0 to size() - 1.
+     * @return distance.
+     */
+    public double getDistance(int i)
+    {
+        return Math.sqrt(distances_sq[i]);
+    }
+
+    /**
+     * Add an item to this buffer. If the buffer is full, the item replaces
+     * the farthest if it is nearer, and is otherwise discarded.
+     *
+     * @param item the item.
+     * @param distance_sq its squared distance.
+     */
+    public void offer(T item, double distance_sq)
+    {
+        if (limit == Integer.MAX_VALUE)
+        {
+            if (size == items.length)
+            {
+                grow();
+            }
+            items[size] = item;
+            distances_sq[size++] = distance_sq;
+        }
+        else if (size < limit)
+        {
+            if (size == items.length)
+            {
+                grow();
+            }
+            siftUp(size++, item, distance_sq);
+        }
+        else if (distance_sq < distances_sq[0])
+        {
+            siftDown(0, size, item, distance_sq);
+        }
+    }
+
+    /**
+     * Offers the item to this buffer and continues the query.
+     *
+     * @param item the item.
+     * @param distance_sq its squared distance.
+     * @return true.
+     */
+    @Override
+    public boolean visit(T item, double distance_sq)
+    {
+        offer(item, distance_sq);
+        return true;
+    }
+
+    /**
+     * Sort the items of this buffer, nearest first.
+     */
+    public void sort()
+    {
+        if (limit == Integer.MAX_VALUE)
+        {
+            for (int i = (size >>> 1) - 1; i >= 0; i--)
+            {
+                siftDown(i, size, items[i], distances_sq[i]);
+            }
+        }
+        // Repeatedly move the farthest of the heap to the end.
+        for (int n = size - 1; n > 0; n--)
+        {
+            Object item = items[n];
+            double distance_sq = distances_sq[n];
+            items[n] = items[0];
+            distances_sq[n] = distances_sq[0];
+            siftDown(0, n, item, distance_sq);
+        }
+        if (limit != Integer.MAX_VALUE)
+        {
+            // No longer a heap, so further offers simply append.
+            limit = Integer.MAX_VALUE;
+        }
+    }
+
+    private void siftUp(int i, Object item, double distance_sq)
+    {
+        while (i > 0)
+        {
+            int parent = (i - 1) >>> 1;
+            if (distances_sq[parent] >= distance_sq)
+            {
+                break;
+            }
+            items[i] = items[parent];
+            distances_sq[i] = distances_sq[parent];
+            i = parent;
+        }
+        items[i] = item;
+        distances_sq[i] = distance_sq;
+    }
+
+    private void siftDown(int i, int n, Object item, double distance_sq)
+    {
+        int half = n >>> 1;
+        while (i < half)
+        {
+            int child = 2 * i + 1;
+            if ((child + 1 < n) && (distances_sq[child + 1] > distances_sq[child]))
+            {
+                child++;
+            }
+            if (distances_sq[child] <= distance_sq)
+            {
+                break;
+            }
+            items[i] = items[child];
+            distances_sq[i] = distances_sq[child];
+            i = child;
+        }
+        items[i] = item;
+        distances_sq[i] = distance_sq;
+    }
+
+    private void grow()
+    {
+        int capacity = items.length + (items.length >> 1) + 1;
+        items = Arrays.copyOf(items, capacity);
+        distances_sq = Arrays.copyOf(distances_sq, capacity);
+    }
+}
@@ -0,0 +1,126 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * A reusable view of one entry of an OffHeapPopulation. No object exists for
+ * an entry; a view is pointed at an entry when it is needed, and reads and
+ * writes go directly to the population's off-heap storage. A view is only
+ * valid until it is next pointed at another entry.
+ *
+ * @author Jeff Ridder
+ * @see OffHeapPopulation
+ */
+public final class OffHeapAgent
+{
+
+    private final OffHeapPopulation population;
+    private int id = -1;
+
+    OffHeapAgent(OffHeapPopulation population)
+    {
+        this.population = population;
+    }
+
+    /**
+     * Returns the population which holds the entry.
+     *
+     * @return population.
+     */
+    public OffHeapPopulation getPopulation()
+    {
+        return population;
+    }
+
+    /**
+     * Returns the entry id, which also indexes the columns of the
+     * population's attribute store.
+     *
+     * @return entry id.
+     */
+    public int getId()
+    {
+        return id;
+    }
+
+    /**
+     * Returns the state of the entry.
+     *
+     * @return the state.
+     * @see OffHeapPopulation#getState
+     */
+    public SharedAgentState getState()
+    {
+        return population.getState(id);
+    }
+
+    /**
+     * Returns the index of the state of the entry within the state set.
+     *
+     * @return state index.
+     */
+    public int getStateIndex()
+    {
+        return population.getStateIndex(id);
+    }
+
+    /**
+     * Move the entry to another state.
+     *
+     * @param state the new state.
+     * @see OffHeapPopulation#setState
+     */
+    public void setState(SharedAgentState state)
+    {
+        population.setState(id, state);
+    }
+
+    /**
+     * Returns the time of the scheduled event of the entry, or
+     * Double.MAX_VALUE if none is scheduled.
+     *
+     * @return scheduled time.
+     */
+    public double getScheduledTime()
+    {
+        return population.getScheduledTime(id);
+    }
+
+    /**
+     * Returns true if an event is scheduled for the entry.
+     *
+     * @return true if scheduled.
+     */
+    public boolean isScheduled()
+    {
+        return population.isScheduled(id);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + population.getName() + " " + id + ": " + population.getState(id).getName() + "]";
+    }
+
+    OffHeapAgent at(int id)
+    {
+        this.id = id;
+        return this;
+    }
+}
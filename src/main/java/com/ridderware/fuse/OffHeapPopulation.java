@@ -0,0 +1,491 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A population of very many identical agents whose state and scheduling
+ * metadata are held outside the Java heap. Each entry costs 17 bytes of
+ * direct or memory-mapped storage: its scheduled time, its state as an index
+ * into a SharedAgentStateSet, and its place in the population's event queue.
+ * No object exists for an entry. The entries share one IOffHeapBehavior, which
+ * sees an entry through a reusable OffHeapAgent view, and per-entry
+ * attributes are kept in the columns of the population's off-heap
+ * AttributeStore.
+ * <p>
+ * The population is itself an agent and must be added to the universe like
+ * any other. It keeps its own event queue in off-heap memory and appears to
+ * the universe as a single behavior scheduled at the time of its earliest
+ * entry, so the universe's own queue does not grow with the population. At the
+ * start of each run every entry is initialized by the behavior.
+ *
+ * @author Jeff Ridder
+ * @see IOffHeapBehavior
+ * @see OffHeapAgent
+ */
+public class OffHeapPopulation extends ServiceAgent
+{
+
+    private final SharedAgentStateSet states;
+    private final IOffHeapBehavior behavior;
+    private final int capacity;
+    private final AttributeStore attributes;
+
+    private final DoubleBuffer times;
+    private final ByteBuffer state_indexes;
+    private final IntBuffer positions;
+    private final IntBuffer queue;
+
+    private final long[] populations = new long[256];
+    private final OffHeapAgent current = new OffHeapAgent(this);
+    private final OffHeapAgent cursor = new OffHeapAgent(this);
+
+    private int count = 0;
+    private int queue_size = 0;
+    private double next_service_time = Double.MAX_VALUE;
+
+    /**
+     * Creates a population held in direct buffers.
+     *
+     * @param name The name of the population.
+     * @param capacity The maximum number of entries.
+     * @param states The states of the entries; index zero is the initial
+     * state.
+     * @param behavior The behavior of every entry.
+     */
+    public OffHeapPopulation(String name, int capacity, SharedAgentStateSet states, IOffHeapBehavior behavior)
+    {
+        this(name, capacity, states, behavior, null);
+    }
+
+    /**
+     * Creates a population held in a memory-mapped file, or in direct buffers
+     * if the file is null. The file is overwritten.
+     *
+     * @param name The name of the population.
+     * @param capacity The maximum number of entries.
+     * @param states The states of the entries; index zero is the initial
+     * state.
+     * @param behavior The behavior of every entry.
+     * @param file The backing file, or null.
+     */
+    public OffHeapPopulation(String name, int capacity, SharedAgentStateSet states, IOffHeapBehavior behavior,
+        File file)
+    {
+        super(name);
+        if ((states == null) || (states.size() == 0) || (behavior == null))
+        {
+            throw new IllegalArgumentException("At least one state and a behavior are required.");
+        }
+        if ((capacity <= 0) || (capacity > Integer.MAX_VALUE / 8))
+        {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + (Integer.MAX_VALUE / 8) + ".");
+        }
+        this.states = states;
+        this.behavior = behavior;
+        this.capacity = capacity;
+        this.attributes = new AttributeStore(true, capacity);
+
+        ByteBuffer[] regions = allocate(file, 8L * capacity, 1L * capacity, 4L * capacity, 4L * capacity);
+        this.times = regions[0].asDoubleBuffer();
+        this.state_indexes = regions[1];
+        this.positions = regions[2].asIntBuffer();
+        this.queue = regions[3].asIntBuffer();
+    }
+
+    /**
+     * Add entries to the population. They are initialized at the start of the
+     * next run.
+     *
+     * @param number The number of entries to add.
+     * @return the id of the first entry added.
+     */
+    public int add(int number)
+    {
+        if ((number < 0) || (count + number > capacity))
+        {
+            throw new IllegalStateException("Population " + getName() + " is limited to " + capacity + " entries.");
+        }
+        int first = count;
+        for (int id = first; id < first + number; id++)
+        {
+            times.put(id, Double.MAX_VALUE);
+            state_indexes.put(id, (byte) 0);
+            positions.put(id, -1);
+        }
+        count += number;
+        populations[0] += number;
+        attributes.allocate(number);
+        return first;
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return entry count.
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the attribute store whose columns are indexed by entry id. The
+     * store is held off the heap.
+     *
+     * @return attribute store.
+     */
+    public AttributeStore getAttributes()
+    {
+        return attributes;
+    }
+
+    /**
+     * Returns the set of states which the entries may be in.
+     *
+     * @return state set.
+     */
+    public SharedAgentStateSet getStateSet()
+    {
+        return states;
+    }
+
+    /**
+     * Returns a view of the specified entry. The view is shared, and is only
+     * valid until the next call to this method.
+     *
+     * @param id entry id.
+     * @return view of the entry.
+     */
+    public OffHeapAgent getAgent(int id)
+    {
+        check(id);
+        return cursor.at(id);
+    }
+
+    /**
+     * Returns the number of entries in the specified state.
+     *
+     * @param state the state.
+     * @return number of entries.
+     */
+    public long getPopulation(SharedAgentState state)
+    {
+        return (state.getStateSet() == states) ? populations[state.getIndex()] : 0;
+    }
+
+    /**
+     * Returns the state of an entry.
+     *
+     * @param id entry id.
+     * @return the state.
+     */
+    public SharedAgentState getState(int id)
+    {
+        return states.get(getStateIndex(id));
+    }
+
+    /**
+     * Returns the index of the state of an entry within the state set.
+     *
+     * @param id entry id.
+     * @return state index.
+     */
+    public int getStateIndex(int id)
+    {
+        return state_indexes.get(id) & 0xff;
+    }
+
+    /**
+     * Move an entry to another state, which must be one of the first 256
+     * states of the population's state set.
+     *
+     * @param id entry id.
+     * @param state the new state.
+     */
+    public void setState(int id, SharedAgentState state)
+    {
+        if ((state.getStateSet() != states) || (state.getIndex() > 255))
+        {
+            throw new IllegalArgumentException("State " + state + " is not one of the first 256 states of " + states
+                + ".");
+        }
+        int old_index = getStateIndex(id);
+        if (old_index != state.getIndex())
+        {
+            populations[old_index]--;
+            populations[state.getIndex()]++;
+            state_indexes.put(id, (byte) state.getIndex());
+        }
+    }
+
+    /**
+     * Returns the time of the scheduled event of an entry, or
+     * Double.MAX_VALUE if none is scheduled.
+     *
+     * @param id entry id.
+     * @return scheduled time.
+     */
+    public double getScheduledTime(int id)
+    {
+        return times.get(id);
+    }
+
+    /**
+     * Returns true if an event is scheduled for an entry.
+     *
+     * @param id entry id.
+     * @return true if scheduled.
+     */
+    public boolean isScheduled(int id)
+    {
+        return positions.get(id) >= 0;
+    }
+
+    /**
+     * Schedule the next event of an entry, replacing any event already
+     * scheduled.
+     *
+     * @param id entry id.
+     * @param time the time of the event.
+     */
+    public void schedule(int id, double time)
+    {
+        check(id);
+        cancel(id);
+        times.put(id, time);
+        if (time < Double.MAX_VALUE)
+        {
+            offer(id);
+            if (time < next_service_time)
+            {
+                next_service_time = time;
+                reschedule();
+            }
+        }
+    }
+
+    /**
+     * Cancel the scheduled event of an entry, if any.
+     *
+     * @param id entry id.
+     */
+    public void cancel(int id)
+    {
+        int position = positions.get(id);
+        if (position >= 0)
+        {
+            removeAt(position);
+            times.put(id, Double.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        // Agents are reset before the universe advances its clock to the
+        // start time, so schedule relative to whichever is later.
+        Universe universe = getUniverse();
+        double start_time = (universe == null) ? 0.0
+                : Math.max(universe.getStartTime(), universe.getCurrentTime());
+        Arrays.fill(populations, 0);
+        populations[0] = count;
+        queue_size = 0;
+        for (int id = 0; id < count; id++)
+        {
+            state_indexes.put(id, (byte) 0);
+            positions.put(id, -1);
+            double time = behavior.initialize(current.at(id), start_time);
+            times.put(id, time);
+            if (time < Double.MAX_VALUE)
+            {
+                positions.put(id, queue_size);
+                queue.put(queue_size++, id);
+            }
+        }
+        for (int i = (queue_size >>> 1) - 1; i >= 0; i--)
+        {
+            siftDown(i, queue.get(i));
+        }
+        next_service_time = Double.MAX_VALUE;
+    }
+
+    @Override
+    protected double getNextServiceTime(double current_time)
+    {
+        next_service_time = (queue_size == 0) ? Double.MAX_VALUE : times.get(queue.get(0));
+        return next_service_time;
+    }
+
+    @Override
+    protected void service(double current_time)
+    {
+        while ((queue_size > 0) && (times.get(queue.get(0)) <= current_time))
+        {
+            int id = queue.get(0);
+            removeAt(0);
+            double next_time = behavior.perform(current.at(id), current_time);
+            if (positions.get(id) < 0)
+            {
+                // Not already rescheduled by the behavior.
+                if (next_time > current_time)
+                {
+                    times.put(id, next_time);
+                    if (next_time < Double.MAX_VALUE)
+                    {
+                        offer(id);
+                    }
+                }
+                else
+                {
+                    times.put(id, Double.MAX_VALUE);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + getName() + ": " + count + " entries, " + queue_size + " scheduled]";
+    }
+
+    private void check(int id)
+    {
+        if ((id < 0) || (id >= count))
+        {
+            throw new IndexOutOfBoundsException("Entry " + id + " of " + this);
+        }
+    }
+
+    private boolean before(int a, double time_a, int b)
+    {
+        double time_b = times.get(b);
+        return (time_a < time_b) || ((time_a == time_b) && (a < b));
+    }
+
+    private void offer(int id)
+    {
+        siftUp(queue_size++, id);
+    }
+
+    private void removeAt(int position)
+    {
+        int removed = queue.get(position);
+        positions.put(removed, -1);
+        int last = queue.get(--queue_size);
+        if (position < queue_size)
+        {
+            siftDown(position, last);
+            if (queue.get(position) == last)
+            {
+                siftUp(position, last);
+            }
+        }
+    }
+
+    private void siftUp(int position, int id)
+    {
+        double time = times.get(id);
+        while (position > 0)
+        {
+            int parent = (position - 1) >>> 1;
+            int parent_id = queue.get(parent);
+            if (!before(id, time, parent_id))
+            {
+                break;
+            }
+            queue.put(position, parent_id);
+            positions.put(parent_id, position);
+            position = parent;
+        }
+        queue.put(position, id);
+        positions.put(id, position);
+    }
+
+    private void siftDown(int position, int id)
+    {
+        double time = times.get(id);
+        int half = queue_size >>> 1;
+        while (position < half)
+        {
+            int child = (position << 1) + 1;
+            int child_id = queue.get(child);
+            int right = child + 1;
+            if (right < queue_size)
+            {
+                int right_id = queue.get(right);
+                if (before(right_id, times.get(right_id), child_id))
+                {
+                    child = right;
+                    child_id = right_id;
+                }
+            }
+            if (!before(child_id, times.get(child_id), id))
+            {
+                break;
+            }
+            queue.put(position, child_id);
+            positions.put(child_id, position);
+            position = child;
+        }
+        queue.put(position, id);
+        positions.put(id, position);
+    }
+
+    private static ByteBuffer[] allocate(File file, long... sizes)
+    {
+        ByteBuffer[] result = new ByteBuffer[sizes.length];
+        if (file == null)
+        {
+            for (int i = 0; i < sizes.length; i++)
+            {
+                result[i] = AttributeStore.allocate(sizes[i]);
+            }
+            return result;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            FileChannel channel = raf.getChannel();
+            long offset = 0;
+            for (int i = 0; i < sizes.length; i++)
+            {
+                // Regions are aligned to eight bytes.
+                result[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset, sizes[i]).order(ByteOrder.nativeOrder());
+                offset += (sizes[i] + 7) & ~7L;
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Unable to map population file " + file + ".", e);
+        }
+        return result;
+    }
+}
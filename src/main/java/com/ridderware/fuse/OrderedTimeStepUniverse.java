@@ -87,6 +87,21 @@ public class OrderedTimeStepUniverse extends Universe
 
         agents.clear();
         new_agents.clear();
+        allocateSteps(start_time, end_time);
+    }
+
+    @Override
+    public void warmResetSimulation(double start_time, double end_time)
+    {
+        super.warmResetSimulation(start_time, end_time);
+
+        new_agents.clear();
+        new_agents.addAll(agents);
+        allocateSteps(start_time, end_time);
+    }
+
+    private void allocateSteps(double start_time, double end_time)
+    {
         recentlyEnabledBehaviors.clear();
         behaviors.clear();
         this.step_index = 0;
@@ -249,6 +264,31 @@ public class OrderedTimeStepUniverse extends Universe
         }
     }
 
+    /**
+     * Remove an agent from this Universe. Its behaviors are removed from the
+     * schedule.
+     *
+     * @param agent The agent to remove.
+     */
+    @Override
+    public void removeAgent(Agent agent)
+    {
+        if ((agent != null) && agents.remove(agent))
+        {
+            new_agents.remove(agent);
+            for (IBehavior<? extends IAgent> behavior : agent.getBehaviors())
+            {
+                recentlyEnabledBehaviors.remove(behavior);
+                double index = Math.ceil(behavior.getScheduledTime());
+                if (index < behaviors.size())
+                {
+                    behaviors.get((int) index).remove(behavior);
+                }
+            }
+            super.removeAgent(agent);
+        }
+    }
+
     public static Comparator<IBehavior<? extends IAgent>> orderComparator = new Comparator<IBehavior<? extends IAgent>>()
     {
         @Override
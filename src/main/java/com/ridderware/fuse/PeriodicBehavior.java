@@ -0,0 +1,109 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * A behavior which runs at a fixed period. The behavior is scheduled at the
+ * times phase + k * period, for integer k, which are later than the current
+ * time. Because its schedule is known in advance, the ContinuousTimeUniverse
+ * keeps each periodic behavior in a lane shared with the other periodic
+ * behaviors of the same period rather than in its general queue, and advances
+ * the lane in constant time per event. Other universes schedule periodic
+ * behaviors like any other behavior.
+ * <p>
+ * To stop a periodic behavior, disable it.
+ *
+ * @param <T> type of agent this behavior can be associated with.
+ * @author Jeff Ridder
+ */
+public abstract class PeriodicBehavior<T extends IAgent> extends Behavior<T>
+{
+
+    private final double period;
+    private final double phase;
+
+    // Package scope.  Maintained by PeriodicLane to recognize stale entries.
+    int lane_stamp = 0;
+    boolean in_lane = false;
+
+    /**
+     * Creates a behavior with the specified period and a phase of zero.
+     *
+     * @param period time ticks between runs (positive).
+     */
+    public PeriodicBehavior(double period)
+    {
+        this(period, 0.0);
+    }
+
+    /**
+     * Creates a behavior with the specified period and phase.
+     *
+     * @param period time ticks between runs (positive).
+     * @param phase offset of the schedule from a multiple of the period.
+     */
+    public PeriodicBehavior(double period, double phase)
+    {
+        if (!(period > 0.0) || Double.isInfinite(period))
+        {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+        this.period = period;
+        this.phase = phase;
+    }
+
+    /**
+     * The time ticks between runs.
+     *
+     * @return period.
+     */
+    public final double getPeriod()
+    {
+        return period;
+    }
+
+    /**
+     * The offset of the schedule from a multiple of the period.
+     *
+     * @return phase.
+     */
+    public final double getPhase()
+    {
+        return phase;
+    }
+
+    /**
+     * Returns the first time on this behavior's schedule which is later than
+     * the current time.
+     *
+     * @param current_time the current simulation time.
+     * @return next scheduled time.
+     */
+    @Override
+    public final double getNextScheduledTime(double current_time)
+    {
+        double k = Math.floor((current_time - phase) / period) + 1.0;
+        double result = phase + k * period;
+        if (result <= current_time)
+        {
+            result = phase + (k + 1.0) * period;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,407 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.Arrays;
+
+/**
+ * A time ordered ring of periodic behaviors which share one period. A behavior
+ * performed at time t is next due at about t + period, which is no earlier
+ * than any other entry of the lane, so it is normally appended at the tail in
+ * constant time. Behaviors entering the lane from elsewhere are collected and
+ * placed by flush, which inserts a few of them in place and merges a larger
+ * set in as one sorted run. Disabled behaviors are not removed;
+ * their entries are recognized as stale by a stamp and discarded when they
+ * reach the head. Package scope. Only used by the simulation framework.
+ *
+ * @author Jeff Ridder
+ */
+final class PeriodicLane
+{
+
+    /**
+     * The largest number of pending behaviors which flush inserts into the
+     * ring one at a time. Larger sets are merged in as one sorted run.
+     */
+    private static final int INSERT_LIMIT = 8;
+
+    private final double period;
+
+    private PeriodicBehavior<?>[] ring;
+    private double[] times;
+    private int[] stamps;
+    private int head = 0;
+    private int count = 0;
+
+    private PeriodicBehavior<?>[] pending;
+    private double[] pending_times;
+    private int[] pending_stamps;
+    private int pending_count = 0;
+
+    private PeriodicBehavior<?>[] spare = new PeriodicBehavior<?>[0];
+    private double[] spare_times = new double[0];
+    private int[] spare_stamps = new int[0];
+
+    /**
+     * Creates an empty lane.
+     *
+     * @param period the period of every behavior in the lane.
+     */
+    PeriodicLane(double period)
+    {
+        this.period = period;
+        this.ring = new PeriodicBehavior<?>[16];
+        this.times = new double[16];
+        this.stamps = new int[16];
+        this.pending = new PeriodicBehavior<?>[16];
+        this.pending_times = new double[16];
+        this.pending_stamps = new int[16];
+    }
+
+    double getPeriod()
+    {
+        return period;
+    }
+
+    void clear()
+    {
+        for (int i = 0; i < count; i++)
+        {
+            PeriodicBehavior<?> behavior = ring[(head + i) & (ring.length - 1)];
+            behavior.in_lane = false;
+        }
+        for (int i = 0; i < pending_count; i++)
+        {
+            pending[i].in_lane = false;
+        }
+        Arrays.fill(ring, null);
+        Arrays.fill(pending, 0, pending_count, null);
+        head = 0;
+        count = 0;
+        pending_count = 0;
+    }
+
+    /**
+     * Queue a behavior, whose scheduled time has been set, for the next
+     * flush. Any entry the behavior already has becomes stale.
+     *
+     * @param behavior the behavior to add.
+     */
+    void add(PeriodicBehavior<?> behavior)
+    {
+        behavior.lane_stamp++;
+        behavior.in_lane = true;
+        if (pending_count == pending.length)
+        {
+            pending = Arrays.copyOf(pending, pending_count * 2);
+            pending_times = Arrays.copyOf(pending_times, pending_count * 2);
+            pending_stamps = Arrays.copyOf(pending_stamps, pending_count * 2);
+        }
+        pending[pending_count] = behavior;
+        pending_times[pending_count] = behavior.getScheduledTime();
+        pending_stamps[pending_count++] = behavior.lane_stamp;
+    }
+
+    /**
+     * Merge the behaviors added since the last flush into the ring. A few
+     * behaviors are inserted in place; a larger set is sorted and merged with
+     * the ring into a spare ring kept from the previous merge.
+     */
+    void flush()
+    {
+        if (pending_count == 0)
+        {
+            return;
+        }
+        if (pending_count <= INSERT_LIMIT)
+        {
+            for (int i = 0; i < pending_count; i++)
+            {
+                if (isCurrent(pending[i], pending_stamps[i]))
+                {
+                    insert(pending[i], pending_times[i], pending_stamps[i]);
+                }
+            }
+            Arrays.fill(pending, 0, pending_count, null);
+            pending_count = 0;
+            return;
+        }
+        int[] order = IndexSort.sortedIndexes(pending_times, pending_count);
+
+        int length = ringLength(count + pending_count);
+        if (spare.length < length)
+        {
+            spare = new PeriodicBehavior<?>[length];
+            spare_times = new double[length];
+            spare_stamps = new int[length];
+        }
+        PeriodicBehavior<?>[] merged = spare;
+        double[] merged_times = spare_times;
+        int[] merged_stamps = spare_stamps;
+        int n = 0;
+        int p = 0;
+        int mask = ring.length - 1;
+        for (int i = 0; i < count; i++)
+        {
+            int r = (head + i) & mask;
+            while ((p < pending_count) && (pending_times[order[p]] < times[r]))
+            {
+                n = mergePending(order[p++], merged, merged_times, merged_stamps, n);
+            }
+            if (isCurrent(ring[r], stamps[r]))
+            {
+                merged[n] = ring[r];
+                merged_times[n] = times[r];
+                merged_stamps[n++] = stamps[r];
+            }
+        }
+        while (p < pending_count)
+        {
+            n = mergePending(order[p++], merged, merged_times, merged_stamps, n);
+        }
+
+        Arrays.fill(pending, 0, pending_count, null);
+        pending_count = 0;
+        Arrays.fill(ring, null);
+        spare = ring;
+        spare_times = times;
+        spare_stamps = stamps;
+        ring = merged;
+        times = merged_times;
+        stamps = merged_stamps;
+        head = 0;
+        count = n;
+    }
+
+    /**
+     * Insert an entry at its place in the ring, after any entries with the
+     * same time. The entries on the shorter side of the place are shifted by
+     * one slot.
+     */
+    private void insert(PeriodicBehavior<?> behavior, double time, int stamp)
+    {
+        if (count == ring.length)
+        {
+            grow();
+        }
+        int mask = ring.length - 1;
+        int low = 0;
+        int high = count;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (times[(head + middle) & mask] <= time)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        int index;
+        if (low < count - low)
+        {
+            // Move the entries ahead of the place back by one slot.
+            head = (head - 1) & mask;
+            shift(1, 0, low);
+            index = (head + low) & mask;
+        }
+        else
+        {
+            // Move the entries behind the place forward by one slot.
+            shift(low, low + 1, count - low);
+            index = (head + low) & mask;
+        }
+        ring[index] = behavior;
+        times[index] = time;
+        stamps[index] = stamp;
+        count++;
+    }
+
+    /**
+     * Move a run of entries one slot along the ring, copying the contiguous
+     * pieces of the run with arraycopy.
+     *
+     * @param from ring position of the first entry, relative to head.
+     * @param to ring position it moves to, one more or one less than from.
+     * @param length number of entries in the run.
+     */
+    private void shift(int from, int to, int length)
+    {
+        int mask = ring.length - 1;
+        boolean forward = (to > from);
+        while (length > 0)
+        {
+            // Copy from the end of the run when moving forward, and from its
+            // start when moving back, so no entry is overwritten before it has
+            // been copied.
+            int offset = forward ? length - 1 : 0;
+            int source = (head + from + offset) & mask;
+            int target = (head + to + offset) & mask;
+            int piece;
+            if (forward)
+            {
+                piece = Math.min(length, Math.min(source, target) + 1);
+                source -= piece - 1;
+                target -= piece - 1;
+            }
+            else
+            {
+                piece = Math.min(length, ring.length - Math.max(source, target));
+                from += piece;
+                to += piece;
+            }
+            System.arraycopy(ring, source, ring, target, piece);
+            System.arraycopy(times, source, times, target, piece);
+            System.arraycopy(stamps, source, stamps, target, piece);
+            length -= piece;
+        }
+    }
+
+    /**
+     * Copy the specified pending entry to the merged ring if it is current.
+     *
+     * @return the new merged count.
+     */
+    private int mergePending(int index, PeriodicBehavior<?>[] merged, double[] merged_times, int[] merged_stamps, int n)
+    {
+        if (isCurrent(pending[index], pending_stamps[index]))
+        {
+            merged[n] = pending[index];
+            merged_times[n] = pending_times[index];
+            merged_stamps[n++] = pending_stamps[index];
+        }
+        return n;
+    }
+
+    /**
+     * Returns the scheduled time of the first current entry, discarding any
+     * stale entries ahead of it, or Double.MAX_VALUE if the lane is empty.
+     *
+     * @return earliest scheduled time.
+     */
+    double peekTime()
+    {
+        int mask = ring.length - 1;
+        while (count > 0)
+        {
+            if (isCurrent(ring[head], stamps[head]))
+            {
+                return times[head];
+            }
+            ring[head] = null;
+            head = (head + 1) & mask;
+            count--;
+        }
+        return Double.MAX_VALUE;
+    }
+
+    /**
+     * Removes and returns the head behavior. Must follow peekTime.
+     *
+     * @return the earliest behavior.
+     */
+    PeriodicBehavior<?> poll()
+    {
+        PeriodicBehavior<?> behavior = ring[head];
+        ring[head] = null;
+        head = (head + 1) & (ring.length - 1);
+        count--;
+        behavior.in_lane = false;
+        return behavior;
+    }
+
+    /**
+     * Return a behavior which has just been performed to the lane at its
+     * newly scheduled time. The time is normally the latest in the lane;
+     * otherwise the entry is moved forward to its place.
+     *
+     * @param behavior the behavior to append.
+     */
+    void append(PeriodicBehavior<?> behavior)
+    {
+        if (count == ring.length)
+        {
+            grow();
+        }
+        behavior.lane_stamp++;
+        behavior.in_lane = true;
+        double time = behavior.getScheduledTime();
+        int mask = ring.length - 1;
+        int index = (head + count) & mask;
+        int remaining = count;
+        while (remaining > 0)
+        {
+            int previous = (index - 1) & mask;
+            if (times[previous] <= time)
+            {
+                break;
+            }
+            ring[index] = ring[previous];
+            times[index] = times[previous];
+            stamps[index] = stamps[previous];
+            index = previous;
+            remaining--;
+        }
+        ring[index] = behavior;
+        times[index] = time;
+        stamps[index] = behavior.lane_stamp;
+        count++;
+    }
+
+    private void grow()
+    {
+        int length = ring.length * 2;
+        PeriodicBehavior<?>[] grown = new PeriodicBehavior<?>[length];
+        double[] grown_times = new double[length];
+        int[] grown_stamps = new int[length];
+        int mask = ring.length - 1;
+        for (int i = 0; i < count; i++)
+        {
+            int r = (head + i) & mask;
+            grown[i] = ring[r];
+            grown_times[i] = times[r];
+            grown_stamps[i] = stamps[r];
+        }
+        ring = grown;
+        times = grown_times;
+        stamps = grown_stamps;
+        head = 0;
+    }
+
+    private static boolean isCurrent(PeriodicBehavior<?> behavior, int stamp)
+    {
+        return behavior.in_lane && (behavior.lane_stamp == stamp);
+    }
+
+    /**
+     * The smallest power of two, at least 16, which holds the specified
+     * number of entries.
+     */
+    private static int ringLength(int required)
+    {
+        int length = 16;
+        while (length < required)
+        {
+            length <<= 1;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,497 @@
+/* %%
+ *
+ * Fast Universal Simulation Engine (FUSE)
+ *
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A reusable, zero-copy view of one record in a memory-mapped population file.
+ * Fields are addressed by index. Numeric fields are parsed directly from the
+ * mapped bytes; only getString creates an object.
+ * <p>
+ * For CSV files a field is the text between delimiters. A field may be
+ * enclosed in double quotes, in which case a doubled quote stands for a
+ * literal quote. For binary files each field has a fixed width in bytes:
+ * integer fields may be 1, 2, 4 or 8 bytes wide and floating point fields 4
+ * or 8 bytes wide.
+ *
+ * @author Jeff Ridder
+ * @see MappedPopulationFactory
+ */
+public final class PopulationRecord
+{
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+        1e21, 1e22
+    };
+
+    private final boolean binary;
+    private ByteBuffer buffer = null;
+    private int base = 0;
+    private long record_number = -1;
+    private int field_count = 0;
+    private int[] field_starts;
+    private int[] field_ends;
+    private boolean[] field_quoted;
+
+    /**
+     * Creates a record view for a CSV file.
+     */
+    PopulationRecord()
+    {
+        this.binary = false;
+        this.field_starts = new int[16];
+        this.field_ends = new int[16];
+        this.field_quoted = new boolean[16];
+    }
+
+    /**
+     * Creates a record view for a binary file with the specified field widths.
+     */
+    PopulationRecord(int[] field_widths)
+    {
+        this.binary = true;
+        this.field_count = field_widths.length;
+        this.field_starts = new int[field_count];
+        this.field_ends = field_widths.clone();
+        this.field_quoted = new boolean[field_count];
+        for (int i = 1; i < field_count; i++)
+        {
+            field_starts[i] = field_starts[i - 1] + field_widths[i - 1];
+        }
+    }
+
+    /**
+     * The zero based index of this record within the file, not counting
+     * header lines.
+     *
+     * @return record number.
+     */
+    public long getRecordNumber()
+    {
+        return record_number;
+    }
+
+    /**
+     * The number of fields in this record.
+     *
+     * @return field count.
+     */
+    public int getFieldCount()
+    {
+        return field_count;
+    }
+
+    /**
+     * Returns the specified field as a String.
+     *
+     * @param field field index.
+     * @return field text.
+     */
+    public String getString(int field)
+    {
+        int start = start(field);
+        int end = end(field);
+        if (binary)
+        {
+            // Fixed width text is padded with zeros or spaces.
+            while ((end > start) && ((buffer.get(end - 1) == 0) || (buffer.get(end - 1) == ' ')))
+            {
+                end--;
+            }
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = buffer.get(start + i);
+        }
+        String result = new String(bytes, StandardCharsets.UTF_8);
+        if (field_quoted[field] && (result.indexOf('"') >= 0))
+        {
+            result = result.replace("\"\"", "\"");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the specified field as an int.
+     *
+     * @param field field index.
+     * @return field value.
+     */
+    public int getInt(int field)
+    {
+        long value = getLong(field);
+        if ((value < Integer.MIN_VALUE) || (value > Integer.MAX_VALUE))
+        {
+            throw invalid(field, "int");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Returns the specified field as a long.
+     *
+     * @param field field index.
+     * @return field value.
+     */
+    public long getLong(int field)
+    {
+        int start = start(field);
+        if (binary)
+        {
+            switch (field_ends[field])
+            {
+                case 1:
+                    return buffer.get(start);
+                case 2:
+                    return buffer.getShort(start);
+                case 4:
+                    return buffer.getInt(start);
+                case 8:
+                    return buffer.getLong(start);
+                default:
+                    throw invalid(field, "integer");
+            }
+        }
+
+        int end = trimEnd(start, end(field));
+        start = trimStart(start, end);
+        boolean negative = false;
+        if ((start < end) && ((buffer.get(start) == '-') || (buffer.get(start) == '+')))
+        {
+            negative = (buffer.get(start) == '-');
+            start++;
+        }
+        if (start >= end)
+        {
+            throw invalid(field, "integer");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++)
+        {
+            int digit = buffer.get(i) - '0';
+            if ((digit < 0) || (digit > 9) || (value > (Long.MAX_VALUE - digit) / 10))
+            {
+                throw invalid(field, "integer");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Returns the specified field as a double. Decimal text with up to 15
+     * significant digits and a modest exponent is converted without creating
+     * any objects; other text falls back to Double.parseDouble.
+     *
+     * @param field field index.
+     * @return field value.
+     */
+    public double getDouble(int field)
+    {
+        int start = start(field);
+        if (binary)
+        {
+            switch (field_ends[field])
+            {
+                case 4:
+                    return buffer.getFloat(start);
+                case 8:
+                    return buffer.getDouble(start);
+                default:
+                    return getLong(field);
+            }
+        }
+
+        int end = trimEnd(start, end(field));
+        start = trimStart(start, end);
+        double result = parseDecimal(start, end);
+        if (Double.isNaN(result))
+        {
+            String text = getString(field).trim();
+            try
+            {
+                result = Double.parseDouble(text);
+            }
+            catch (NumberFormatException e)
+            {
+                throw invalid(field, "double");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the specified field as a boolean. Binary fields are true if
+     * non-zero. CSV fields are true if they read "1" or begin with "t" or "y",
+     * ignoring case.
+     *
+     * @param field field index.
+     * @return field value.
+     */
+    public boolean getBoolean(int field)
+    {
+        if (binary)
+        {
+            return getLong(field) != 0;
+        }
+        int start = start(field);
+        int end = trimEnd(start, end(field));
+        start = trimStart(start, end);
+        int length = end - start;
+        if (length <= 0)
+        {
+            return false;
+        }
+        char first = Character.toLowerCase((char) buffer.get(start));
+        return (first == 't') || (first == 'y') || ((first == '1') && (length == 1));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[record " + record_number + ", " + field_count + " fields]";
+    }
+
+    /**
+     * Point this view at a fixed width binary record.
+     */
+    void setBinary(ByteBuffer buffer, int offset, long record_number)
+    {
+        this.buffer = buffer;
+        this.base = offset;
+        this.record_number = record_number;
+    }
+
+    /**
+     * Point this view at the CSV record in buffer[start, end) and split it
+     * into fields.
+     */
+    void setCsv(ByteBuffer buffer, int start, int end, byte delimiter, long record_number)
+    {
+        this.buffer = buffer;
+        this.record_number = record_number;
+        field_count = 0;
+
+        int position = start;
+        while (true)
+        {
+            if (field_count == field_starts.length)
+            {
+                field_starts = Arrays.copyOf(field_starts, field_count * 2);
+                field_ends = Arrays.copyOf(field_ends, field_count * 2);
+                field_quoted = Arrays.copyOf(field_quoted, field_count * 2);
+            }
+
+            int field_start = position;
+            int field_end;
+            boolean quoted = (position < end) && (buffer.get(position) == '"');
+            if (quoted)
+            {
+                field_start = ++position;
+                while (position < end)
+                {
+                    if (buffer.get(position) == '"')
+                    {
+                        if ((position + 1 < end) && (buffer.get(position + 1) == '"'))
+                        {
+                            position += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    position++;
+                }
+                field_end = position;
+                while ((position < end) && (buffer.get(position) != delimiter))
+                {
+                    position++;
+                }
+            }
+            else
+            {
+                while ((position < end) && (buffer.get(position) != delimiter))
+                {
+                    position++;
+                }
+                field_end = position;
+            }
+
+            field_starts[field_count] = field_start;
+            field_ends[field_count] = field_end;
+            field_quoted[field_count] = quoted;
+            field_count++;
+
+            if (position >= end)
+            {
+                break;
+            }
+            position++;
+        }
+    }
+
+    private int start(int field)
+    {
+        if ((field < 0) || (field >= field_count))
+        {
+            throw new IndexOutOfBoundsException("Field " + field + " of " + this);
+        }
+        return binary ? base + field_starts[field] : field_starts[field];
+    }
+
+    private int end(int field)
+    {
+        return binary ? base + field_starts[field] + field_ends[field] : field_ends[field];
+    }
+
+    private int trimStart(int start, int end)
+    {
+        while ((start < end) && (buffer.get(start) == ' '))
+        {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimEnd(int start, int end)
+    {
+        while ((end > start) && (buffer.get(end - 1) == ' '))
+        {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Converts simple decimal text exactly, or returns NaN if the text is not
+     * in the simple form and must be handed to Double.parseDouble.
+     */
+    private double parseDecimal(int start, int end)
+    {
+        int i = start;
+        boolean negative = false;
+        if ((i < end) && ((buffer.get(i) == '-') || (buffer.get(i) == '+')))
+        {
+            negative = (buffer.get(i) == '-');
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seen_digit = false;
+        boolean seen_point = false;
+        for (; i < end; i++)
+        {
+            byte b = buffer.get(i);
+            if ((b >= '0') && (b <= '9'))
+            {
+                seen_digit = true;
+                if ((mantissa == 0) && (b == '0'))
+                {
+                    if (seen_point)
+                    {
+                        scale--;
+                    }
+                    continue;
+                }
+                if (++digits > 15)
+                {
+                    return Double.NaN;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (seen_point)
+                {
+                    scale--;
+                }
+            }
+            else if ((b == '.') && !seen_point)
+            {
+                seen_point = true;
+            }
+            else
+            {
+                break;
+            }
+        }
+        if (!seen_digit)
+        {
+            return Double.NaN;
+        }
+
+        if ((i < end) && ((buffer.get(i) == 'e') || (buffer.get(i) == 'E')))
+        {
+            i++;
+            boolean negative_exponent = false;
+            if ((i < end) && ((buffer.get(i) == '-') || (buffer.get(i) == '+')))
+            {
+                negative_exponent = (buffer.get(i) == '-');
+                i++;
+            }
+            if (i >= end)
+            {
+                return Double.NaN;
+            }
+            int exponent = 0;
+            for (; i < end; i++)
+            {
+                int digit = buffer.get(i) - '0';
+                if ((digit < 0) || (digit > 9) || (exponent > 1000))
+                {
+                    return Double.NaN;
+                }
+                exponent = exponent * 10 + digit;
+            }
+            scale += negative_exponent ? -exponent : exponent;
+        }
+        if (i != end)
+        {
+            return Double.NaN;
+        }
+
+        double value;
+        if (mantissa == 0)
+        {
+            value = 0.0;
+        }
+        else if ((scale >= 0) && (scale < POWERS_OF_TEN.length))
+        {
+            value = mantissa * POWERS_OF_TEN[scale];
+        }
+        else if ((scale < 0) && (-scale < POWERS_OF_TEN.length))
+        {
+            value = mantissa / POWERS_OF_TEN[-scale];
+        }
+        else
+        {
+            return Double.NaN;
+        }
+        return negative ? -value : value;
+    }
+
+    private NumberFormatException invalid(int field, String type)
+    {
+        return new NumberFormatException("Field " + field + " of " + this + " is not a valid " + type + ".");
+    }
+}
@@ -0,0 +1,396 @@
+/* %%
+ *
+ * Fast Universal Simulation Engine (FUSE)
+ *
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import org.apache.logging.log4j.*;
+
+/**
+ * A behavior whose logic is written as a plain sequential method rather than
+ * as a getNextScheduledTime/perform state machine. The process method may
+ * suspend itself by calling hold, waitFor or receive. Each process executes on
+ * its own thread, but control is handed back and forth with the universe so
+ * that exactly one process (or the universe itself) runs at any moment.
+ * Processes are therefore resumed in strict timestamp order and a simulation
+ * built from them remains fully deterministic.
+ * <p>
+ * Process threads are created by a ThreadFactory. The default factory creates
+ * daemon threads with a small stack. On a runtime which supports virtual
+ * threads, install a virtual thread factory with setDefaultThreadFactory so
+ * that very large numbers of suspended processes cost only a few KB each.
+ *
+ * @param <T> type of agent this behavior can be associated with.
+ * @author Jeff Ridder
+ */
+public abstract class ProcessBehavior<T extends IAgent> extends Behavior<T>
+{
+
+    private static final Logger logger = LogManager.getLogger(ProcessBehavior.class);
+
+    /**
+     * The stack size requested for threads created by the default factory.
+     */
+    private static final long DEFAULT_STACK_SIZE = 64 * 1024;
+
+    private static ThreadFactory default_thread_factory = new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(null, runnable, "fuse-process", DEFAULT_STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final ThreadFactory thread_factory;
+
+    private final Semaphore resume_permit = new Semaphore(0);
+    private final Semaphore yield_permit = new Semaphore(0);
+
+    private final ArrayDeque<Object> mailbox = new ArrayDeque<>();
+
+    private final ProcessCondition mail_arrived = new ProcessCondition();
+
+    private Thread thread = null;
+    private double start_delay = 0.0;
+    private double now = 0.0;
+    private double wake_time = 0.0;
+    private ProcessCondition waiting_on = null;
+    private boolean finished = false;
+    private volatile boolean terminated = false;
+    private RuntimeException failure = null;
+
+    /**
+     * Creates a process which is started at the first opportunity after the
+     * simulation start time and whose thread is created by the default thread
+     * factory.
+     */
+    public ProcessBehavior()
+    {
+        this(0.0, null);
+    }
+
+    /**
+     * Creates a process which is started the specified number of time ticks
+     * after it is first scheduled.
+     *
+     * @param start_delay time ticks to wait before starting the process.
+     * @param thread_factory factory used to create the process thread, or null
+     * for the default factory.
+     */
+    public ProcessBehavior(double start_delay, ThreadFactory thread_factory)
+    {
+        this.start_delay = start_delay;
+        this.thread_factory = thread_factory;
+    }
+
+    /**
+     * Sets the factory used to create threads for processes which do not
+     * specify their own. For example, Thread.ofVirtual().factory() on a runtime
+     * which supports virtual threads.
+     *
+     * @param thread_factory the default thread factory (non-null).
+     */
+    public static void setDefaultThreadFactory(ThreadFactory thread_factory)
+    {
+        if (thread_factory != null)
+        {
+            default_thread_factory = thread_factory;
+        }
+    }
+
+    /**
+     * The sequential logic of this process. Invoked once per simulation run on
+     * the process thread. The process ends when this method returns.
+     */
+    protected abstract void process();
+
+    /**
+     * The simulation time at which the process was most recently resumed.
+     * Only meaningful while the process is running.
+     *
+     * @return current simulation time.
+     */
+    protected double now()
+    {
+        return now;
+    }
+
+    /**
+     * Suspend the process for the specified number of time ticks. A
+     * non-positive delay resumes the process at the next representable instant.
+     *
+     * @param delta_time time ticks to hold.
+     */
+    protected void hold(double delta_time)
+    {
+        wake_time = now + delta_time;
+        suspend();
+    }
+
+    /**
+     * Suspend the process until the specified condition is next signaled. As
+     * with Object.wait, the caller should test its own predicate in a loop
+     * around this call.
+     *
+     * @param condition the condition to wait for.
+     */
+    protected void waitFor(ProcessCondition condition)
+    {
+        waiting_on = condition;
+        condition.addWaiter(this);
+        suspend();
+    }
+
+    /**
+     * Returns the oldest message sent to this process, suspending the process
+     * until one arrives if the mailbox is empty.
+     *
+     * @return message object.
+     * @see #send
+     */
+    protected Object receive()
+    {
+        while (mailbox.isEmpty())
+        {
+            waitFor(mail_arrived);
+        }
+        return mailbox.poll();
+    }
+
+    /**
+     * Deliver a message to this process. If the process is suspended in
+     * receive it will be resumed at the next representable instant.
+     *
+     * @param message message object (non-null).
+     */
+    public void send(Object message)
+    {
+        if (message != null)
+        {
+            mailbox.add(message);
+            mail_arrived.signal();
+        }
+    }
+
+    /**
+     * Returns true if the process method has returned in this simulation run.
+     *
+     * @return true if finished.
+     */
+    public boolean isFinished()
+    {
+        return finished;
+    }
+
+    @Override
+    public double getNextScheduledTime(double current_time)
+    {
+        double result;
+        if (thread == null)
+        {
+            result = current_time + start_delay;
+            if (result <= current_time)
+            {
+                result = Math.nextUp(current_time);
+            }
+        }
+        else if (finished || (waiting_on != null))
+        {
+            // Drop from the schedule.  A waiting process is re-enabled
+            // when its condition is signaled.
+            result = current_time;
+        }
+        else if (wake_time > current_time)
+        {
+            result = wake_time;
+        }
+        else
+        {
+            result = Math.nextUp(current_time);
+        }
+        return result;
+    }
+
+    @Override
+    public void perform(double current_time)
+    {
+        now = current_time;
+        if (thread == null)
+        {
+            // The process draws its random values from a stream of the
+            // universe's provider, so they follow the scenario seed.
+            Universe universe = (getAgent() != null) ? getAgent().getUniverse() : null;
+            final RandomStreams streams = (universe != null) ? universe.getRandomStreams() : null;
+            final long stream_id = (streams != null) ? streams.nextProcessStreamId() : 0;
+            thread = (thread_factory != null ? thread_factory : default_thread_factory).newThread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (streams != null)
+                    {
+                        RandomStreams.setCurrent(streams);
+                        streams.bindThread(stream_id);
+                    }
+                    try
+                    {
+                        runProcess();
+                    }
+                    finally
+                    {
+                        if (streams != null)
+                        {
+                            streams.unbindThread();
+                            RandomStreams.setCurrent(null);
+                        }
+                    }
+                }
+            });
+            thread.start();
+        }
+        else
+        {
+            resume_permit.release();
+        }
+        yield_permit.acquireUninterruptibly();
+
+        // Services the process used while it ran, such as a message
+        // service, may have new work due before their scheduled time.
+        IAgent agent = getAgent();
+        if ((agent != null) && (agent.getUniverse() != null))
+        {
+            agent.getUniverse().applyDeferredReschedules();
+        }
+
+        if (failure != null)
+        {
+            RuntimeException e = failure;
+            failure = null;
+            throw e;
+        }
+    }
+
+    @Override
+    public void reset()
+    {
+        terminate();
+        super.reset();
+        mailbox.clear();
+        now = 0.0;
+        wake_time = 0.0;
+        waiting_on = null;
+        finished = false;
+        failure = null;
+    }
+
+    /**
+     * Invoked by a signaled ProcessCondition to make this process runnable.
+     */
+    void conditionSignaled(ProcessCondition condition)
+    {
+        if (waiting_on == condition)
+        {
+            waiting_on = null;
+            wake_time = 0.0;
+            if (isEnabled())
+            {
+                // Still scheduled; force the universe to reevaluate.
+                setEnabled(false);
+            }
+            setEnabled(true);
+        }
+    }
+
+    private void runProcess()
+    {
+        try
+        {
+            process();
+        }
+        catch (ProcessTerminated e)
+        {
+            return;
+        }
+        catch (RuntimeException e)
+        {
+            failure = e;
+        }
+        catch (Error e)
+        {
+            failure = new IllegalStateException("Process " + this + " failed.", e);
+        }
+        finished = true;
+        yield_permit.release();
+    }
+
+    private void suspend()
+    {
+        yield_permit.release();
+        resume_permit.acquireUninterruptibly();
+        if (terminated)
+        {
+            throw new ProcessTerminated();
+        }
+    }
+
+    /**
+     * Unwind a suspended process thread so that a new run can start cleanly.
+     */
+    private void terminate()
+    {
+        if (thread != null)
+        {
+            if (!finished)
+            {
+                terminated = true;
+                resume_permit.release();
+                try
+                {
+                    thread.join();
+                }
+                catch (InterruptedException e)
+                {
+                    logger.warn("Interrupted while terminating process " + this + ".");
+                    Thread.currentThread().interrupt();
+                }
+            }
+            thread = null;
+            terminated = false;
+            resume_permit.drainPermits();
+            yield_permit.drainPermits();
+        }
+    }
+
+    /**
+     * Thrown on a process thread to unwind it when the process is reset.
+     */
+    private static class ProcessTerminated extends Error
+    {
+        private static final long serialVersionUID = 1L;
+
+        ProcessTerminated()
+        {
+            super(null, null, false, false);
+        }
+    }
+}
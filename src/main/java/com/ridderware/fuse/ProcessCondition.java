@@ -0,0 +1,67 @@
+/* %%
+ *
+ * Fast Universal Simulation Engine (FUSE)
+ *
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.ArrayList;
+
+/**
+ * A condition variable in simulated time. Processes suspend on a condition
+ * with ProcessBehavior.waitFor and are resumed, in the order in which they
+ * began waiting, at the next representable instant after the condition is
+ * signaled.
+ *
+ * @author Jeff Ridder
+ * @see ProcessBehavior#waitFor
+ */
+public class ProcessCondition
+{
+
+    private final ArrayList<ProcessBehavior<? extends IAgent>> waiters = new ArrayList<>();
+
+    /**
+     * Resume every process currently waiting on this condition.
+     */
+    public void signal()
+    {
+        if (!waiters.isEmpty())
+        {
+            ArrayList<ProcessBehavior<? extends IAgent>> waiting = new ArrayList<>(waiters);
+            waiters.clear();
+            for (ProcessBehavior<? extends IAgent> waiter : waiting)
+            {
+                waiter.conditionSignaled(this);
+            }
+        }
+    }
+
+    /**
+     * Get the number of processes currently waiting on this condition.
+     *
+     * @return number of waiting processes.
+     */
+    public int getWaiterCount()
+    {
+        return waiters.size();
+    }
+
+    void addWaiter(ProcessBehavior<? extends IAgent> waiter)
+    {
+        waiters.add(waiter);
+    }
+}
@@ -0,0 +1,118 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import com.ridderware.jrandom.RandomNumberGenerator;
+
+/**
+ * A small, fast, unsynchronized random number generator intended to be used
+ * by one thread at a time. Each instance is one stream of the SplitMix64
+ * generator, whose whole state is a single long, so streams are cheap to
+ * create and to re-seed. Streams are normally obtained from a RandomStreams
+ * provider rather than constructed directly.
+ *
+ * @author Jeff Ridder
+ * @see RandomStreams
+ */
+public final class RandomStream extends RandomNumberGenerator
+{
+
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    /**
+     * Creates a stream with the specified seed.
+     *
+     * @param seed seed.
+     */
+    public RandomStream(long seed)
+    {
+        this.state = seed;
+    }
+
+    /**
+     * Re-seed this stream. The values that follow are the same as those of a
+     * new stream with the specified seed.
+     *
+     * @param seed seed.
+     */
+    public void setSeed(long seed)
+    {
+        this.state = seed;
+    }
+
+    /**
+     * Returns the next pseudorandom long.
+     *
+     * @return random long.
+     */
+    public long nextLong()
+    {
+        return mix(state += GAMMA);
+    }
+
+    /**
+     * Returns a pseudorandom int in [0, bound).
+     *
+     * @param bound upper bound, which must be positive.
+     * @return random int.
+     */
+    public int nextInt(int bound)
+    {
+        if (bound <= 0)
+        {
+            throw new IllegalArgumentException("The bound must be positive.");
+        }
+        int bits = (int) (nextLong() >>> 33);
+        if ((bound & (bound - 1)) == 0)
+        {
+            return (int) ((bound * (long) bits) >>> 31);
+        }
+        int value = bits % bound;
+        while (bits - value + (bound - 1) < 0)
+        {
+            bits = (int) (nextLong() >>> 33);
+            value = bits % bound;
+        }
+        return value;
+    }
+
+    /**
+     * Returns a pseudorandom double in [0, 1).
+     *
+     * @return random double.
+     */
+    @Override
+    public double nextDouble()
+    {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * The SplitMix64 finalizer, which maps consecutive values to well mixed
+     * ones. Package scope. Also used to derive stream seeds.
+     */
+    static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
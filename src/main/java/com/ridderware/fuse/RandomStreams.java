@@ -0,0 +1,281 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A seedable provider of independent random streams. Each stream is
+ * identified by a long and its values depend only on the seed of the provider
+ * and that identifier, so a run which draws from the same streams in the same
+ * order reproduces exactly for a fixed seed, however many threads it uses.
+ * <p>
+ * Every thread draws from a stream of its own, obtained with getThreadStream,
+ * so generation is never contended. A thread which draws before it is bound
+ * is assigned a negative stream identifier, so it never shares a stream with
+ * the simulation thread or with work bound to a non-negative identifier. To
+ * be reproducible, work that runs on a pool of threads should instead bind
+ * each thread to an identifier that depends on the work, for example a
+ * partition index, with bindThread. Process threads are bound to identifiers
+ * from PROCESS_STREAMS up, assigned in the order the processes start.
+ * <p>
+ * Each universe has a provider, seeded from its replication seed and
+ * re-seeded at every reset. While the universe runs, its provider is current
+ * on the running thread, and TimeUtil and Space draw their random values from
+ * the current provider.
+ *
+ * @author Jeff Ridder
+ * @see Universe#getRandomStreams
+ */
+public final class RandomStreams
+{
+
+    /**
+     * The identifier of the stream bound to the thread which runs the
+     * simulation.
+     */
+    public static final long SIMULATION_STREAM = 0;
+
+    /**
+     * The first of the identifiers of the streams bound to process threads.
+     * It lies far above the identifiers used for population partitions.
+     */
+    public static final long PROCESS_STREAMS = 1L << 62;
+
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * The provider used by threads for which no provider has been made
+     * current.
+     */
+    private static final RandomStreams default_streams = new RandomStreams(0);
+
+    private static final ThreadLocal<RandomStreams> current = new ThreadLocal<>();
+
+    private volatile long seed;
+
+    /**
+     * Incremented by setSeed so that thread streams derived from an earlier
+     * seed are re-derived before their next use.
+     */
+    private volatile int generation = 0;
+
+    /**
+     * The next identifier to assign to a thread which has not been bound.
+     */
+    private final AtomicLong next_stream_id = new AtomicLong(-1);
+
+    /**
+     * The next identifier to assign to a process thread.
+     */
+    private final AtomicLong next_process_stream_id = new AtomicLong(PROCESS_STREAMS);
+
+    private final ThreadLocal<ThreadStream> thread_streams = new ThreadLocal<ThreadStream>()
+    {
+        @Override
+        protected ThreadStream initialValue()
+        {
+            return new ThreadStream();
+        }
+    };
+
+    /**
+     * Creates a provider with the specified seed.
+     *
+     * @param seed seed.
+     */
+    public RandomStreams(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Re-seed this provider. Every thread stream restarts from the new seed
+     * the next time it is used, and threads keep the identifiers they are
+     * bound to.
+     *
+     * @param seed seed.
+     */
+    public synchronized void setSeed(long seed)
+    {
+        this.seed = seed;
+        this.next_stream_id.set(-1);
+        this.next_process_stream_id.set(PROCESS_STREAMS);
+        this.generation++;
+    }
+
+    /**
+     * Returns the seed from which the streams of this provider are derived.
+     *
+     * @return seed.
+     */
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * Returns a new stream with the specified identifier. Streams with the
+     * same identifier from providers with the same seed produce the same
+     * values.
+     *
+     * @param stream_id the stream identifier.
+     * @return a new stream.
+     */
+    public RandomStream getStream(long stream_id)
+    {
+        return new RandomStream(streamSeed(seed, stream_id));
+    }
+
+    /**
+     * Returns the stream of the calling thread. The stream must not be shared
+     * with other threads.
+     *
+     * @return the thread's stream.
+     */
+    public RandomStream getThreadStream()
+    {
+        ThreadStream thread_stream = thread_streams.get();
+        int g = generation;
+        if (thread_stream.generation != g)
+        {
+            if (!thread_stream.bound)
+            {
+                thread_stream.stream_id = next_stream_id.getAndDecrement();
+            }
+            thread_stream.derive(seed, g);
+        }
+        return thread_stream.stream;
+    }
+
+    /**
+     * Bind the calling thread to the stream with the specified identifier.
+     * If the thread is already bound to it the stream continues where it left
+     * off, and otherwise it starts from the beginning.
+     *
+     * @param stream_id the stream identifier.
+     * @return the thread's stream.
+     */
+    public RandomStream bindThread(long stream_id)
+    {
+        ThreadStream thread_stream = thread_streams.get();
+        int g = generation;
+        if (!thread_stream.bound || (thread_stream.stream_id != stream_id) || (thread_stream.generation != g))
+        {
+            thread_stream.bound = true;
+            thread_stream.stream_id = stream_id;
+            thread_stream.derive(seed, g);
+        }
+        return thread_stream.stream;
+    }
+
+    /**
+     * Returns the identifier of the stream for the next process to start.
+     * Processes start in simulation order, so the identifiers are the same in
+     * every run with the same seed. Package scope. Only used by the simulation
+     * framework.
+     *
+     * @return stream identifier.
+     */
+    long nextProcessStreamId()
+    {
+        return next_process_stream_id.getAndIncrement();
+    }
+
+    /**
+     * Release the binding of the calling thread. The thread is assigned an
+     * identifier again when it next draws.
+     */
+    public void unbindThread()
+    {
+        thread_streams.remove();
+    }
+
+    /**
+     * Make this provider current on the calling thread and bind the thread to
+     * the simulation stream.
+     */
+    public void makeCurrent()
+    {
+        current.set(this);
+        bindThread(SIMULATION_STREAM);
+    }
+
+    /**
+     * Returns the provider current on the calling thread, or a process wide
+     * provider with seed zero if none has been made current.
+     *
+     * @return the current provider.
+     */
+    public static RandomStreams getCurrent()
+    {
+        RandomStreams streams = current.get();
+        return (streams != null) ? streams : default_streams;
+    }
+
+    /**
+     * Set the provider current on the calling thread.
+     *
+     * @param streams the provider, or null for the process wide provider.
+     */
+    public static void setCurrent(RandomStreams streams)
+    {
+        if (streams == null)
+        {
+            current.remove();
+        }
+        else
+        {
+            current.set(streams);
+        }
+    }
+
+    /**
+     * Returns the stream of the calling thread from the current provider.
+     *
+     * @return the thread's stream.
+     */
+    public static RandomStream currentStream()
+    {
+        return getCurrent().getThreadStream();
+    }
+
+    private static long streamSeed(long seed, long stream_id)
+    {
+        return RandomStream.mix(seed + (stream_id + 1) * GAMMA);
+    }
+
+    /**
+     * The stream of one thread.
+     */
+    private static final class ThreadStream
+    {
+
+        private final RandomStream stream = new RandomStream(0);
+        private long stream_id;
+        private boolean bound = false;
+        private int generation = -1;
+
+        private void derive(long seed, int generation)
+        {
+            stream.setSeed(streamSeed(seed, stream_id));
+            this.generation = generation;
+        }
+    }
+}
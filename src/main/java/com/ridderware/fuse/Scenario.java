@@ -21,6 +21,12 @@ package com.ridderware.fuse;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.logging.log4j.*;
 
 /**
@@ -65,6 +71,23 @@ public class Scenario implements IAgentFactory
      */
     private double end_time = 0.0;
 
+    /**
+     * The number of threads used to construct the partitions of
+     * IParallelAgentFactory instances.
+     */
+    private int population_threads = 1;
+
+    /**
+     * True if repeated executions should warm reset the population left in
+     * the universe by the previous execution rather than rebuilding it.
+     */
+    private boolean warm_reset = false;
+
+    /**
+     * True once this scenario has populated its universe.
+     */
+    private boolean populated = false;
+
     static
     {
         double_formatter.applyPattern("###,###,###,###,##0.000");
@@ -93,6 +116,7 @@ public class Scenario implements IAgentFactory
     public void setUniverse(Universe universe)
     {
         this.universe = universe;
+        this.populated = false;
     }
 
     /**
@@ -129,6 +153,53 @@ public class Scenario implements IAgentFactory
         this.end_time = end_time;
     }
     
+    /**
+     * Sets the number of threads used to construct the population of any
+     * IParallelAgentFactory instances in this scenario. With one thread (the
+     * default) every factory populates the universe sequentially.
+     *
+     * @param population_threads number of population threads (at least 1).
+     */
+    public void setPopulationThreads(int population_threads)
+    {
+        this.population_threads = Math.max(1, population_threads);
+    }
+
+    /**
+     * Gets the number of threads used to construct the population of any
+     * IParallelAgentFactory instances in this scenario.
+     *
+     * @return number of population threads.
+     */
+    public int getPopulationThreads()
+    {
+        return this.population_threads;
+    }
+    
+    /**
+     *  When enabled, each execution after the first reuses the agents and
+     *  behaviors already in the universe by invoking its warmResetSimulation
+     *  method, and the agent factories are not consulted again. This is
+     *  appropriate for repeated replications of the same population.
+     *
+     * @param  warm_reset true to warm reset between executions.
+     * @see                Universe#warmResetSimulation
+     */
+    public void setWarmReset(boolean warm_reset)
+    {
+        this.warm_reset = warm_reset;
+    }
+
+    /**
+     *  Returns true if repeated executions warm reset the existing population.
+     *
+     * @return    true if warm reset is enabled.
+     */
+    public boolean isWarmReset()
+    {
+        return this.warm_reset;
+    }
+
     /**
      *  Retrieve the specified user object. If the name is unknown to the scenario
      *  then the result will be null. If the value of the stored object is null
@@ -235,6 +306,107 @@ public class Scenario implements IAgentFactory
         }
     }
 
+    /**
+     * Populate the universe from each agent factory in turn. When more than one
+     * population thread is configured, the partitions of every
+     * IParallelAgentFactory are submitted to a thread pool up front and their
+     * buffers are added to the universe in factory and partition order, so the
+     * population is the same as a sequential build.
+     */
+    private void populateFromFactories() throws InterruptedException, ExecutionException
+    {
+        ExecutorService executor = null;
+        ArrayList<List<Future<ArrayList<Agent>>>> partitions = new ArrayList<>(agent_factories.size());
+        final RandomStreams streams = universe.getRandomStreams();
+        long next_stream_id = RandomStreams.SIMULATION_STREAM + 1;
+
+        try
+        {
+            for (int i = 0; i < agent_factories.size(); i++)
+            {
+                IAgentFactory agent_factory = agent_factories.get(i);
+                List<Future<ArrayList<Agent>>> futures = null;
+                if ((population_threads > 1) && (agent_factory instanceof IParallelAgentFactory))
+                {
+                    if (executor == null)
+                    {
+                        executor = Executors.newFixedThreadPool(population_threads);
+                    }
+                    final IParallelAgentFactory parallel_factory = (IParallelAgentFactory) agent_factory;
+                    int partition_count = parallel_factory.getPartitionCount();
+                    futures = new ArrayList<>(partition_count);
+                    for (int p = 0; p < partition_count; p++)
+                    {
+                        final int partition = p;
+                        final long stream_id = next_stream_id++;
+                        futures.add(executor.submit(new Callable<ArrayList<Agent>>()
+                        {
+                            @Override
+                            public ArrayList<Agent> call()
+                            {
+                                // Each partition draws from a stream of its
+                                // own, so its agents do not depend on which
+                                // thread builds it.
+                                RandomStreams.setCurrent(streams);
+                                streams.bindThread(stream_id);
+                                try
+                                {
+                                    ArrayList<Agent> buffer = new ArrayList<>();
+                                    parallel_factory.createAgents(partition, buffer);
+                                    return buffer;
+                                }
+                                finally
+                                {
+                                    streams.unbindThread();
+                                    RandomStreams.setCurrent(null);
+                                }
+                            }
+                        }));
+                    }
+                }
+                partitions.add(futures);
+            }
+
+            for (int i = 0; i < agent_factories.size(); i++)
+            {
+                IAgentFactory agent_factory = agent_factories.get(i);
+                logger.debug("  Population before [" + agent_factory.getClass().getName() + "] is " + long_formatter.format(universe.census()) + " agents.");
+                List<Future<ArrayList<Agent>>> futures = partitions.get(i);
+                if (futures == null)
+                {
+                    agent_factory.populateUniverse(universe);
+                }
+                else
+                {
+                    // Gather the partitions in order into one list, so that
+                    // the universe presizes its registries once for the whole
+                    // population. Each partition is released as it is
+                    // copied, so the agents are not held twice.
+                    int total = 0;
+                    for (int p = 0; p < futures.size(); p++)
+                    {
+                        total += futures.get(p).get().size();
+                    }
+                    ArrayList<Agent> population = new ArrayList<>(total);
+                    for (int p = 0; p < futures.size(); p++)
+                    {
+                        population.addAll(futures.get(p).get());
+                        futures.set(p, null);
+                    }
+                    universe.addAgents(population);
+                }
+                logger.debug("  Population after [" + agent_factory.getClass().getName() + "] is " + long_formatter.format(universe.census()) + " agents.");
+            }
+        }
+        finally
+        {
+            if (executor != null)
+            {
+                executor.shutdownNow();
+            }
+        }
+    }
+
     /**
      * Run the scenario.
      */
@@ -246,30 +418,37 @@ public class Scenario implements IAgentFactory
         try
         {
 
-            universe.resetSimulation(start_time, end_time);
+            if (warm_reset && populated)
+            {
+                universe.warmResetSimulation(start_time, end_time);
+                universe.getRandomStreams().makeCurrent();
+
+                logger.info("Simulation replication " + universe.getReplication() + " started at virtual time " + double_formatter.format(universe.getCurrentTime()) + ".");
+                logger.debug("  Reusing " + long_formatter.format(universe.census()) + " agents.");
+            }
+            else
+            {
+                universe.resetSimulation(start_time, end_time);
+                universe.getRandomStreams().makeCurrent();
 
-            logger.info("Simulation run started at virtual time " + double_formatter.format(universe.getCurrentTime()) + ".");
+                logger.info("Simulation run started at virtual time " + double_formatter.format(universe.getCurrentTime()) + ".");
 
-            logger.debug("Populating universe from " + agent_factories.size() + " agent factories.");
+                logger.debug("Populating universe from " + agent_factories.size() + " agent factories.");
 
-            // We are an IAgentFactory.
-            // Invoke our own populateUniverse
-            logger.debug("  Population before [" + this.getClass().getName() + "] is " + long_formatter.format(universe.census()) + " agents.");
-            populateUniverse(this.universe);
-            logger.debug("  Population after [" + this.getClass().getName() + "] is " + long_formatter.format(universe.census()) + " agents.");
+                // We are an IAgentFactory.
+                // Invoke our own populateUniverse
+                logger.debug("  Population before [" + this.getClass().getName() + "] is " + long_formatter.format(universe.census()) + " agents.");
+                populateUniverse(this.universe);
+                logger.debug("  Population after [" + this.getClass().getName() + "] is " + long_formatter.format(universe.census()) + " agents.");
 
-            // Then invoke populateUniverse
-            // on each of the additional IAgentFactory
-            // instances known to this Scenario.
-            for (int i = 0; i < agent_factories.size(); i++)
-            {
-                IAgentFactory agent_factory = (IAgentFactory) agent_factories.get(i);
-                logger.debug("  Population before [" + agent_factory.getClass().getName() + "] is " + long_formatter.format(universe.census()) + " agents.");
-                agent_factory.populateUniverse(universe);
-                logger.debug("  Population after [" + agent_factory.getClass().getName() + "] is " + long_formatter.format(universe.census()) + " agents.");
-            }
+                // Then populate the universe from each of
+                // the additional IAgentFactory instances
+                // known to this Scenario.
+                populateFromFactories();
+                populated = true;
 
-            logger.debug("  Agent factories produced " + long_formatter.format(universe.census()) + " agents.");
+                logger.debug("  Agent factories produced " + long_formatter.format(universe.census()) + " agents.");
+            }
 
             long t0 = System.currentTimeMillis();
             universe.run();
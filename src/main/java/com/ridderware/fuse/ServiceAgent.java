@@ -0,0 +1,157 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An agent which provides a service to other agents through a single,
+ * self-scheduling behavior. The service time is recomputed whenever the
+ * service calls reschedule, for example when new work arrives which is due
+ * before the work already pending. Package scope. Only used by simulation
+ * framework.
+ *
+ * @author Jeff Ridder
+ */
+abstract class ServiceAgent extends Agent
+{
+
+    private final ServiceBehavior service = new ServiceBehavior();
+
+    private boolean performing = false;
+
+    private final AtomicBoolean reschedule_requested = new AtomicBoolean();
+
+    /**
+     * ServiceAgent constructor.
+     *
+     * @param name The name of the agent.
+     */
+    ServiceAgent(String name)
+    {
+        super(name);
+        addBehavior(service);
+    }
+
+    /**
+     * The time at which the service next has work to do.
+     *
+     * @param current_time the current simulation time.
+     * @return a time later than current_time, or Double.MAX_VALUE if there is
+     * no pending work.
+     */
+    protected abstract double getNextServiceTime(double current_time);
+
+    /**
+     * Perform the work which is due at the current time.
+     *
+     * @param current_time the current simulation time.
+     */
+    protected abstract void service(double current_time);
+
+    /**
+     * Ask the universe to recompute the service time. Has no effect while the
+     * service is performing, since the universe recomputes the time afterwards
+     * in any case, or before the service has first been scheduled.
+     */
+    protected final void reschedule()
+    {
+        if (!performing && service.scheduled)
+        {
+            service.setEnabled(false);
+            service.setEnabled(true);
+        }
+    }
+
+    /**
+     * Ask for the service time to be recomputed from a thread other than the
+     * one running the simulation. The request is queued with the universe,
+     * which passes it to rescheduleRequested on the simulation thread when a
+     * process behavior next yields control or, failing that, before the next
+     * step of run or stepTo. Safe to call from any thread.
+     */
+    protected final void requestReschedule()
+    {
+        Universe universe = getUniverse();
+        if ((universe != null) && reschedule_requested.compareAndSet(false, true))
+        {
+            universe.deferReschedule(this);
+        }
+    }
+
+    /**
+     * Handle a reschedule requested by requestReschedule. Called on the thread
+     * running the simulation. By default simply reschedules.
+     */
+    protected void rescheduleRequested()
+    {
+        reschedule();
+    }
+
+    /**
+     * Invoked by the universe to apply a queued reschedule request.
+     */
+    void applyRequestedReschedule(Universe universe)
+    {
+        reschedule_requested.set(false);
+        if (getUniverse() == universe)
+        {
+            rescheduleRequested();
+        }
+    }
+
+    private final class ServiceBehavior extends Behavior<ServiceAgent>
+    {
+
+        private boolean scheduled = false;
+
+        @Override
+        public double getNextScheduledTime(double current_time)
+        {
+            return getNextServiceTime(current_time);
+        }
+
+        @Override
+        public void perform(double current_time)
+        {
+            performing = true;
+            try
+            {
+                service(current_time);
+            }
+            finally
+            {
+                performing = false;
+            }
+        }
+
+        @Override
+        public void reset()
+        {
+            super.reset();
+            scheduled = true;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "[service of " + getAgent() + "]";
+        }
+    }
+}
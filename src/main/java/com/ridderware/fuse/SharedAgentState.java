@@ -0,0 +1,111 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * A flyweight agent state shared by every agent of a class. Unlike
+ * AgentState, a shared state is not associated with any one agent: getAgent
+ * returns null and associateWithAgent does nothing. Each shared state has a
+ * small index within its SharedAgentStateSet which may be used to index
+ * per-state tables. Because the state does not identify an agent, an initial
+ * state time for a shared state should be created with
+ * StateTime(IAgent, IAgentState, double).
+ *
+ * @author Jeff Ridder
+ * @see SharedAgentStateSet
+ */
+public final class SharedAgentState implements IAgentState<IAgent>
+{
+
+    private final SharedAgentStateSet state_set;
+    private final int index;
+    private final String name;
+
+    SharedAgentState(SharedAgentStateSet state_set, int index, String name)
+    {
+        this.state_set = state_set;
+        this.index = index;
+        this.name = name;
+    }
+
+    /**
+     * Returns the index of this state within its set.
+     *
+     * @return state index.
+     */
+    public int getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Returns the set which defines this state.
+     *
+     * @return state set.
+     */
+    public SharedAgentStateSet getStateSet()
+    {
+        return state_set;
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * A shared state has no owning agent.
+     *
+     * @return null.
+     */
+    @Override
+    public IAgent getAgent()
+    {
+        return null;
+    }
+
+    /**
+     * Does nothing. A shared state is not associated with any one agent.
+     *
+     * @param agent ignored.
+     */
+    @Override
+    public void associateWithAgent(IAgent agent)
+    {
+    }
+
+    /**
+     * Describe this state as occupied by the specified agent. The text is
+     * built on each call rather than stored.
+     *
+     * @param agent the agent.
+     * @return description.
+     */
+    public String describe(IAgent agent)
+    {
+        return (agent == null) ? toString() : "[" + agent.getName() + ": " + name + "]";
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + name + "]";
+    }
+}
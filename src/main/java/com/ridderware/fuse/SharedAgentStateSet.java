@@ -0,0 +1,134 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The shared state definitions of a class of agents. Each state is defined
+ * once, typically in a static initializer, and is then used by every agent of
+ * the class. An agent in a shared state holds only a reference to the shared
+ * definition, so no per-agent state objects are created.
+ * <p>
+ * <pre>
+ * static final SharedAgentStateSet STATES = new SharedAgentStateSet("Soldier");
+ * static final SharedAgentState PATROL = STATES.define("PATROL");
+ * static final SharedAgentState ENGAGE = STATES.define("ENGAGE");
+ * </pre>
+ *
+ * @author Jeff Ridder
+ * @see SharedAgentState
+ */
+public final class SharedAgentStateSet
+{
+
+    private final String name;
+    private final ArrayList<SharedAgentState> states = new ArrayList<>();
+    private final HashMap<String, SharedAgentState> states_by_name = new HashMap<>();
+
+    /**
+     * Creates an empty set of state definitions.
+     *
+     * @param name a name for the set, usually that of the agent class.
+     */
+    public SharedAgentStateSet(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Define a state. Defining a name a second time returns the existing
+     * state.
+     *
+     * @param state_name name of the state.
+     * @return the shared state.
+     */
+    public SharedAgentState define(String state_name)
+    {
+        SharedAgentState state = states_by_name.get(state_name);
+        if (state == null)
+        {
+            state = new SharedAgentState(this, states.size(), state_name);
+            states.add(state);
+            states_by_name.put(state_name, state);
+        }
+        return state;
+    }
+
+    /**
+     * Returns the state with the specified index.
+     *
+     * @param index index of the state.
+     * @return the shared state.
+     */
+    public SharedAgentState get(int index)
+    {
+        return states.get(index);
+    }
+
+    /**
+     * Returns the state with the specified name, or null if there is none.
+     *
+     * @param state_name name of the state.
+     * @return the shared state.
+     */
+    public SharedAgentState get(String state_name)
+    {
+        return states_by_name.get(state_name);
+    }
+
+    /**
+     * Returns the number of states defined.
+     *
+     * @return number of states.
+     */
+    public int size()
+    {
+        return states.size();
+    }
+
+    /**
+     * Returns the states in index order.
+     *
+     * @return unmodifiable list of states.
+     */
+    public List<SharedAgentState> getStates()
+    {
+        return Collections.unmodifiableList(states);
+    }
+
+    /**
+     * Returns the name of this state set.
+     *
+     * @return name.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + name + ": " + states.size() + " states]";
+    }
+}
@@ -20,7 +20,8 @@ package com.ridderware.fuse;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
@@ -43,7 +44,7 @@ public class SimpleUniverse extends Universe
     /**
      * All of the agents in this Universe.
      */
-    private final LinkedHashSet<IAgent> agents = new LinkedHashSet<>(2500);
+    private LinkedHashSet<IAgent> agents = new LinkedHashSet<>(2500);
 
     /**
      *  The universe is notified when an agent is requesting a state transition.
@@ -57,7 +58,7 @@ public class SimpleUniverse extends Universe
      * Agents that have been added to the Universe but which have not yet had
      * their behaviors considered for scheduling.
      */
-    private final LinkedHashSet<IAgent> new_agents = new LinkedHashSet<>(2500);
+    private final ArrayList<IAgent> new_agents = new ArrayList<>(2500);
 
     /**
      * Behaviors which have changed since the last simulation step. Changed
@@ -70,6 +71,12 @@ public class SimpleUniverse extends Universe
      */
     private final ArrayList<IBehavior<? extends IAgent>> behaviors = new ArrayList<>(5000);
 
+    /**
+     * The behaviors of agents removed since the last step, which are dropped
+     * from the behaviors list together at the start of the next step.
+     */
+    private final HashSet<IBehavior<? extends IAgent>> removed_behaviors = new HashSet<>();
+
     /**
      * A scratch list which, during a step, contains the behaviors which should run during that step.
      */
@@ -107,6 +114,12 @@ public class SimpleUniverse extends Universe
 
         step_behavior_count = 0;
 
+        if (!removed_behaviors.isEmpty())
+        {
+            behaviors.removeAll(removed_behaviors);
+            removed_behaviors.clear();
+        }
+
         // New agents may have been added to the
         // universe since the last step (or this
         // may be the first step).  Each new
@@ -126,27 +139,33 @@ public class SimpleUniverse extends Universe
                 agent.reset();
             }
             
-            ArrayList<StateTime> initial_state_times = new ArrayList<>(new_agents.size());
-            
+            int count = new_agents.size();
+            StateTime[] initial_state_times = new StateTime[count];
+            double[] initial_times = new double[count];
+            int num_initial = 0;
+
             for (IAgent agent : new_agents)
             {
                 StateTime state_time = agent.getInitialStateTime();
                 if (state_time != null)
                 {
-                    initial_state_times.add(state_time);
+                    initial_state_times[num_initial] = state_time;
+                    initial_times[num_initial] = state_time.getTime();
+                    num_initial++;
                 }
             }
-            
-            Collections.sort(initial_state_times, new StateTime.TimeComparator());
-            
-            for (StateTime state_time : initial_state_times)
+
+            // Order the initial state times by sorting indexes on the raw
+            // time values.  Equal times keep their registration order.
+            for (int index : IndexSort.sortedIndexes(initial_times, num_initial))
             {
+                StateTime state_time = initial_state_times[index];
                 if ((state_time.getTime() >= current_time) && (state_time.getTime() <= start_time))
                 {
                     current_time = state_time.getTime();
                 }
                 IAgentState state = state_time.getState();
-                IAgent agent = state.getAgent();
+                IAgent agent = state_time.getAgent();
                 agent.transitionToState(state);
                 ++state_transition_count;
             }   
@@ -156,6 +175,13 @@ public class SimpleUniverse extends Universe
                 current_time = start_time;
             }
 
+            int num_behaviors = behaviors.size();
+            for (IAgent agent : new_agents)
+            {
+                num_behaviors += agent.getBehaviors().size();
+            }
+            behaviors.ensureCapacity(num_behaviors);
+
             for (IAgent agent : new_agents)
             {
                 Set<IBehavior<? extends IAgent>> agent_behaviors = agent.getBehaviors();
@@ -172,6 +198,11 @@ public class SimpleUniverse extends Universe
 
         }
 
+        if (fast_forward)
+        {
+            fastForward();
+        }
+
         // Build a list of indexes of schedule items
         // that are next to run.
         ready_list.clear();
@@ -218,6 +249,11 @@ public class SimpleUniverse extends Universe
                 // Execute the ready behaviors.
                 for ( IBehavior<? extends IAgent> behavior : ready_list )
                 {
+                    if (behavior.getAgent().getUniverse() != this)
+                    {
+                        // The agent was removed earlier in this step.
+                        continue;
+                    }
                     behavior.perform(current_time);
                     step_behavior_count++;
                 }
@@ -262,13 +298,51 @@ public class SimpleUniverse extends Universe
     public void addAgent(Agent agent)
     {
         super.addAgent(agent);
-        if (agent != null)
+        if ((agent != null) && agents.add(agent))
         {
-            agents.add(agent);
             new_agents.add(agent);
         }
     }
 
+    /**
+     * Remove an agent from this Universe. Its behaviors are removed from the
+     * schedule and are not performed again, even if they are due later in
+     * the current step.
+     *
+     * @param agent The agent to remove.
+     */
+    @Override
+    public void removeAgent(Agent agent)
+    {
+        if ((agent != null) && agents.remove(agent))
+        {
+            new_agents.remove(agent);
+            for (IBehavior<? extends IAgent> behavior : agent.getBehaviors())
+            {
+                removed_behaviors.add(behavior);
+                changed_behaviors.remove(behavior);
+            }
+            super.removeAgent(agent);
+        }
+    }
+
+    /**
+     * Add a collection of agents to this Universe. The agent registries are
+     * sized once for the whole collection.
+     *
+     * @param agents The agents to add.
+     */
+    @Override
+    public void addAgents(Collection<? extends Agent> agents)
+    {
+        if (agents != null)
+        {
+            this.agents = ensureAgentCapacity(this.agents, agents.size());
+            new_agents.ensureCapacity(new_agents.size() + agents.size());
+            super.addAgents(agents);
+        }
+    }
+
     /**
      * Inform the Universe that a previously disabled behavior has been enabled.
      * The behavior needs to be considered for scheduling before the next
@@ -299,6 +373,7 @@ public class SimpleUniverse extends Universe
 
         agents.clear();
         behaviors.clear();
+        removed_behaviors.clear();
         agents_with_pending_state_transitions.clear();
         new_agents.clear();
         changed_behaviors.clear();
@@ -306,6 +381,65 @@ public class SimpleUniverse extends Universe
 
     }
 
+    /**
+     * Retain the current population and clear the schedule in preparation
+     * for another replication.
+     *
+     * @param start_time
+     * @param end_time
+     * @see com.ridderware.fuse.Universe #warmResetSimulation
+     */
+    @Override
+    public void warmResetSimulation(double start_time, double end_time)
+    {
+
+        super.warmResetSimulation(start_time, end_time);
+
+        behaviors.clear();
+        removed_behaviors.clear();
+        agents_with_pending_state_transitions.clear();
+        changed_behaviors.clear();
+        ready_list.clear();
+        new_agents.clear();
+        new_agents.addAll(agents);
+
+    }
+
+    /**
+     * Account in bulk for the events of the catch-up behaviors which are
+     * scheduled before the next event of any other behavior.
+     */
+    private void fastForward()
+    {
+        double horizon = Math.nextUp(end_time);
+        for (IBehavior<? extends IAgent> behavior : behaviors)
+        {
+            if (behavior.isEnabled() && !(behavior instanceof ICatchUpBehavior))
+            {
+                horizon = Math.min(horizon, behavior.getScheduledTime());
+            }
+        }
+
+        for (IBehavior<? extends IAgent> behavior : behaviors)
+        {
+            if (behavior.isEnabled() && (behavior instanceof ICatchUpBehavior) && (behavior.getScheduledTime() < horizon))
+            {
+                elided_event_count += ((ICatchUpBehavior<?>) behavior).catchUp(behavior.getScheduledTime(), horizon);
+                double caught_up_time = Math.nextDown(horizon);
+                double next_time = behavior.getNextScheduledTime(caught_up_time);
+                if (next_time > caught_up_time)
+                {
+                    behavior.setScheduledTime(next_time);
+                }
+                else
+                {
+                    behavior.setEnabled(false);
+                    behavior.setScheduledTime(Double.MAX_VALUE);
+                }
+            }
+        }
+    }
+
     private void updateScheduledTime(IBehavior behavior)
     {
         double scheduled_time = Double.MAX_VALUE;
@@ -20,12 +20,9 @@ package com.ridderware.fuse;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.Iterator;
-
-import java.util.PriorityQueue;
 import java.util.Set;
 import org.apache.logging.log4j.*;
 
@@ -44,7 +41,7 @@ public class SimplerUniverse extends Universe
     /**
      *  All of the agents in this Universe.
      */
-    private final LinkedHashSet<IAgent> agents = new LinkedHashSet<>(2500);
+    private LinkedHashSet<IAgent> agents = new LinkedHashSet<>(2500);
     /**
      *  The universe is notified when an agent is requesting a state transition.
      *  The list of agents with pending state transitions grows during a time step
@@ -57,8 +54,7 @@ public class SimplerUniverse extends Universe
      *  Agents that have been added to the Universe but which have not yet had
      *  their behaviors considered for scheduling.
      */
-    private final LinkedHashSet<IAgent> new_agents = new LinkedHashSet<>(
-            2500);
+    private final ArrayList<IAgent> new_agents = new ArrayList<>(2500);
     /**
      *  Behaviors that have been enabled that will be reevaluated prior to the next simulation step.
      */
@@ -67,17 +63,7 @@ public class SimplerUniverse extends Universe
     /**
      *  All of the behaviors in this universe.
      */
-    private final PriorityQueue<IBehavior<? extends IAgent>> behaviors = new PriorityQueue<>(
-            100,
-            new Comparator<IBehavior<? extends IAgent>>()
-            {
-
-                @Override
-                public int compare(IBehavior o1, IBehavior o2)
-                {
-                    return Double.compare(o1.getScheduledTime(), o2.getScheduledTime());
-                }
-            });
+    private final BehaviorQueue behaviors = new BehaviorQueue(100);
     
 
     static
@@ -143,27 +129,33 @@ public class SimplerUniverse extends Universe
                 agent.reset();
             }
 
-            ArrayList<StateTime> initial_state_times = new ArrayList<>(new_agents.size());
+            int count = new_agents.size();
+            StateTime[] initial_state_times = new StateTime[count];
+            double[] initial_times = new double[count];
+            int num_initial = 0;
 
             for (IAgent agent : new_agents)
             {
                 StateTime state_time = agent.getInitialStateTime();
                 if (state_time != null)
                 {
-                    initial_state_times.add(state_time);
+                    initial_state_times[num_initial] = state_time;
+                    initial_times[num_initial] = state_time.getTime();
+                    num_initial++;
                 }
             }
 
-            Collections.sort(initial_state_times, new StateTime.TimeComparator());
-
-            for (StateTime state_time : initial_state_times)
+            // Order the initial state times by sorting indexes on the raw
+            // time values.  Equal times keep their registration order.
+            for (int index : IndexSort.sortedIndexes(initial_times, num_initial))
             {
+                StateTime state_time = initial_state_times[index];
                 if ((state_time.getTime() >= current_time) && (state_time.getTime() <= start_time))
                 {
                     current_time = state_time.getTime();
                 }
                 IAgentState state = state_time.getState();
-                IAgent agent = state.getAgent();
+                IAgent agent = state_time.getAgent();
                 agent.transitionToState(state);
                 ++state_transition_count;
             }
@@ -173,6 +165,9 @@ public class SimplerUniverse extends Universe
                 current_time = start_time;
             }
 
+            // Gather the enabled behaviors so that they can be added to
+            // the queue with a single linear time heapify.
+            ArrayList<IBehavior<? extends IAgent>> scheduled = new ArrayList<>(count);
             for (IAgent agent : new_agents)
             {  
                 Set<IBehavior<? extends IAgent>> agent_behaviors = agent.getBehaviors();
@@ -184,10 +179,11 @@ public class SimplerUniverse extends Universe
                     updateScheduledTime(behavior, current_time);
                     if(behavior.isEnabled())
                     {
-                        behaviors.add(behavior);
+                        scheduled.add(behavior);
                     }
                 }                    
             }
+            behaviors.addAll(scheduled);
 
             new_agents.clear();
 
@@ -216,13 +212,21 @@ public class SimplerUniverse extends Universe
                 int numBehaviorsExecuted = 0;
                 do
                 {
-                    final IBehavior toExecute = behaviors.remove();
+                    final IBehavior toExecute = behaviors.poll();
                     toExecute.perform(current_time);
-                    updateScheduledTime(toExecute, current_time);
-                    behaviors.add(toExecute);
+                    // A behavior re-enabled while performing is
+                    // rescheduled with the other recently enabled ones.
+                    if (recentlyEnabledBehaviors.isEmpty() || !recentlyEnabledBehaviors.contains(toExecute))
+                    {
+                        updateScheduledTime(toExecute, current_time);
+                        if (toExecute.isEnabled())
+                        {
+                            behaviors.add(toExecute);
+                        }
+                    }
                     numBehaviorsExecuted++;
                 }
-                while (behaviors.peek().getScheduledTime() == current_time);
+                while (!behaviors.isEmpty() && behaviors.peek().getScheduledTime() == current_time);
 
                 step_behavior_count += numBehaviorsExecuted;
 
@@ -242,12 +246,21 @@ public class SimplerUniverse extends Universe
 
                 if (!recentlyEnabledBehaviors.isEmpty())
                 {
-                    for (IBehavior reschedule : recentlyEnabledBehaviors)
+                    IBehavior[] enabled = recentlyEnabledBehaviors.toArray(new IBehavior[recentlyEnabledBehaviors.size()]);
+                    recentlyEnabledBehaviors.clear();
+                    for (IBehavior reschedule : enabled)
                     {
+                        if (behaviors.contains(reschedule))
+                        {
+                            // Enabled before it was first scheduled.
+                            continue;
+                        }
                         updateScheduledTime(reschedule, current_time);
+                        if (reschedule.isEnabled())
+                        {
+                            behaviors.add(reschedule);
+                        }
                     }
-                    behaviors.addAll(recentlyEnabledBehaviors);
-                    recentlyEnabledBehaviors.clear();
                 }
             }
 
@@ -267,13 +280,52 @@ public class SimplerUniverse extends Universe
     public void addAgent(Agent agent)
     {
         super.addAgent(agent);
-        if (agent != null)
+        if ((agent != null) && agents.add(agent))
         {
-            agents.add(agent);
             new_agents.add(agent);
         }
     }
 
+    /**
+     *  Remove an agent from this Universe. Its behaviors are removed from the
+     *  schedule.
+     *
+     * @param  agent  The agent to remove.
+     */
+    @Override
+    public void removeAgent(Agent agent)
+    {
+        if ((agent != null) && agents.remove(agent))
+        {
+            new_agents.remove(agent);
+            for (IBehavior<? extends IAgent> behavior : agent.getBehaviors())
+            {
+                if (!behaviors.remove(behavior))
+                {
+                    recentlyEnabledBehaviors.remove(behavior);
+                }
+            }
+            super.removeAgent(agent);
+        }
+    }
+
+    /**
+     *  Add a collection of agents to this Universe. The agent registries are
+     * sized once for the whole collection.
+     *
+     * @param agents The agents to add.
+     */
+    @Override
+    public void addAgents(Collection<? extends Agent> agents)
+    {
+        if (agents != null)
+        {
+            this.agents = ensureAgentCapacity(this.agents, agents.size());
+            new_agents.ensureCapacity(new_agents.size() + agents.size());
+            super.addAgents(agents);
+        }
+    }
+
     /**
      *  Inform the Universe that a previously disabled behavior has been enabled or vice-versa.
      *  The behavior needs to be considered for scheduling before the next
@@ -297,6 +349,38 @@ public class SimplerUniverse extends Universe
         }
     }
 
+    /**
+     *  Inform the Universe that a group of behaviors has been enabled or
+     *  disabled together. The disabled behaviors are removed from the queue in
+     *  one operation, which rebuilds the heap when the group is large.
+     *
+     * @param  changed  The behaviors which have changed.
+     */
+    @Override
+    public final void behaviorsChanged(final Collection<? extends Behavior> changed)
+    {
+        ArrayList<Behavior> disabled = new ArrayList<>(changed.size());
+        for (Behavior behavior : changed)
+        {
+            if (behavior.isEnabled())
+            {
+                recentlyEnabledBehaviors.add(behavior);
+            }
+            else if (behaviors.contains(behavior))
+            {
+                disabled.add(behavior);
+            }
+            else
+            {
+                recentlyEnabledBehaviors.remove(behavior);
+            }
+        }
+        if (!disabled.isEmpty())
+        {
+            behaviors.removeAll(disabled);
+        }
+    }
+
     private static void updateScheduledTime(IBehavior behavior, double current_time)
     {
         double scheduled_time = Double.MAX_VALUE;
@@ -337,6 +421,28 @@ public class SimplerUniverse extends Universe
 
     }
 
+    /**
+     *  Retain the current population and clear the schedule in preparation
+     *  for another replication.
+     *
+     * @param  start_time
+     * @param  end_time
+     * @see                com.ridderware.fuse.Universe#warmResetSimulation
+     */
+    @Override
+    public void warmResetSimulation(double start_time, double end_time)
+    {
+
+        super.warmResetSimulation(start_time, end_time);
+
+        behaviors.clear();
+        agents_with_pending_state_transitions.clear();
+        recentlyEnabledBehaviors.clear();
+        new_agents.clear();
+        new_agents.addAll(agents);
+
+    }
+
     /**
      *  Inform the Universe that an agent has made a state transition request.
      *
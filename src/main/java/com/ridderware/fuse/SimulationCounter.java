@@ -0,0 +1,149 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.Arrays;
+
+/**
+ * A named integer counter maintained by a Universe. Counters are updated
+ * explicitly by agents and behaviors, or, for state counters, by the universe
+ * as agents change state. Each update re-evaluates only the watchpoints which
+ * use the counter as an input. Counters are set to zero whenever the
+ * simulation is reset.
+ *
+ * @author Jeff Ridder
+ * @see Universe#getCounter
+ * @see Universe#getStateCounter
+ * @see Watchpoint
+ */
+public final class SimulationCounter
+{
+
+    private static final Watchpoint[] NO_WATCHPOINTS = new Watchpoint[0];
+
+    private final String name;
+    private long value = 0;
+    private Watchpoint[] watchpoints = NO_WATCHPOINTS;
+
+    /**
+     * Creates a counter. Counters are obtained from a Universe.
+     *
+     * @param name counter name.
+     */
+    SimulationCounter(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * The name of this counter.
+     *
+     * @return counter name.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * The current value of this counter.
+     *
+     * @return counter value.
+     */
+    public long get()
+    {
+        return value;
+    }
+
+    /**
+     * Add one to the counter.
+     */
+    public void increment()
+    {
+        add(1);
+    }
+
+    /**
+     * Subtract one from the counter.
+     */
+    public void decrement()
+    {
+        add(-1);
+    }
+
+    /**
+     * Add the specified amount to the counter.
+     *
+     * @param delta amount to add.
+     */
+    public void add(long delta)
+    {
+        if (delta != 0)
+        {
+            value += delta;
+            changed();
+        }
+    }
+
+    /**
+     * Set the counter to the specified value.
+     *
+     * @param value new value.
+     */
+    public void set(long value)
+    {
+        if (value != this.value)
+        {
+            this.value = value;
+            changed();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + name + " = " + value + "]";
+    }
+
+    /**
+     * Register a watchpoint to be evaluated whenever the counter changes.
+     */
+    void addWatchpoint(Watchpoint watchpoint)
+    {
+        watchpoints = Arrays.copyOf(watchpoints, watchpoints.length + 1);
+        watchpoints[watchpoints.length - 1] = watchpoint;
+    }
+
+    /**
+     * Set the counter to zero without evaluating its watchpoints.
+     */
+    void reset()
+    {
+        value = 0;
+    }
+
+    private void changed()
+    {
+        Watchpoint[] current = watchpoints;
+        for (int i = 0; i < current.length; i++)
+        {
+            current[i].evaluate();
+        }
+    }
+}
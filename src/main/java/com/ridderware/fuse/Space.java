@@ -20,6 +20,7 @@
 package com.ridderware.fuse;
 
 import com.ridderware.jrandom.MersenneTwisterFast;
+import com.ridderware.jrandom.RandomNumberGenerator;
 import java.awt.geom.Rectangle2D;
 import java.util.Collection;
 import java.util.HashSet;
@@ -75,10 +76,30 @@ public abstract class Space implements java.io.Serializable
     private double zmax;
     
     /**
-     * The random number generator available to be used by all subclasses.
+     * An optional index of the positions of the agents in this space.
      */
+    private transient ISpatialIndex<Agent> spatial_index = null;
+    
+    /**
+     * The random number generator formerly used by all subclasses.
+     * @deprecated Space no longer draws from this generator. Use getRandom,
+     * which returns the calling thread's stream of the current RandomStreams
+     * provider, seeded by the universe.
+     */
+    @Deprecated
     protected MersenneTwisterFast random = new MersenneTwisterFast();
     
+    /**
+     * Returns the random number generator available to be used by all
+     * subclasses, which is the calling thread's stream of the current
+     * RandomStreams provider. It must not be shared with other threads.
+     * @return the random number generator
+     */
+    protected RandomNumberGenerator getRandom()
+    {
+        return RandomStreams.currentStream();
+    }
+    
     /**
      * The default no-args, no-effects constructor.
      * Typically not used by the programmer.
@@ -169,6 +190,26 @@ public abstract class Space implements java.io.Serializable
         setZmax(zmax);
     }
     
+    /**
+     * Returns the index of the positions of the agents in this space, or null
+     * if none has been installed. Agents are responsible for inserting
+     * themselves and reporting their moves to it.
+     * @return the spatial index
+     */
+    public ISpatialIndex<Agent> getSpatialIndex()
+    {
+        return spatial_index;
+    }
+    
+    /**
+     * Installs an index of the positions of the agents in this space.
+     * @param spatial_index the spatial index
+     */
+    public void setSpatialIndex(ISpatialIndex<Agent> spatial_index)
+    {
+        this.spatial_index = spatial_index;
+    }
+    
     /**
      * Returns the bounds of this space in the cartesian coordinate system.
      * Used primarily for drawing / scaling purposes.
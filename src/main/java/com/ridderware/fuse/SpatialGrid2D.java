@@ -0,0 +1,451 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.Arrays;
+
+/**
+ * A spatial index which hashes items into a uniform grid of square cells over
+ * the x-y extent of a two dimensional space. Each cell holds a list of the
+ * items within it, linked through arrays indexed by handle, so that inserting,
+ * removing and moving an item take constant time and moving an item within its
+ * cell only updates its coordinates. A range query examines only the cells
+ * which overlap the range, and a nearest neighbor query examines rings of cells
+ * outward from the query point until no nearer item can remain.
+ * <p>
+ * Items outside the grid are held in the nearest edge cell, so queries remain
+ * exact, although an index whose items stray far outside its bounds degrades.
+ * A cell size near the typical query range performs well.
+ *
+ * @author Jeff Ridder
+ * @param <T> the type of the indexed items.
+ * @see Cartesian2DSpace#createSpatialGrid
+ */
+public class SpatialGrid2D<T> implements ISpatialIndex<T>
+{
+
+    private final double xmin;
+    private final double ymin;
+    private final double cell_size;
+    private final double inverse_cell_size;
+    private final int columns;
+    private final int rows;
+
+    /**
+     * The first item of each cell, or -1 if it is empty.
+     */
+    private final int[] cell_heads;
+
+    /**
+     * Per handle. The cell of a free handle is -1, and its next is the next
+     * free handle.
+     */
+    private double[] xs;
+    private double[] ys;
+    private double[] zs;
+    private Object[] items;
+    private int[] cells;
+    private int[] next;
+    private int[] previous;
+
+    private int high_water = 0;
+    private int free_head = -1;
+    private int count = 0;
+
+    /**
+     * Creates a grid over the specified extent.
+     *
+     * @param xmin minimum x.
+     * @param xmax maximum x.
+     * @param ymin minimum y.
+     * @param ymax maximum y.
+     * @param cell_size the width and height of a cell.
+     */
+    public SpatialGrid2D(double xmin, double xmax, double ymin, double ymax, double cell_size)
+    {
+        if (!(cell_size > 0) || !(xmax >= xmin) || !(ymax >= ymin))
+        {
+            throw new IllegalArgumentException("The extent must be non-empty and the cell size positive.");
+        }
+        long c = Math.max(1, (long) Math.ceil((xmax - xmin) / cell_size));
+        long r = Math.max(1, (long) Math.ceil((ymax - ymin) / cell_size));
+        if (c * r > Integer.MAX_VALUE - 8)
+        {
+            throw new IllegalArgumentException("Too many cells: " + c + " x " + r + ".");
+        }
+        this.xmin = xmin;
+        this.ymin = ymin;
+        this.cell_size = cell_size;
+        this.inverse_cell_size = 1.0 / cell_size;
+        this.columns = (int) c;
+        this.rows = (int) r;
+        this.cell_heads = new int[columns * rows];
+        Arrays.fill(cell_heads, -1);
+        allocate(64);
+    }
+
+    /**
+     * Returns the length of the side of a cell.
+     *
+     * @return cell size.
+     */
+    public double getCellSize()
+    {
+        return cell_size;
+    }
+
+    /**
+     * Returns the number of cells along the x axis.
+     *
+     * @return number of columns.
+     */
+    public int getColumns()
+    {
+        return columns;
+    }
+
+    /**
+     * Returns the number of cells along the y axis.
+     *
+     * @return number of rows.
+     */
+    public int getRows()
+    {
+        return rows;
+    }
+
+    @Override
+    public int size()
+    {
+        return count;
+    }
+
+    @Override
+    public int insert(T item, double x, double y, double z)
+    {
+        int handle;
+        if (free_head >= 0)
+        {
+            handle = free_head;
+            free_head = next[handle];
+        }
+        else
+        {
+            if (high_water == items.length)
+            {
+                allocate(items.length * 2);
+            }
+            handle = high_water++;
+        }
+        items[handle] = item;
+        xs[handle] = x;
+        ys[handle] = y;
+        zs[handle] = z;
+        link(handle, cellOf(x, y));
+        count++;
+        return handle;
+    }
+
+    @Override
+    public void move(int handle, double x, double y, double z)
+    {
+        checkHandle(handle);
+        xs[handle] = x;
+        ys[handle] = y;
+        zs[handle] = z;
+        int cell = cellOf(x, y);
+        if (cell != cells[handle])
+        {
+            unlink(handle);
+            link(handle, cell);
+        }
+    }
+
+    @Override
+    public void remove(int handle)
+    {
+        checkHandle(handle);
+        unlink(handle);
+        items[handle] = null;
+        cells[handle] = -1;
+        next[handle] = free_head;
+        free_head = handle;
+        count--;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int handle)
+    {
+        return ((handle >= 0) && (handle < high_water)) ? (T) items[handle] : null;
+    }
+
+    /**
+     * Returns the x coordinate of the item with the specified handle.
+     *
+     * @param handle the handle of the item.
+     * @return x coordinate.
+     */
+    public double getX(int handle)
+    {
+        return xs[handle];
+    }
+
+    /**
+     * Returns the y coordinate of the item with the specified handle.
+     *
+     * @param handle the handle of the item.
+     * @return y coordinate.
+     */
+    public double getY(int handle)
+    {
+        return ys[handle];
+    }
+
+    /**
+     * Returns the z coordinate of the item with the specified handle.
+     *
+     * @param handle the handle of the item.
+     * @return z coordinate.
+     */
+    public double getZ(int handle)
+    {
+        return zs[handle];
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill(cell_heads, -1);
+        Arrays.fill(items, 0, high_water, null);
+        high_water = 0;
+        free_head = -1;
+        count = 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean forEachWithin(double x, double y, double z, double range, ISpatialVisitor<? super T> visitor)
+    {
+        if ((count == 0) || !(range >= 0))
+        {
+            return true;
+        }
+        double range_sq = range * range;
+        int c0 = column(x - range);
+        int c1 = column(x + range);
+        int r0 = row(y - range);
+        int r1 = row(y + range);
+        for (int r = r0; r <= r1; r++)
+        {
+            for (int c = c0; c <= c1; c++)
+            {
+                for (int h = cell_heads[r * columns + c]; h >= 0; h = next[h])
+                {
+                    double dx = xs[h] - x;
+                    double dy = ys[h] - y;
+                    double dz = zs[h] - z;
+                    double d2 = dx * dx + dy * dy + dz * dz;
+                    if ((d2 <= range_sq) && !visitor.visit((T) items[h], d2))
+                    {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void collectNearest(double x, double y, double z, double max_range, NeighborBuffer<? super T> buffer)
+    {
+        if ((count == 0) || !(max_range >= 0))
+        {
+            return;
+        }
+        double max_range_sq = max_range * max_range;
+        int qc = column(x);
+        int qr = row(y);
+        for (int ring = 0; ; ring++)
+        {
+            int c0 = qc - ring;
+            int c1 = qc + ring;
+            int r0 = qr - ring;
+            int r1 = qr + ring;
+            if (r0 >= 0)
+            {
+                offerRow(r0, c0, c1, x, y, z, max_range_sq, buffer);
+            }
+            if ((r1 < rows) && (ring > 0))
+            {
+                offerRow(r1, c0, c1, x, y, z, max_range_sq, buffer);
+            }
+            if (c0 >= 0)
+            {
+                offerColumn(c0, r0 + 1, r1 - 1, x, y, z, max_range_sq, buffer);
+            }
+            if ((c1 < columns) && (ring > 0))
+            {
+                offerColumn(c1, r0 + 1, r1 - 1, x, y, z, max_range_sq, buffer);
+            }
+
+            // The nearest any unexamined cell can be.
+            double bound = Double.POSITIVE_INFINITY;
+            if (c0 > 0)
+            {
+                bound = Math.min(bound, x - (xmin + c0 * cell_size));
+            }
+            if (c1 < columns - 1)
+            {
+                bound = Math.min(bound, (xmin + (c1 + 1) * cell_size) - x);
+            }
+            if (r0 > 0)
+            {
+                bound = Math.min(bound, y - (ymin + r0 * cell_size));
+            }
+            if (r1 < rows - 1)
+            {
+                bound = Math.min(bound, (ymin + (r1 + 1) * cell_size) - y);
+            }
+            if ((bound == Double.POSITIVE_INFINITY) || (bound > max_range))
+            {
+                return;
+            }
+            if ((bound > 0) && (bound * bound >= buffer.getWorstDistanceSq()))
+            {
+                return;
+            }
+        }
+    }
+
+    private void offerRow(int r, int c0, int c1, double x, double y, double z, double max_range_sq, NeighborBuffer<? super T> buffer)
+    {
+        int first = r * columns + Math.max(c0, 0);
+        int last = r * columns + Math.min(c1, columns - 1);
+        for (int cell = first; cell <= last; cell++)
+        {
+            offerCell(cell, x, y, z, max_range_sq, buffer);
+        }
+    }
+
+    private void offerColumn(int c, int r0, int r1, double x, double y, double z, double max_range_sq, NeighborBuffer<? super T> buffer)
+    {
+        int last = Math.min(r1, rows - 1);
+        for (int r = Math.max(r0, 0); r <= last; r++)
+        {
+            offerCell(r * columns + c, x, y, z, max_range_sq, buffer);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void offerCell(int cell, double x, double y, double z, double max_range_sq, NeighborBuffer<? super T> buffer)
+    {
+        for (int h = cell_heads[cell]; h >= 0; h = next[h])
+        {
+            double dx = xs[h] - x;
+            double dy = ys[h] - y;
+            double dz = zs[h] - z;
+            double d2 = dx * dx + dy * dy + dz * dz;
+            if ((d2 <= max_range_sq) && (d2 < buffer.getWorstDistanceSq()))
+            {
+                buffer.offer((T) items[h], d2);
+            }
+        }
+    }
+
+    private int column(double x)
+    {
+        int c = (int) ((x - xmin) * inverse_cell_size);
+        return (c < 0) ? 0 : ((c >= columns) ? columns - 1 : c);
+    }
+
+    private int row(double y)
+    {
+        int r = (int) ((y - ymin) * inverse_cell_size);
+        return (r < 0) ? 0 : ((r >= rows) ? rows - 1 : r);
+    }
+
+    private int cellOf(double x, double y)
+    {
+        return row(y) * columns + column(x);
+    }
+
+    private void link(int handle, int cell)
+    {
+        int head = cell_heads[cell];
+        cells[handle] = cell;
+        previous[handle] = -1;
+        next[handle] = head;
+        if (head >= 0)
+        {
+            previous[head] = handle;
+        }
+        cell_heads[cell] = handle;
+    }
+
+    private void unlink(int handle)
+    {
+        int p = previous[handle];
+        int n = next[handle];
+        if (p >= 0)
+        {
+            next[p] = n;
+        }
+        else
+        {
+            cell_heads[cells[handle]] = n;
+        }
+        if (n >= 0)
+        {
+            previous[n] = p;
+        }
+    }
+
+    private void checkHandle(int handle)
+    {
+        if ((handle < 0) || (handle >= high_water) || (cells[handle] < 0))
+        {
+            throw new IllegalArgumentException("No item has handle " + handle + ".");
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        if (items == null)
+        {
+            xs = new double[capacity];
+            ys = new double[capacity];
+            zs = new double[capacity];
+            items = new Object[capacity];
+            cells = new int[capacity];
+            next = new int[capacity];
+            previous = new int[capacity];
+        }
+        else
+        {
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+            items = Arrays.copyOf(items, capacity);
+            cells = Arrays.copyOf(cells, capacity);
+            next = Arrays.copyOf(next, capacity);
+            previous = Arrays.copyOf(previous, capacity);
+        }
+    }
+}
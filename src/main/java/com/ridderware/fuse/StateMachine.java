@@ -0,0 +1,420 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.HashMap;
+
+/**
+ * A compiled hierarchical state machine. A state machine is built once, with
+ * a StateMachineBuilder, and shared by every agent of a class. Its states are
+ * shared too, so an agent holds nothing but a reference to its current state.
+ * <p>
+ * Events are identified by dense integer ids. The transitions which may handle
+ * an event in a given state, including those inherited from the enclosing
+ * states, are compiled into a table indexed by state id and event id, so that
+ * dispatching an event is an array lookup followed by the evaluation of any
+ * guards in declaration order.
+ *
+ * @param <T> type of agent the state machine drives.
+ * @author Jeff Ridder
+ * @see StateMachineBuilder
+ * @see StateMachineAgent
+ */
+public final class StateMachine<T extends StateMachineAgent>
+{
+
+    /**
+     * A state of a compiled state machine. States are shared by all of the
+     * agents driven by the machine and so are not associated with any one
+     * agent.
+     */
+    public static final class State implements IAgentState<IAgent>
+    {
+
+        private final StateMachine<?> machine;
+        private final int id;
+        private final String name;
+        private State parent = null;
+        private int depth = 0;
+        private final String description;
+
+        State(StateMachine<?> machine, int id, String name)
+        {
+            this.machine = machine;
+            this.id = id;
+            this.name = name;
+            this.description = "[" + machine.getName() + "." + name + "]";
+        }
+
+        /**
+         * The dense index of this state within its machine.
+         *
+         * @return state id.
+         */
+        public int getId()
+        {
+            return id;
+        }
+
+        @Override
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * The enclosing state, or null for a top level state.
+         *
+         * @return parent state.
+         */
+        public State getParent()
+        {
+            return parent;
+        }
+
+        /**
+         * The machine to which this state belongs.
+         *
+         * @return state machine.
+         */
+        public StateMachine<?> getMachine()
+        {
+            return machine;
+        }
+
+        /**
+         * Returns true if this state is the specified state or one of its
+         * substates, at any depth.
+         *
+         * @param state the enclosing state.
+         * @return true if this state is within the specified state.
+         */
+        public boolean isWithin(State state)
+        {
+            if ((state == null) || (state.depth > depth))
+            {
+                return false;
+            }
+            State s = this;
+            while (s.depth > state.depth)
+            {
+                s = s.parent;
+            }
+            return s == state;
+        }
+
+        /**
+         * Shared states belong to no single agent.
+         *
+         * @return null.
+         */
+        @Override
+        public IAgent getAgent()
+        {
+            return null;
+        }
+
+        /**
+         * Shared states are not associated with agents. Does nothing.
+         *
+         * @param agent ignored.
+         */
+        @Override
+        public void associateWithAgent(IAgent agent)
+        {
+        }
+
+        @Override
+        public String toString()
+        {
+            return description;
+        }
+    }
+
+    private final String name;
+    private State[] states;
+    private State initial_state;
+    private final HashMap<String, State> states_by_name = new HashMap<>();
+
+    private final String[] event_names;
+    private final HashMap<String, Integer> event_ids = new HashMap<>();
+
+    /**
+     * The candidate transitions for state s and event e are those from
+     * first[s * event_count + e] up to first[s * event_count + e + 1].
+     */
+    private int[] first;
+    private State[] targets;
+    private State[] boundaries;
+    private IStateGuard[] guards;
+    private IStateAction[] actions;
+
+    private IStateAction[] entry_actions;
+    private IStateAction[] exit_actions;
+
+    /**
+     * Creates an empty machine. Completed by StateMachineBuilder.
+     */
+    StateMachine(String name, String[] event_names)
+    {
+        this.name = name;
+        this.event_names = event_names.clone();
+        for (int i = 0; i < event_names.length; i++)
+        {
+            event_ids.put(event_names[i], i);
+        }
+    }
+
+    /**
+     * The name of this state machine.
+     *
+     * @return name.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * The number of states.
+     *
+     * @return state count.
+     */
+    public int getStateCount()
+    {
+        return states.length;
+    }
+
+    /**
+     * Returns the state with the specified id.
+     *
+     * @param id state id.
+     * @return the state.
+     */
+    public State getState(int id)
+    {
+        return states[id];
+    }
+
+    /**
+     * Returns the state with the specified name.
+     *
+     * @param name state name.
+     * @return the state, or null if there is no such state.
+     */
+    public State getState(String name)
+    {
+        return states_by_name.get(name);
+    }
+
+    /**
+     * The state, always a leaf, which an agent enters when it starts.
+     *
+     * @return initial state.
+     */
+    public State getInitialState()
+    {
+        return initial_state;
+    }
+
+    /**
+     * The number of events.
+     *
+     * @return event count.
+     */
+    public int getEventCount()
+    {
+        return event_names.length;
+    }
+
+    /**
+     * Returns the id of the named event. Look event ids up once and keep them
+     * rather than firing events by name.
+     *
+     * @param event event name.
+     * @return event id.
+     */
+    public int getEventId(String event)
+    {
+        Integer id = event_ids.get(event);
+        if (id == null)
+        {
+            throw new IllegalArgumentException("Unknown event " + event + " in " + this + ".");
+        }
+        return id;
+    }
+
+    /**
+     * Returns the name of the event with the specified id.
+     *
+     * @param event event id.
+     * @return event name.
+     */
+    public String getEventName(int event)
+    {
+        return event_names[event];
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + name + "]";
+    }
+
+    /**
+     * Install the compiled tables.
+     */
+    void compile(State[] states, State initial_state, int[] first, State[] targets,
+            State[] boundaries, IStateGuard[] guards, IStateAction[] actions,
+            IStateAction[] entry_actions, IStateAction[] exit_actions)
+    {
+        this.states = states;
+        this.initial_state = initial_state;
+        this.first = first;
+        this.targets = targets;
+        this.boundaries = boundaries;
+        this.guards = guards;
+        this.actions = actions;
+        this.entry_actions = entry_actions;
+        this.exit_actions = exit_actions;
+        for (State state : states)
+        {
+            states_by_name.put(state.name, state);
+        }
+    }
+
+    /**
+     * Sets the parent of a state during compilation.
+     */
+    static void setParent(State state, State parent)
+    {
+        state.parent = parent;
+        state.depth = (parent == null) ? 0 : parent.depth + 1;
+    }
+
+    /**
+     * Returns the index of the first transition for the event in the state
+     * whose guard accepts, or -1 if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    int select(StateMachineAgent agent, State state, int event)
+    {
+        if ((event < 0) || (event >= event_names.length))
+        {
+            throw new IllegalArgumentException("Unknown event " + event + " in " + this + ".");
+        }
+        int index = state.id * event_names.length + event;
+        for (int t = first[index], end = first[index + 1]; t < end; t++)
+        {
+            if ((guards[t] == null) || guards[t].accept(agent))
+            {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The leaf state entered by the transition, or null for an internal
+     * transition.
+     */
+    State getTarget(int transition)
+    {
+        return targets[transition];
+    }
+
+    /**
+     * The innermost state which the transition neither exits nor enters, or
+     * null if it exits and enters top level states. It is computed from the
+     * states on which the transition was declared, not from the leaf states,
+     * and lies above the declared source.
+     */
+    State getBoundary(int transition)
+    {
+        return boundaries[transition];
+    }
+
+    @SuppressWarnings("unchecked")
+    void executeAction(int transition, StateMachineAgent agent)
+    {
+        if (actions[transition] != null)
+        {
+            actions[transition].execute(agent);
+        }
+    }
+
+    /**
+     * Execute the exit actions of the state and its ancestors, innermost
+     * first, up to but not including the specified ancestor.
+     */
+    @SuppressWarnings("unchecked")
+    void exit(State state, State ancestor, StateMachineAgent agent)
+    {
+        for (State s = state; (s != null) && (s != ancestor); s = s.parent)
+        {
+            if (exit_actions[s.id] != null)
+            {
+                exit_actions[s.id].execute(agent);
+            }
+        }
+    }
+
+    /**
+     * Execute the entry actions of the state and its ancestors, outermost
+     * first, below the specified ancestor.
+     */
+    @SuppressWarnings("unchecked")
+    void enter(State ancestor, State state, StateMachineAgent agent)
+    {
+        if ((state != null) && (state != ancestor))
+        {
+            enter(ancestor, state.parent, agent);
+            if (entry_actions[state.id] != null)
+            {
+                entry_actions[state.id].execute(agent);
+            }
+        }
+    }
+
+    /**
+     * The innermost state which encloses both states, or null if they have no
+     * common ancestor.
+     */
+    static State commonAncestor(State a, State b)
+    {
+        if ((a == null) || (b == null))
+        {
+            return null;
+        }
+        while (a.depth > b.depth)
+        {
+            a = a.parent;
+        }
+        while (b.depth > a.depth)
+        {
+            b = b.parent;
+        }
+        while (a != b)
+        {
+            a = a.parent;
+            b = b.parent;
+        }
+        return a;
+    }
+}
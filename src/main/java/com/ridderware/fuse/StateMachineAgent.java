@@ -0,0 +1,248 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.Arrays;
+
+/**
+ * An agent whose states and transitions are defined by a shared, compiled
+ * StateMachine rather than by hand-coded logic in stateChanged. The agent
+ * reacts to events fired by its own behaviors or by other agents.
+ * <p>
+ * Events are processed to completion as they are fired: the exit actions, the
+ * transition action and the entry actions all execute, and the agent is in
+ * its new state, before fire returns. An event fired by one of those actions
+ * is queued and processed once the current transition is complete.
+ * <p>
+ * The agent enters the machine's initial state at the start of the
+ * simulation, by way of its initial StateTime. In universes which do not apply
+ * initial states it enters the initial state when the first event is fired.
+ * Subclasses which override reset must invoke super.reset().
+ *
+ * @author Jeff Ridder
+ * @see StateMachineBuilder
+ */
+public class StateMachineAgent extends Agent
+{
+
+    private final StateMachine<?> machine;
+
+    private int pending_transition = -1;
+    private boolean dispatching = false;
+    private int[] deferred = new int[4];
+    private int deferred_count = 0;
+
+    /**
+     * StateMachineAgent constructor.
+     *
+     * @param name The name of the Agent.
+     * @param machine the compiled state machine which drives the agent.
+     */
+    public StateMachineAgent(String name, StateMachine<?> machine)
+    {
+        super(name);
+        if (machine == null)
+        {
+            throw new IllegalArgumentException("A state machine is required.");
+        }
+        this.machine = machine;
+    }
+
+    /**
+     * The state machine which drives this agent.
+     *
+     * @return state machine.
+     */
+    public StateMachine<?> getStateMachine()
+    {
+        return machine;
+    }
+
+    /**
+     * The current state of the machine, or null if the agent has not yet
+     * started.
+     *
+     * @return current machine state.
+     */
+    public StateMachine.State getMachineState()
+    {
+        return asMachineState(current_state);
+    }
+
+    /**
+     * Returns true if the agent is in the specified state or one of its
+     * substates.
+     *
+     * @param state a state of this agent's machine.
+     * @return true if the agent is within the state.
+     */
+    public boolean isIn(StateMachine.State state)
+    {
+        StateMachine.State current = getMachineState();
+        return (current != null) && current.isWithin(state);
+    }
+
+    /**
+     * Returns true if the agent is in the named state or one of its
+     * substates.
+     *
+     * @param state state name.
+     * @return true if the agent is within the state.
+     */
+    public boolean isIn(String state)
+    {
+        return isIn(machine.getState(state));
+    }
+
+    /**
+     * Fire the named event. Prefer fire(int) with an event id looked up once.
+     *
+     * @param event event name.
+     * @return true if a transition was taken.
+     */
+    public boolean fire(String event)
+    {
+        return fire(machine.getEventId(event));
+    }
+
+    /**
+     * Fire the specified event. The first transition which handles the event
+     * in the current state or, failing that, in the nearest enclosing state,
+     * and whose guard accepts, is taken.
+     *
+     * @param event event id.
+     * @return true if a transition was taken, or if the event was queued
+     * because it was fired during another transition.
+     */
+    public boolean fire(int event)
+    {
+        if (dispatching)
+        {
+            if (deferred_count == deferred.length)
+            {
+                deferred = Arrays.copyOf(deferred, deferred_count * 2);
+            }
+            deferred[deferred_count++] = event;
+            return true;
+        }
+
+        dispatching = true;
+        try
+        {
+            boolean result = dispatch(event);
+            for (int i = 0; i < deferred_count; i++)
+            {
+                dispatch(deferred[i]);
+            }
+            return result;
+        }
+        finally
+        {
+            deferred_count = 0;
+            dispatching = false;
+        }
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        Universe universe = getUniverse();
+        double start_time = (universe == null) ? 0.0 : universe.getStartTime();
+        setInitialStateTime(new StateTime(this, machine.getInitialState(), start_time));
+    }
+
+    /**
+     * Executes the exit actions of the states left, the action of the
+     * transition being taken, if any, and the entry actions of the states
+     * entered. Subclasses which override this method must invoke
+     * super.stateChanged().
+     *
+     * @param old_state the state the agent has left.
+     * @param new_state the state the agent has entered.
+     */
+    @Override
+    public void stateChanged(IAgentState old_state, IAgentState new_state)
+    {
+        super.stateChanged(old_state, new_state);
+        StateMachine.State from = asMachineState(old_state);
+        StateMachine.State to = asMachineState(new_state);
+        int transition = pending_transition;
+        pending_transition = -1;
+        StateMachine.State ancestor = (transition >= 0) ? machine.getBoundary(transition)
+                : StateMachine.commonAncestor(from, to);
+        if (from != null)
+        {
+            machine.exit(from, ancestor, this);
+        }
+        if (transition >= 0)
+        {
+            machine.executeAction(transition, this);
+        }
+        if (to != null)
+        {
+            machine.enter(ancestor, to, this);
+        }
+    }
+
+    private boolean dispatch(int event)
+    {
+        StateMachine.State from = getMachineState();
+        if (from == null)
+        {
+            transitionToState(machine.getInitialState());
+            from = machine.getInitialState();
+        }
+
+        int transition = machine.select(this, from, event);
+        if (transition < 0)
+        {
+            return false;
+        }
+
+        StateMachine.State to = machine.getTarget(transition);
+        if (to == null)
+        {
+            machine.executeAction(transition, this);
+        }
+        else if (to == from)
+        {
+            // The agent's state does not change, so no stateChanged follows.
+            StateMachine.State ancestor = machine.getBoundary(transition);
+            machine.exit(from, ancestor, this);
+            machine.executeAction(transition, this);
+            machine.enter(ancestor, to, this);
+        }
+        else
+        {
+            pending_transition = transition;
+            transitionToState(to);
+        }
+        return true;
+    }
+
+    private StateMachine.State asMachineState(IAgentState state)
+    {
+        if ((state instanceof StateMachine.State) && (((StateMachine.State) state).getMachine() == machine))
+        {
+            return (StateMachine.State) state;
+        }
+        return null;
+    }
+}
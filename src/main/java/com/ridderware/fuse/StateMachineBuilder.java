@@ -0,0 +1,428 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Declares a hierarchical state machine and compiles it into a
+ * StateMachine. States may be nested within other states. A transition
+ * declared on a state also handles its event in every substate which does not
+ * handle the event itself. A transition whose target encloses substates enters
+ * the target's initial substate, recursively, so an agent is always in a leaf
+ * state. For example:
+ * <pre>
+ * StateMachine&lt;Sensor&gt; machine = new StateMachineBuilder&lt;Sensor&gt;("Sensor")
+ *     .state("OFF")
+ *     .state("ON")
+ *     .state("SEARCHING", "ON")
+ *     .state("TRACKING", "ON")
+ *     .initial("OFF")
+ *     .initial("ON", "SEARCHING")
+ *     .transition("OFF", "POWER", "ON")
+ *     .transition("SEARCHING", "DETECT", "TRACKING", s -&gt; s.hasTrack(), null)
+ *     .transition("TRACKING", "LOST", "SEARCHING")
+ *     .transition("ON", "POWER", "OFF")
+ *     .onEntry("TRACKING", s -&gt; s.startTrack())
+ *     .build();
+ * </pre>
+ *
+ * @param <T> type of agent the state machine drives.
+ * @author Jeff Ridder
+ */
+public class StateMachineBuilder<T extends StateMachineAgent>
+{
+
+    private final String name;
+
+    /**
+     * Each declared state, mapped to the name of its parent or null.
+     */
+    private final LinkedHashMap<String, String> parents = new LinkedHashMap<>();
+    private final HashMap<String, String> initial_substates = new HashMap<>();
+    private String initial = null;
+
+    private final LinkedHashMap<String, Integer> events = new LinkedHashMap<>();
+    private final ArrayList<Transition> transitions = new ArrayList<>();
+
+    private final HashMap<String, IStateAction<? super T>> entry_actions = new HashMap<>();
+    private final HashMap<String, IStateAction<? super T>> exit_actions = new HashMap<>();
+
+    private static final class Transition
+    {
+
+        final String from;
+        final int event;
+        final String to;
+        final IStateGuard<?> guard;
+        final IStateAction<?> action;
+
+        Transition(String from, int event, String to, IStateGuard<?> guard, IStateAction<?> action)
+        {
+            this.from = from;
+            this.event = event;
+            this.to = to;
+            this.guard = guard;
+            this.action = action;
+        }
+    }
+
+    /**
+     * Creates a builder for a state machine with the specified name.
+     *
+     * @param name machine name.
+     */
+    public StateMachineBuilder(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Declare a top level state.
+     *
+     * @param state state name.
+     * @return this builder.
+     */
+    public StateMachineBuilder<T> state(String state)
+    {
+        return state(state, null);
+    }
+
+    /**
+     * Declare a state nested within another. The parent may be declared
+     * before or after its substates.
+     *
+     * @param state state name.
+     * @param parent name of the enclosing state, or null for a top level
+     * state.
+     * @return this builder.
+     */
+    public StateMachineBuilder<T> state(String state, String parent)
+    {
+        if (parents.containsKey(state))
+        {
+            throw new IllegalArgumentException("State " + state + " is already declared.");
+        }
+        parents.put(state, parent);
+        return this;
+    }
+
+    /**
+     * Declare the top level state which an agent enters when it starts.
+     *
+     * @param state state name.
+     * @return this builder.
+     */
+    public StateMachineBuilder<T> initial(String state)
+    {
+        this.initial = state;
+        return this;
+    }
+
+    /**
+     * Declare the substate entered when a transition targets the specified
+     * enclosing state.
+     *
+     * @param parent name of the enclosing state.
+     * @param state name of the initial substate.
+     * @return this builder.
+     */
+    public StateMachineBuilder<T> initial(String parent, String state)
+    {
+        initial_substates.put(parent, state);
+        return this;
+    }
+
+    /**
+     * Declare an event. Events named in transitions are declared implicitly;
+     * an event which no state handles must be declared explicitly if agents
+     * are to fire it.
+     *
+     * @param event event name.
+     * @return this builder.
+     */
+    public StateMachineBuilder<T> event(String event)
+    {
+        eventId(event);
+        return this;
+    }
+
+    /**
+     * Declare an action executed whenever the state is entered.
+     *
+     * @param state state name.
+     * @param action entry action.
+     * @return this builder.
+     */
+    public StateMachineBuilder<T> onEntry(String state, IStateAction<? super T> action)
+    {
+        entry_actions.put(state, action);
+        return this;
+    }
+
+    /**
+     * Declare an action executed whenever the state is exited.
+     *
+     * @param state state name.
+     * @param action exit action.
+     * @return this builder.
+     */
+    public StateMachineBuilder<T> onExit(String state, IStateAction<? super T> action)
+    {
+        exit_actions.put(state, action);
+        return this;
+    }
+
+    /**
+     * Declare an unguarded transition.
+     *
+     * @param from source state name.
+     * @param event event name.
+     * @param to target state name.
+     * @return this builder.
+     */
+    public StateMachineBuilder<T> transition(String from, String event, String to)
+    {
+        return transition(from, event, to, null, null);
+    }
+
+    /**
+     * Declare a transition. Where several transitions of a state handle the
+     * same event, the first declared whose guard accepts is taken. A
+     * transition whose target is its source exits and re-enters the source.
+     *
+     * @param from source state name.
+     * @param event event name.
+     * @param to target state name.
+     * @param guard the condition for taking the transition, or null.
+     * @param action executed after the exit actions and before the entry
+     * actions, or null.
+     * @return this builder.
+     */
+    public StateMachineBuilder<T> transition(String from, String event, String to,
+            IStateGuard<? super T> guard, IStateAction<? super T> action)
+    {
+        if (to == null)
+        {
+            throw new IllegalArgumentException("Transition target is required; use internal for internal transitions.");
+        }
+        transitions.add(new Transition(from, eventId(event), to, guard, action));
+        return this;
+    }
+
+    /**
+     * Declare an internal transition, which executes its action without
+     * leaving the state.
+     *
+     * @param state state name.
+     * @param event event name.
+     * @param guard the condition for taking the transition, or null.
+     * @param action the action to execute.
+     * @return this builder.
+     */
+    public StateMachineBuilder<T> internal(String state, String event,
+            IStateGuard<? super T> guard, IStateAction<? super T> action)
+    {
+        transitions.add(new Transition(state, eventId(event), null, guard, action));
+        return this;
+    }
+
+    /**
+     * Compile the declared machine.
+     *
+     * @return the state machine.
+     * @throws IllegalStateException if the declaration is incomplete or
+     * inconsistent.
+     */
+    public StateMachine<T> build()
+    {
+        StateMachine<T> machine = new StateMachine<>(name, events.keySet().toArray(new String[events.size()]));
+
+        // States, in declaration order.
+        HashMap<String, StateMachine.State> by_name = new HashMap<>();
+        StateMachine.State[] states = new StateMachine.State[parents.size()];
+        int id = 0;
+        for (String state : parents.keySet())
+        {
+            states[id] = new StateMachine.State(machine, id, state);
+            by_name.put(state, states[id++]);
+        }
+
+        // Link each state to its parent, parents first so that depths are
+        // known, rejecting unknown parents and cycles.
+        boolean[] linked = new boolean[states.length];
+        for (int pass = 0, remaining = states.length; remaining > 0; pass++)
+        {
+            if (pass > states.length)
+            {
+                throw new IllegalStateException("The state hierarchy of " + name + " contains a cycle.");
+            }
+            for (StateMachine.State state : states)
+            {
+                if (!linked[state.getId()])
+                {
+                    String parent = parents.get(state.getName());
+                    StateMachine.State p = (parent == null) ? null : lookup(by_name, parent);
+                    if ((p == null) || linked[p.getId()])
+                    {
+                        StateMachine.setParent(state, p);
+                        linked[state.getId()] = true;
+                        remaining--;
+                    }
+                }
+            }
+        }
+
+        if (initial == null)
+        {
+            throw new IllegalStateException("No initial state declared for " + name + ".");
+        }
+        StateMachine.State initial_state = leaf(by_name, lookup(by_name, initial));
+
+        // Gather the candidate transitions of each state and event: those
+        // declared on the state itself, then those of each enclosing state.
+        int event_count = events.size();
+        ArrayList<ArrayList<Transition>> declared = new ArrayList<>(states.length * event_count);
+        for (int i = 0; i < states.length * event_count; i++)
+        {
+            declared.add(null);
+        }
+        for (Transition transition : transitions)
+        {
+            int index = lookup(by_name, transition.from).getId() * event_count + transition.event;
+            if (declared.get(index) == null)
+            {
+                declared.set(index, new ArrayList<Transition>(2));
+            }
+            declared.get(index).add(transition);
+            if (transition.to != null)
+            {
+                leaf(by_name, lookup(by_name, transition.to));
+            }
+        }
+
+        int[] first = new int[states.length * event_count + 1];
+        ArrayList<Transition> compiled = new ArrayList<>();
+        for (StateMachine.State state : states)
+        {
+            for (int event = 0; event < event_count; event++)
+            {
+                first[state.getId() * event_count + event] = compiled.size();
+                for (StateMachine.State s = state; s != null; s = s.getParent())
+                {
+                    ArrayList<Transition> list = declared.get(s.getId() * event_count + event);
+                    if (list != null)
+                    {
+                        compiled.addAll(list);
+                    }
+                }
+            }
+        }
+        first[states.length * event_count] = compiled.size();
+
+        StateMachine.State[] targets = new StateMachine.State[compiled.size()];
+        StateMachine.State[] boundaries = new StateMachine.State[compiled.size()];
+        IStateGuard[] guards = new IStateGuard[compiled.size()];
+        IStateAction[] actions = new IStateAction[compiled.size()];
+        for (int t = 0; t < compiled.size(); t++)
+        {
+            Transition transition = compiled.get(t);
+            if (transition.to != null)
+            {
+                // An external transition exits and re-enters its declared
+                // source and target, even where one encloses the other.
+                StateMachine.State source = lookup(by_name, transition.from);
+                StateMachine.State target = lookup(by_name, transition.to);
+                StateMachine.State boundary = StateMachine.commonAncestor(source, target);
+                if ((boundary == source) || (boundary == target))
+                {
+                    boundary = boundary.getParent();
+                }
+                targets[t] = leaf(by_name, target);
+                boundaries[t] = boundary;
+            }
+            guards[t] = transition.guard;
+            actions[t] = transition.action;
+        }
+
+        IStateAction[] entries = new IStateAction[states.length];
+        IStateAction[] exits = new IStateAction[states.length];
+        for (String state : entry_actions.keySet())
+        {
+            entries[lookup(by_name, state).getId()] = entry_actions.get(state);
+        }
+        for (String state : exit_actions.keySet())
+        {
+            exits[lookup(by_name, state).getId()] = exit_actions.get(state);
+        }
+
+        machine.compile(states, initial_state, first, targets, boundaries, guards, actions, entries, exits);
+        return machine;
+    }
+
+    private int eventId(String event)
+    {
+        Integer id = events.get(event);
+        if (id == null)
+        {
+            id = events.size();
+            events.put(event, id);
+        }
+        return id;
+    }
+
+    private StateMachine.State lookup(HashMap<String, StateMachine.State> by_name, String state)
+    {
+        StateMachine.State result = by_name.get(state);
+        if (result == null)
+        {
+            throw new IllegalStateException("Undeclared state " + state + " in " + name + ".");
+        }
+        return result;
+    }
+
+    /**
+     * Follow initial substates from the specified state down to a leaf.
+     */
+    private StateMachine.State leaf(HashMap<String, StateMachine.State> by_name, StateMachine.State state)
+    {
+        for (int depth = 0; hasSubstates(state); depth++)
+        {
+            String substate = initial_substates.get(state.getName());
+            if (substate == null)
+            {
+                throw new IllegalStateException("No initial substate declared for " + state.getName() + " in " + name + ".");
+            }
+            StateMachine.State next = lookup(by_name, substate);
+            if ((next.getParent() != state) || (depth > by_name.size()))
+            {
+                throw new IllegalStateException("Initial substate " + substate + " is not a substate of " + state.getName() + " in " + name + ".");
+            }
+            state = next;
+        }
+        return state;
+    }
+
+    private boolean hasSubstates(StateMachine.State state)
+    {
+        return parents.containsValue(state.getName());
+    }
+}
@@ -0,0 +1,317 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Time-in-state accounting for a universe. States are identified by name, so
+ * per-agent AgentState instances and shared states with the same name are
+ * accounted together. For each state the tracker keeps the number of agents
+ * currently in it, the number of entries, and the integral of the population
+ * over time. For each agent it keeps the time spent in each state. All
+ * accumulators are primitive arrays updated in place, so a transition
+ * allocates nothing once each state has been seen. Agents in the UNDEFINED
+ * state are not counted.
+ * <p>
+ * The tracker is created by Universe.getStateOccupancy and only accounts for
+ * transitions made after it is created. Its values are set to zero when the
+ * simulation is reset.
+ *
+ * @author Jeff Ridder
+ */
+public final class StateOccupancy
+{
+
+    private final Universe universe;
+    private final HashMap<String, Integer> state_indexes = new HashMap<>();
+    private String[] state_names = new String[8];
+    private long[] populations = new long[8];
+    private long[] entries = new long[8];
+    private double[] population_times = new double[8];
+    private double[] last_change_times = new double[8];
+    private int state_count = 0;
+    private int run = 0;
+    private double start_time = 0;
+
+    /**
+     * Creates a tracker for the specified universe.
+     *
+     * @param universe the universe.
+     */
+    StateOccupancy(Universe universe)
+    {
+        this.universe = universe;
+        this.start_time = universe.getCurrentTime();
+    }
+
+    /**
+     * Returns the number of distinct states seen.
+     *
+     * @return number of states.
+     */
+    public int getStateCount()
+    {
+        return state_count;
+    }
+
+    /**
+     * Returns the name of the state with the specified index.
+     *
+     * @param index state index, from zero to getStateCount() - 1.
+     * @return state name.
+     */
+    public String getStateName(int index)
+    {
+        return state_names[index];
+    }
+
+    /**
+     * Returns the index of the named state, or -1 if it has not been seen.
+     *
+     * @param state_name state name.
+     * @return state index.
+     */
+    public int getStateIndex(String state_name)
+    {
+        Integer index = state_indexes.get(state_name);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * Returns the number of agents currently in the named state.
+     *
+     * @param state_name state name.
+     * @return population.
+     */
+    public long getPopulation(String state_name)
+    {
+        int index = getStateIndex(state_name);
+        return (index < 0) ? 0 : populations[index];
+    }
+
+    /**
+     * Returns the number of times an agent has entered the named state.
+     *
+     * @param state_name state name.
+     * @return entry count.
+     */
+    public long getEntryCount(String state_name)
+    {
+        int index = getStateIndex(state_name);
+        return (index < 0) ? 0 : entries[index];
+    }
+
+    /**
+     * Returns the integral over time of the population of the named state, up
+     * to the current time. This is the total agent-time spent in the state.
+     *
+     * @param state_name state name.
+     * @return agent-time in state.
+     */
+    public double getPopulationTime(String state_name)
+    {
+        int index = getStateIndex(state_name);
+        if (index < 0)
+        {
+            return 0;
+        }
+        double now = universe.getCurrentTime();
+        return population_times[index] + populations[index] * Math.max(0, now - last_change_times[index]);
+    }
+
+    /**
+     * Returns the time averaged population of the named state since the
+     * tracker was created or last reset.
+     *
+     * @param state_name state name.
+     * @return mean population.
+     */
+    public double getMeanPopulation(String state_name)
+    {
+        double elapsed = universe.getCurrentTime() - start_time;
+        return (elapsed > 0) ? getPopulationTime(state_name) / elapsed : getPopulation(state_name);
+    }
+
+    /**
+     * Returns the time the specified agent has spent in the named state,
+     * including its current stay.
+     *
+     * @param agent the agent.
+     * @param state_name state name.
+     * @return time in state.
+     */
+    public double getTimeInState(Agent agent, String state_name)
+    {
+        int index = getStateIndex(state_name);
+        AgentExtension extension = agent.extension;
+        if ((index < 0) || (extension == null) || (extension.occupancy_run != run))
+        {
+            return 0;
+        }
+        double result = (index < extension.occupancy_times.length) ? extension.occupancy_times[index] : 0;
+        IAgentState state = agent.getState();
+        if ((state != null) && state_name.equals(state.getName()))
+        {
+            result += Math.max(0, universe.getCurrentTime() - extension.occupancy_entered);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the fraction of its accounted time that the specified agent has
+     * spent in the named state. An agent's time is accounted from its first
+     * transition into a state other than UNDEFINED.
+     *
+     * @param agent the agent.
+     * @param state_name state name.
+     * @return fraction of time in state, or zero if no time has elapsed.
+     */
+    public double getFractionInState(Agent agent, String state_name)
+    {
+        AgentExtension extension = agent.extension;
+        if ((extension == null) || (extension.occupancy_run != run))
+        {
+            return 0;
+        }
+        double total = 0;
+        for (double time : extension.occupancy_times)
+        {
+            total += time;
+        }
+        IAgentState state = agent.getState();
+        if ((state != null) && (state != AgentState.UNDEFINED))
+        {
+            total += Math.max(0, universe.getCurrentTime() - extension.occupancy_entered);
+        }
+        return (total > 0) ? getTimeInState(agent, state_name) / total : 0;
+    }
+
+    /**
+     * Account for an agent's transition. Package scope. Only used by the
+     * simulation framework.
+     *
+     * @param agent the agent.
+     * @param old_state the state the agent has left.
+     * @param new_state the state the agent has entered.
+     * @param time the current time.
+     */
+    void transition(IAgent agent, IAgentState old_state, IAgentState new_state, double time)
+    {
+        AgentExtension owner = (agent instanceof Agent) ? ((Agent) agent).extension() : null;
+        if (owner != null && owner.occupancy_run != run)
+        {
+            if (owner.occupancy_times == null)
+            {
+                owner.occupancy_times = new double[state_count + 4];
+            }
+            else
+            {
+                Arrays.fill(owner.occupancy_times, 0);
+            }
+            owner.occupancy_run = run;
+            owner.occupancy_entered = time;
+        }
+
+        if ((old_state != null) && (old_state != AgentState.UNDEFINED))
+        {
+            int index = indexOf(old_state.getName());
+            accumulate(index, time);
+            populations[index]--;
+            if (owner != null)
+            {
+                if (index >= owner.occupancy_times.length)
+                {
+                    owner.occupancy_times = Arrays.copyOf(owner.occupancy_times, state_count + 4);
+                }
+                owner.occupancy_times[index] += time - owner.occupancy_entered;
+            }
+        }
+        if ((new_state != null) && (new_state != AgentState.UNDEFINED))
+        {
+            int index = indexOf(new_state.getName());
+            accumulate(index, time);
+            populations[index]++;
+            entries[index]++;
+        }
+        if (owner != null)
+        {
+            owner.occupancy_entered = time;
+        }
+    }
+
+    /**
+     * Set all accumulators to zero. Package scope. Only used by the
+     * simulation framework.
+     *
+     * @param time the start time.
+     */
+    void reset(double time)
+    {
+        Arrays.fill(populations, 0);
+        Arrays.fill(entries, 0);
+        Arrays.fill(population_times, 0);
+        Arrays.fill(last_change_times, time);
+        start_time = time;
+        ++run;
+    }
+
+    private void accumulate(int index, double time)
+    {
+        if (time > last_change_times[index])
+        {
+            population_times[index] += populations[index] * (time - last_change_times[index]);
+            last_change_times[index] = time;
+        }
+    }
+
+    private int indexOf(String state_name)
+    {
+        Integer index = state_indexes.get(state_name);
+        if (index != null)
+        {
+            return index;
+        }
+        if (state_count == state_names.length)
+        {
+            int length = state_count * 2;
+            state_names = Arrays.copyOf(state_names, length);
+            populations = Arrays.copyOf(populations, length);
+            entries = Arrays.copyOf(entries, length);
+            population_times = Arrays.copyOf(population_times, length);
+            last_change_times = Arrays.copyOf(last_change_times, length);
+        }
+        state_names[state_count] = state_name;
+        last_change_times[state_count] = universe.getCurrentTime();
+        state_indexes.put(state_name, state_count);
+        return state_count++;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder("[occupancy:");
+        for (int i = 0; i < state_count; i++)
+        {
+            result.append(' ').append(state_names[i]).append('=').append(populations[i]);
+        }
+        return result.append(']').toString();
+    }
+}
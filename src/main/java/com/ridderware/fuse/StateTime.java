@@ -23,6 +23,7 @@ package com.ridderware.fuse;
  */
 public class StateTime {
 
+  private IAgent agent = null;
   private IAgentState state = null;
   private double time = 0;
   private String description = null;
@@ -36,9 +37,35 @@ public class StateTime {
    */
   public StateTime(IAgentState state, double time)
   {
+    this(null, state, time);
+  }
+
+
+  /**
+   *  Constructor for the StateTime object of a state which may be shared by
+   *  many agents, and so does not itself identify the agent.
+   *
+   * @param  agent  the agent which is to enter the state.
+   * @param  state
+   * @param  time
+   */
+  public StateTime(IAgent agent, IAgentState state, double time)
+  {
+    this.agent = agent;
     this.state = state;
     this.time = time;
-    this.description = "[" + state + " : " + time + "]";
+  }
+
+
+  /**
+   *  Gets the agent which is to enter the state. This is the agent specified
+   *  at construction or, if none was, the agent which owns the state.
+   *
+   * @return    The agent.
+   */
+  public IAgent getAgent()
+  {
+    return (agent != null) ? agent : ((state != null) ? state.getAgent() : null);
   }
 
 
@@ -82,6 +109,10 @@ public class StateTime {
    */
   public String toString()
   {
+    if (description == null)
+    {
+      description = "[" + state + " : " + time + "]";
+    }
     return this.description;
   }
 
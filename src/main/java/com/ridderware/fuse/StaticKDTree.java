@@ -0,0 +1,449 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.List;
+
+/**
+ * A KD-tree over items which never move, such as ground sites, sensors and
+ * terrain features. The tree is built once, in O(n log n) expected time, by
+ * recursively partitioning the items about the median of their widest
+ * dimension. It has no node objects: the items are permuted so that the root
+ * of each subrange is at its middle, with the smaller coordinates before it
+ * and the larger after, and the split dimension of each node is held in a
+ * byte array. Queries recurse over subranges and allocate nothing.
+ * <p>
+ * A tree can be combined with a dynamic index in a CompositeSpatialIndex so
+ * that queries span both immobile and moving items.
+ *
+ * @author Jeff Ridder
+ * @param <T> the type of the indexed items.
+ * @see CompositeSpatialIndex
+ */
+public class StaticKDTree<T> implements ISpatialQuery<T>
+{
+
+    private final int n;
+    private final Object[] items;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+    private final int[] indexes;
+    private final byte[] axes;
+
+    /**
+     * Builds a tree over items at the specified positions.
+     *
+     * @param items the items.
+     * @param positions the position of each item.
+     */
+    public StaticKDTree(List<? extends T> items, List<? extends Double3D> positions)
+    {
+        this(items.toArray(), coordinates(positions, 0), coordinates(positions, 1), coordinates(positions, 2));
+    }
+
+    /**
+     * Builds a tree over items at the specified coordinates. The arrays are
+     * copied.
+     *
+     * @param items the items.
+     * @param x the x coordinate of each item.
+     * @param y the y coordinate of each item.
+     * @param z the z coordinate of each item.
+     */
+    public StaticKDTree(Object[] items, double[] x, double[] y, double[] z)
+    {
+        this.n = items.length;
+        if ((x.length != n) || (y.length != n) || (z.length != n))
+        {
+            throw new IllegalArgumentException("There must be one position for each item.");
+        }
+        this.items = items.clone();
+        this.xs = x.clone();
+        this.ys = y.clone();
+        this.zs = z.clone();
+        this.indexes = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            indexes[i] = i;
+        }
+        this.axes = new byte[n];
+        build(0, n);
+    }
+
+    @Override
+    public int size()
+    {
+        return n;
+    }
+
+    /**
+     * Returns the item at the specified position in the tree.
+     *
+     * @param i position in the tree, from 0 to size() - 1.
+     * @return the item.
+     */
+    @SuppressWarnings("unchecked")
+    public T getItem(int i)
+    {
+        return (T) items[i];
+    }
+
+    /**
+     * Returns the position in the arrays from which the tree was built of
+     * the item now at the specified position in the tree.
+     *
+     * @param i position in the tree.
+     * @return original index.
+     */
+    public int getOriginalIndex(int i)
+    {
+        return indexes[i];
+    }
+
+    /**
+     * Returns the x coordinate of the item at the specified position in the
+     * tree.
+     *
+     * @param i position in the tree.
+     * @return x coordinate.
+     */
+    public double getX(int i)
+    {
+        return xs[i];
+    }
+
+    /**
+     * Returns the y coordinate of the item at the specified position in the
+     * tree.
+     *
+     * @param i position in the tree.
+     * @return y coordinate.
+     */
+    public double getY(int i)
+    {
+        return ys[i];
+    }
+
+    /**
+     * Returns the z coordinate of the item at the specified position in the
+     * tree.
+     *
+     * @param i position in the tree.
+     * @return z coordinate.
+     */
+    public double getZ(int i)
+    {
+        return zs[i];
+    }
+
+    @Override
+    public boolean forEachWithin(double x, double y, double z, double range, ISpatialVisitor<? super T> visitor)
+    {
+        if ((n == 0) || !(range >= 0))
+        {
+            return true;
+        }
+        return forEachWithin(0, n, x, y, z, range * range, visitor);
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean forEachWithin(int lo, int hi, double x, double y, double z, double range_sq, ISpatialVisitor<? super T> visitor)
+    {
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            double dx = xs[mid] - x;
+            double dy = ys[mid] - y;
+            double dz = zs[mid] - z;
+            double d2 = dx * dx + dy * dy + dz * dz;
+            if ((d2 <= range_sq) && !visitor.visit((T) items[mid], d2))
+            {
+                return false;
+            }
+            double split = split(mid, x, y, z);
+            if (split <= 0)
+            {
+                // The point is on the low side. Search the high side only if
+                // it is within range, and continue with the low side.
+                if ((split * split <= range_sq) && !forEachWithin(mid + 1, hi, x, y, z, range_sq, visitor))
+                {
+                    return false;
+                }
+                hi = mid;
+            }
+            else
+            {
+                if ((split * split <= range_sq) && !forEachWithin(lo, mid, x, y, z, range_sq, visitor))
+                {
+                    return false;
+                }
+                lo = mid + 1;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find every item within the specified range of a point, storing the
+     * original indexes of as many as fit in the result array, in no particular
+     * order.
+     *
+     * @param x x coordinate of the point.
+     * @param y y coordinate of the point.
+     * @param z z coordinate of the point.
+     * @param range the range.
+     * @param result receives original indexes.
+     * @return the number of items within range, which may exceed the length
+     * of the result array.
+     */
+    public int findWithin(double x, double y, double z, double range, int[] result)
+    {
+        if ((n == 0) || !(range >= 0))
+        {
+            return 0;
+        }
+        return findWithin(0, n, x, y, z, range * range, result, 0);
+    }
+
+    private int findWithin(int lo, int hi, double x, double y, double z, double range_sq, int[] result, int found)
+    {
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            double dx = xs[mid] - x;
+            double dy = ys[mid] - y;
+            double dz = zs[mid] - z;
+            if (dx * dx + dy * dy + dz * dz <= range_sq)
+            {
+                if (found < result.length)
+                {
+                    result[found] = indexes[mid];
+                }
+                found++;
+            }
+            double split = split(mid, x, y, z);
+            if (split <= 0)
+            {
+                if (split * split <= range_sq)
+                {
+                    found = findWithin(mid + 1, hi, x, y, z, range_sq, result, found);
+                }
+                hi = mid;
+            }
+            else
+            {
+                if (split * split <= range_sq)
+                {
+                    found = findWithin(lo, mid, x, y, z, range_sq, result, found);
+                }
+                lo = mid + 1;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void collectNearest(double x, double y, double z, double max_range, NeighborBuffer<? super T> buffer)
+    {
+        if ((n == 0) || !(max_range >= 0))
+        {
+            return;
+        }
+        collectNearest(0, n, x, y, z, max_range * max_range, buffer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collectNearest(int lo, int hi, double x, double y, double z, double max_range_sq, NeighborBuffer<? super T> buffer)
+    {
+        if (lo >= hi)
+        {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dx = xs[mid] - x;
+        double dy = ys[mid] - y;
+        double dz = zs[mid] - z;
+        double d2 = dx * dx + dy * dy + dz * dz;
+        if ((d2 <= max_range_sq) && (d2 < buffer.getWorstDistanceSq()))
+        {
+            buffer.offer((T) items[mid], d2);
+        }
+        double split = split(mid, x, y, z);
+        double split_sq = split * split;
+        if (split <= 0)
+        {
+            collectNearest(lo, mid, x, y, z, max_range_sq, buffer);
+            if ((split_sq <= max_range_sq) && (split_sq < buffer.getWorstDistanceSq()))
+            {
+                collectNearest(mid + 1, hi, x, y, z, max_range_sq, buffer);
+            }
+        }
+        else
+        {
+            collectNearest(mid + 1, hi, x, y, z, max_range_sq, buffer);
+            if ((split_sq <= max_range_sq) && (split_sq < buffer.getWorstDistanceSq()))
+            {
+                collectNearest(lo, mid, x, y, z, max_range_sq, buffer);
+            }
+        }
+    }
+
+    /**
+     * The signed distance of a point from the splitting plane of a node,
+     * negative or zero on the low side.
+     */
+    private double split(int mid, double x, double y, double z)
+    {
+        switch (axes[mid])
+        {
+            case 0:
+                return x - xs[mid];
+            case 1:
+                return y - ys[mid];
+            default:
+                return z - zs[mid];
+        }
+    }
+
+    private void build(int lo, int hi)
+    {
+        while (hi - lo > 1)
+        {
+            int axis = widestAxis(lo, hi);
+            double[] keys = (axis == 0) ? xs : ((axis == 1) ? ys : zs);
+            int mid = (lo + hi) >>> 1;
+            select(keys, lo, hi - 1, mid);
+            axes[mid] = (byte) axis;
+            build(lo, mid);
+            lo = mid + 1;
+        }
+    }
+
+    private int widestAxis(int lo, int hi)
+    {
+        double x0 = Double.POSITIVE_INFINITY, x1 = Double.NEGATIVE_INFINITY;
+        double y0 = Double.POSITIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+        double z0 = Double.POSITIVE_INFINITY, z1 = Double.NEGATIVE_INFINITY;
+        for (int i = lo; i < hi; i++)
+        {
+            x0 = Math.min(x0, xs[i]);
+            x1 = Math.max(x1, xs[i]);
+            y0 = Math.min(y0, ys[i]);
+            y1 = Math.max(y1, ys[i]);
+            z0 = Math.min(z0, zs[i]);
+            z1 = Math.max(z1, zs[i]);
+        }
+        double wx = x1 - x0;
+        double wy = y1 - y0;
+        double wz = z1 - z0;
+        return (wx >= wy) ? ((wx >= wz) ? 0 : 2) : ((wy >= wz) ? 1 : 2);
+    }
+
+    /**
+     * Partially sort the range [left, right] so that position k holds the
+     * element that would be there were the range sorted by the keys, with no
+     * greater key before it and no smaller key after it.
+     */
+    private void select(double[] keys, int left, int right, int k)
+    {
+        while (right > left)
+        {
+            // Median of three pivot, moved to the left end.
+            int middle = (left + right) >>> 1;
+            if (keys[middle] < keys[left])
+            {
+                swap(middle, left);
+            }
+            if (keys[right] < keys[left])
+            {
+                swap(right, left);
+            }
+            if (keys[right] < keys[middle])
+            {
+                swap(right, middle);
+            }
+            swap(left, middle);
+            double pivot = keys[left];
+
+            int i = left;
+            int j = right + 1;
+            while (true)
+            {
+                do
+                {
+                    i++;
+                } while ((i <= right) && (keys[i] < pivot));
+                do
+                {
+                    j--;
+                } while (keys[j] > pivot);
+                if (i >= j)
+                {
+                    break;
+                }
+                swap(i, j);
+            }
+            swap(left, j);
+
+            if (j == k)
+            {
+                return;
+            }
+            else if (j < k)
+            {
+                left = j + 1;
+            }
+            else
+            {
+                right = j - 1;
+            }
+        }
+    }
+
+    private void swap(int i, int j)
+    {
+        double x = xs[i];
+        xs[i] = xs[j];
+        xs[j] = x;
+        double y = ys[i];
+        ys[i] = ys[j];
+        ys[j] = y;
+        double z = zs[i];
+        zs[i] = zs[j];
+        zs[j] = z;
+        Object item = items[i];
+        items[i] = items[j];
+        items[j] = item;
+        int index = indexes[i];
+        indexes[i] = indexes[j];
+        indexes[j] = index;
+    }
+
+    private static double[] coordinates(List<? extends Double3D> positions, int axis)
+    {
+        double[] values = new double[positions.size()];
+        for (int i = 0; i < values.length; i++)
+        {
+            Double3D p = positions.get(i);
+            values[i] = (axis == 0) ? p.getX() : ((axis == 1) ? p.getY() : p.getZ());
+        }
+        return values;
+    }
+}
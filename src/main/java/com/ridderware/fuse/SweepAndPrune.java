@@ -0,0 +1,1082 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A broad phase proximity engine which reports the pairs of moving items that
+ * come within or leave range of each other at each update. Each item has a
+ * radius, and two items are in proximity when the distance between them is no
+ * more than the sum of their radii; for a common sensor or collision range R,
+ * give every item a radius of R / 2.
+ * <p>
+ * The engine keeps the endpoints of the bounding box of every item sorted
+ * along each axis. Between updates items move only a little, so each update
+ * moves the endpoints of each moved item into place by insertion, in time
+ * proportional to the number of moved items plus the number of endpoints
+ * that pass each other; when most items have moved, each list is instead
+ * re-sorted by insertion sort in one pass. Only
+ * when a minimum endpoint passes a maximum endpoint can two boxes begin or
+ * cease to overlap, so the set of overlapping boxes is maintained from those
+ * exchanges alone. Each item keeps a list of the items whose boxes overlap
+ * its own, and only the overlapping pairs of the moved items are tested for
+ * proximity, so the work of an update grows with the motion since the last
+ * update rather than with the number of items or pairs. Large batches of new
+ * items are instead sorted and swept in one pass.
+ * <p>
+ * Listeners subscribed to an item are told of the changes to its pairs, and
+ * listeners added to the engine are told of every change. Notifications are
+ * made at the end of update, after the engine is consistent; a listener may
+ * move items, but items should only be added or removed outside of update.
+ *
+ * @author Jeff Ridder
+ * @param <T> the type of the tracked items.
+ * @see IProximityListener
+ */
+public class SweepAndPrune<T>
+{
+
+    private final int dimensions;
+
+    /**
+     * Per handle.
+     */
+    private double[][] coordinates = new double[3][];
+    private double[] radii;
+    private Object[] items;
+    private Object[] item_listeners;
+    private boolean[] live;
+    private boolean[] moved;
+
+    /**
+     * Per handle, the handles of the items whose boxes overlap its box.
+     */
+    private int[][] partners;
+    private int[] partner_counts;
+
+    /**
+     * The handles of the items moved, resized or added since the last update.
+     */
+    private int[] moved_handles = new int[16];
+    private int num_moved = 0;
+
+    private int high_water = 0;
+    private int count = 0;
+
+    /**
+     * Handles which may be reused, and handles removed since the last update,
+     * which may not be reused until their pairs have been discarded.
+     */
+    private int[] free_handles = new int[16];
+    private int num_free = 0;
+    private int[] removed_handles = new int[16];
+    private int num_removed = 0;
+    private int num_added = 0;
+
+    /**
+     * Per axis, the endpoints sorted by value, each encoded as twice its
+     * handle plus one for a maximum, and the endpoint values.
+     */
+    private int[][] endpoints = new int[3][];
+    private double[][] values = new double[3][];
+    private int num_endpoints = 0;
+
+    /**
+     * Per axis, the position of each endpoint in the sorted list, indexed by
+     * the endpoint's encoding.
+     */
+    private int[][] positions = new int[3][];
+
+    /**
+     * The pairs whose boxes overlap.
+     */
+    private final PairTable pairs = new PairTable();
+
+    private final ArrayList<IProximityListener<? super T>> listeners = new ArrayList<>();
+
+    /**
+     * Changes awaiting notification.
+     */
+    private Object[] event_items = new Object[32];
+    private Object[] event_others = new Object[32];
+    private Object[] event_item_listeners = new Object[32];
+    private Object[] event_other_listeners = new Object[32];
+    private boolean[] event_began = new boolean[32];
+    private int num_events = 0;
+
+    private int in_proximity = 0;
+    private long exchange_count = 0;
+
+    /**
+     * Creates an engine which sorts along all three axes.
+     */
+    public SweepAndPrune()
+    {
+        this(3);
+    }
+
+    /**
+     * Creates an engine which sorts along the first two or all three axes.
+     * For items which move in a plane, two avoids sorting endpoints which
+     * all coincide in z; proximity is still decided in three dimensions.
+     *
+     * @param dimensions 2 or 3.
+     */
+    public SweepAndPrune(int dimensions)
+    {
+        if ((dimensions < 2) || (dimensions > 3))
+        {
+            throw new IllegalArgumentException("Only 2 or 3 dimensions are supported.");
+        }
+        this.dimensions = dimensions;
+        allocateItems(64);
+        for (int axis = 0; axis < dimensions; axis++)
+        {
+            endpoints[axis] = new int[128];
+            values[axis] = new double[128];
+        }
+    }
+
+    /**
+     * Add an item. Its pairs are detected at the next update.
+     *
+     * @param item the item.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param z z coordinate.
+     * @param radius its radius.
+     * @return the handle of the item.
+     */
+    public int add(T item, double x, double y, double z, double radius)
+    {
+        return add(item, x, y, z, radius, null);
+    }
+
+    /**
+     * Add an item with a listener to be told of the changes to its pairs. An
+     * agent which tracks its own contacts may be its own listener. Its pairs
+     * are detected at the next update.
+     *
+     * @param item the item.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param z z coordinate.
+     * @param radius its radius.
+     * @param listener the listener, or null.
+     * @return the handle of the item.
+     */
+    public int add(T item, double x, double y, double z, double radius, IProximityListener<? super T> listener)
+    {
+        if (!(radius >= 0))
+        {
+            throw new IllegalArgumentException("The radius must be non-negative.");
+        }
+        int handle;
+        if (num_free > 0)
+        {
+            handle = free_handles[--num_free];
+        }
+        else
+        {
+            if (high_water == items.length)
+            {
+                allocateItems(items.length * 2);
+            }
+            handle = high_water++;
+        }
+        items[handle] = item;
+        item_listeners[handle] = listener;
+        coordinates[0][handle] = x;
+        coordinates[1][handle] = y;
+        coordinates[2][handle] = z;
+        radii[handle] = radius;
+        live[handle] = true;
+        markMoved(handle);
+        count++;
+        num_added++;
+
+        // The new endpoints are appended, and sorted into place by the next
+        // update as though they had moved in from beyond the maximum.
+        if (num_endpoints + 2 > endpoints[0].length)
+        {
+            for (int axis = 0; axis < dimensions; axis++)
+            {
+                endpoints[axis] = Arrays.copyOf(endpoints[axis], endpoints[axis].length * 2);
+                values[axis] = Arrays.copyOf(values[axis], values[axis].length * 2);
+            }
+        }
+        for (int axis = 0; axis < dimensions; axis++)
+        {
+            endpoints[axis][num_endpoints] = 2 * handle;
+            endpoints[axis][num_endpoints + 1] = 2 * handle + 1;
+            values[axis][num_endpoints] = Double.POSITIVE_INFINITY;
+            values[axis][num_endpoints + 1] = Double.POSITIVE_INFINITY;
+            positions[axis][2 * handle] = num_endpoints;
+            positions[axis][2 * handle + 1] = num_endpoints + 1;
+        }
+        num_endpoints += 2;
+        return handle;
+    }
+
+    /**
+     * Move an item. The change is detected at the next update.
+     *
+     * @param handle the handle of the item.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param z z coordinate.
+     */
+    public void move(int handle, double x, double y, double z)
+    {
+        checkHandle(handle);
+        coordinates[0][handle] = x;
+        coordinates[1][handle] = y;
+        coordinates[2][handle] = z;
+        markMoved(handle);
+    }
+
+    /**
+     * Change the radius of an item. The change is detected at the next
+     * update.
+     *
+     * @param handle the handle of the item.
+     * @param radius the radius.
+     */
+    public void setRadius(int handle, double radius)
+    {
+        checkHandle(handle);
+        if (!(radius >= 0))
+        {
+            throw new IllegalArgumentException("The radius must be non-negative.");
+        }
+        radii[handle] = radius;
+        markMoved(handle);
+    }
+
+    /**
+     * Remove an item. The end of each of its proximities is reported at the
+     * next update.
+     *
+     * @param handle the handle of the item.
+     */
+    public void remove(int handle)
+    {
+        checkHandle(handle);
+        live[handle] = false;
+        count--;
+        if (num_removed == removed_handles.length)
+        {
+            removed_handles = Arrays.copyOf(removed_handles, removed_handles.length * 2);
+        }
+        removed_handles[num_removed++] = handle;
+    }
+
+    /**
+     * Returns the item with the specified handle.
+     *
+     * @param handle the handle of the item.
+     * @return the item, or null if no item has the handle.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int handle)
+    {
+        return ((handle >= 0) && (handle < high_water) && live[handle]) ? (T) items[handle] : null;
+    }
+
+    /**
+     * Returns the number of items.
+     *
+     * @return item count.
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the number of pairs in proximity as of the last update.
+     *
+     * @return number of pairs.
+     */
+    public int getProximityCount()
+    {
+        return in_proximity;
+    }
+
+    /**
+     * Returns the number of pairs whose bounding boxes overlap, which are the
+     * only pairs tested for proximity.
+     *
+     * @return number of pairs.
+     */
+    public int getOverlapCount()
+    {
+        return pairs.size;
+    }
+
+    /**
+     * Returns the number of endpoint exchanges made by insertion sort since
+     * this engine was created, a measure of the work done.
+     *
+     * @return exchange count.
+     */
+    public long getExchangeCount()
+    {
+        return exchange_count;
+    }
+
+    /**
+     * Returns true if two items were in proximity as of the last update.
+     *
+     * @param a handle of one item.
+     * @param b handle of the other.
+     * @return true if in proximity.
+     */
+    public boolean isInProximity(int a, int b)
+    {
+        int slot = pairs.find(a, b);
+        return (slot >= 0) && ((pairs.states[slot] & PairTable.IN_PROXIMITY) != 0);
+    }
+
+    /**
+     * Add a listener to be told of every change.
+     *
+     * @param listener the listener.
+     */
+    public void addListener(IProximityListener<? super T> listener)
+    {
+        if ((listener != null) && !listeners.contains(listener))
+        {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * Remove a listener added with addListener.
+     *
+     * @param listener the listener.
+     */
+    public void removeListener(IProximityListener<? super T> listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Bring the pairs up to date with the items' current positions and notify
+     * listeners of the changes since the last update.
+     *
+     * @param time the current time, passed to listeners.
+     */
+    public void update(double time)
+    {
+        if (num_removed > 0)
+        {
+            discardRemoved();
+        }
+
+        if (num_added > Math.max(32, count / 16))
+        {
+            rebuild();
+        }
+        else if (num_moved > count / 4)
+        {
+            for (int axis = 0; axis < dimensions; axis++)
+            {
+                sortAxis(axis);
+            }
+        }
+        else if (num_moved > 0)
+        {
+            for (int axis = 0; axis < dimensions; axis++)
+            {
+                settleMoved(axis);
+            }
+        }
+        num_added = 0;
+
+        // Test the overlapping pairs of the moved items. A pair can only
+        // begin to overlap when one of its items moves, so new pairs are
+        // among them too. A pair of two moved items is tested once.
+        for (int i = 0; i < num_moved; i++)
+        {
+            int a = moved_handles[i];
+            if (live[a])
+            {
+                int[] list = partners[a];
+                for (int k = 0; k < partner_counts[a]; k++)
+                {
+                    int b = list[k];
+                    if ((a < b) || !moved[b])
+                    {
+                        testPair(a, b);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < num_moved; i++)
+        {
+            moved[moved_handles[i]] = false;
+        }
+        num_moved = 0;
+
+        notifyListeners(time);
+    }
+
+    /**
+     * Re-sort the endpoints of an axis, re-evaluating the overlap of every
+     * pair whose minimum and maximum endpoints are exchanged.
+     */
+    private void sortAxis(int axis)
+    {
+        int[] ends = endpoints[axis];
+        double[] vals = values[axis];
+        int[] pos = positions[axis];
+        double[] c = coordinates[axis];
+        for (int i = 0; i < num_endpoints; i++)
+        {
+            int e = ends[i];
+            int h = e >>> 1;
+            vals[i] = ((e & 1) == 0) ? c[h] - radii[h] : c[h] + radii[h];
+        }
+        for (int i = 1; i < num_endpoints; i++)
+        {
+            int e = ends[i];
+            double v = vals[i];
+            int j = i - 1;
+            // Endpoints are ordered by value, with minimums before maximums
+            // of equal value so that touching boxes overlap.
+            while ((j >= 0) && ((vals[j] > v) || ((vals[j] == v) && ((ends[j] & 1) > (e & 1)))))
+            {
+                exchanged(e, ends[j]);
+                ends[j + 1] = ends[j];
+                vals[j + 1] = vals[j];
+                j--;
+            }
+            ends[j + 1] = e;
+            vals[j + 1] = v;
+        }
+        for (int i = 0; i < num_endpoints; i++)
+        {
+            pos[ends[i]] = i;
+        }
+    }
+
+    /**
+     * Move the endpoints of the moved items of an axis into place, one item at
+     * a time so that the others remain sorted, re-evaluating the overlap of
+     * every pair whose minimum and maximum endpoints are exchanged.
+     */
+    private void settleMoved(int axis)
+    {
+        double[] c = coordinates[axis];
+        for (int i = 0; i < num_moved; i++)
+        {
+            int h = moved_handles[i];
+            if (live[h])
+            {
+                settle(axis, 2 * h, c[h] - radii[h]);
+                settle(axis, 2 * h + 1, c[h] + radii[h]);
+            }
+        }
+    }
+
+    /**
+     * Give an endpoint a new value and move it by insertion to its place
+     * along the axis.
+     */
+    private void settle(int axis, int e, double v)
+    {
+        int[] ends = endpoints[axis];
+        double[] vals = values[axis];
+        int[] pos = positions[axis];
+        int i = pos[e];
+        int j = i - 1;
+        // Endpoints are ordered by value, with minimums before maximums of
+        // equal value so that touching boxes overlap.
+        while ((j >= 0) && ((vals[j] > v) || ((vals[j] == v) && ((ends[j] & 1) > (e & 1)))))
+        {
+            int f = ends[j];
+            exchanged(e, f);
+            ends[j + 1] = f;
+            vals[j + 1] = vals[j];
+            pos[f] = j + 1;
+            j--;
+        }
+        if (j + 1 == i)
+        {
+            j = i + 1;
+            while ((j < num_endpoints) && ((vals[j] < v) || ((vals[j] == v) && ((ends[j] & 1) < (e & 1)))))
+            {
+                int f = ends[j];
+                exchanged(f, e);
+                ends[j - 1] = f;
+                vals[j - 1] = vals[j];
+                pos[f] = j - 1;
+                j++;
+            }
+            j -= 2;
+        }
+        ends[j + 1] = e;
+        vals[j + 1] = v;
+        pos[e] = j + 1;
+    }
+
+    /**
+     * Account for an endpoint passing below another.
+     */
+    private void exchanged(int lower, int upper)
+    {
+        if (((lower ^ upper) & 1) != 0)
+        {
+            // A minimum passing below a maximum begins an overlap along this
+            // axis, and a maximum passing below a minimum ends one.
+            exchange_count++;
+            overlapChanged(lower >>> 1, upper >>> 1, (lower & 1) == 0);
+        }
+    }
+
+    /**
+     * Re-evaluate whether the boxes of two items overlap, after a minimum and
+     * maximum endpoint of theirs have been exchanged.
+     */
+    private void overlapChanged(int a, int b, boolean begins)
+    {
+        if (a == b)
+        {
+            return;
+        }
+        boolean overlap = boxesOverlap(a, b);
+        if (begins && !overlap)
+        {
+            // The boxes are apart along another axis. If they overlapped
+            // before, the exchange on that axis removes the pair.
+            return;
+        }
+        int slot = pairs.find(a, b);
+        if (overlap && (slot < 0))
+        {
+            insertPair(a, b);
+        }
+        else if (!overlap && (slot >= 0))
+        {
+            if ((pairs.states[slot] & PairTable.IN_PROXIMITY) != 0)
+            {
+                in_proximity--;
+                queueEvent(a, b, false);
+            }
+            removePair(slot);
+        }
+    }
+
+    /**
+     * Sort every axis from scratch and find the overlapping pairs by
+     * sweeping the first axis.
+     */
+    private void rebuild()
+    {
+        for (int axis = 0; axis < dimensions; axis++)
+        {
+            double[] c = coordinates[axis];
+            double[] keys = new double[num_endpoints];
+            int[] ends = new int[num_endpoints];
+            int n = 0;
+            // Minimums first, so that the stable sort puts them before
+            // maximums of equal value.
+            for (int h = 0; h < high_water; h++)
+            {
+                if (live[h])
+                {
+                    keys[n] = c[h] - radii[h];
+                    ends[n++] = 2 * h;
+                }
+            }
+            for (int h = 0; h < high_water; h++)
+            {
+                if (live[h])
+                {
+                    keys[n] = c[h] + radii[h];
+                    ends[n++] = 2 * h + 1;
+                }
+            }
+            int[] order = IndexSort.sortedIndexes(keys, n);
+            for (int i = 0; i < n; i++)
+            {
+                endpoints[axis][i] = ends[order[i]];
+                values[axis][i] = keys[order[i]];
+                positions[axis][ends[order[i]]] = i;
+            }
+        }
+
+        pairs.markAll(PairTable.STALE);
+        int[] active = new int[16];
+        int[] active_position = new int[high_water];
+        int num_active = 0;
+        int[] ends = endpoints[0];
+        for (int i = 0; i < num_endpoints; i++)
+        {
+            int h = ends[i] >>> 1;
+            if ((ends[i] & 1) == 0)
+            {
+                for (int k = 0; k < num_active; k++)
+                {
+                    int other = active[k];
+                    if (boxesOverlap(h, other))
+                    {
+                        int slot = pairs.find(h, other);
+                        if (slot >= 0)
+                        {
+                            pairs.states[slot] &= ~PairTable.STALE;
+                        }
+                        else
+                        {
+                            insertPair(h, other);
+                        }
+                    }
+                }
+                if (num_active == active.length)
+                {
+                    active = Arrays.copyOf(active, active.length * 2);
+                }
+                active_position[h] = num_active;
+                active[num_active++] = h;
+            }
+            else
+            {
+                int last = active[--num_active];
+                active[active_position[h]] = last;
+                active_position[last] = active_position[h];
+            }
+        }
+        long[] keys = pairs.keys;
+        for (int slot = 0; slot < keys.length; slot++)
+        {
+            // Removal shifts later entries back, so a slot is revisited until
+            // it no longer holds a stale pair.
+            while ((keys[slot] != 0) && ((pairs.states[slot] & PairTable.STALE) != 0))
+            {
+                if ((pairs.states[slot] & PairTable.IN_PROXIMITY) != 0)
+                {
+                    in_proximity--;
+                    queueEvent(PairTable.first(keys[slot]), PairTable.second(keys[slot]), false);
+                }
+                removePair(slot);
+            }
+        }
+    }
+
+    /**
+     * Drop the endpoints and pairs of the items removed since the last
+     * update, and make their handles available for reuse.
+     */
+    private void discardRemoved()
+    {
+        for (int axis = 0; axis < dimensions; axis++)
+        {
+            int[] ends = endpoints[axis];
+            double[] vals = values[axis];
+            int n = 0;
+            for (int i = 0; i < num_endpoints; i++)
+            {
+                if (live[ends[i] >>> 1])
+                {
+                    ends[n] = ends[i];
+                    vals[n] = vals[i];
+                    positions[axis][ends[i]] = n++;
+                }
+            }
+        }
+        num_endpoints = 2 * count;
+
+        for (int i = 0; i < num_removed; i++)
+        {
+            int handle = removed_handles[i];
+            while (partner_counts[handle] > 0)
+            {
+                int slot = pairs.find(handle, partners[handle][partner_counts[handle] - 1]);
+                if ((pairs.states[slot] & PairTable.IN_PROXIMITY) != 0)
+                {
+                    in_proximity--;
+                    queueEvent(PairTable.first(pairs.keys[slot]), PairTable.second(pairs.keys[slot]), false);
+                }
+                removePair(slot);
+            }
+        }
+
+        for (int i = 0; i < num_removed; i++)
+        {
+            int handle = removed_handles[i];
+            if (num_free == free_handles.length)
+            {
+                free_handles = Arrays.copyOf(free_handles, free_handles.length * 2);
+            }
+            free_handles[num_free++] = handle;
+        }
+    }
+
+    /**
+     * Re-evaluate the proximity of an overlapping pair.
+     */
+    private void testPair(int a, int b)
+    {
+        int slot = pairs.find(a, b);
+        boolean near = inProximity(a, b);
+        boolean was_near = (pairs.states[slot] & PairTable.IN_PROXIMITY) != 0;
+        pairs.states[slot] = near ? PairTable.IN_PROXIMITY : 0;
+        if (near != was_near)
+        {
+            in_proximity += near ? 1 : -1;
+            queueEvent(PairTable.first(pairs.keys[slot]), PairTable.second(pairs.keys[slot]), near);
+        }
+    }
+
+    private void insertPair(int a, int b)
+    {
+        pairs.insert(a, b);
+        link(a, b);
+        link(b, a);
+    }
+
+    private void removePair(int slot)
+    {
+        int a = PairTable.first(pairs.keys[slot]);
+        int b = PairTable.second(pairs.keys[slot]);
+        pairs.removeSlot(slot);
+        unlink(a, b);
+        unlink(b, a);
+    }
+
+    private void link(int handle, int partner)
+    {
+        int n = partner_counts[handle];
+        if (partners[handle] == null)
+        {
+            partners[handle] = new int[4];
+        }
+        else if (n == partners[handle].length)
+        {
+            partners[handle] = Arrays.copyOf(partners[handle], n * 2);
+        }
+        partners[handle][n] = partner;
+        partner_counts[handle] = n + 1;
+    }
+
+    private void unlink(int handle, int partner)
+    {
+        int[] list = partners[handle];
+        int n = --partner_counts[handle];
+        for (int k = 0; k < n; k++)
+        {
+            if (list[k] == partner)
+            {
+                list[k] = list[n];
+                break;
+            }
+        }
+    }
+
+    private void markMoved(int handle)
+    {
+        if (!moved[handle])
+        {
+            moved[handle] = true;
+            if (num_moved == moved_handles.length)
+            {
+                moved_handles = Arrays.copyOf(moved_handles, num_moved * 2);
+            }
+            moved_handles[num_moved++] = handle;
+        }
+    }
+
+    private boolean boxesOverlap(int a, int b)
+    {
+        double ra = radii[a];
+        double rb = radii[b];
+        for (int axis = 0; axis < dimensions; axis++)
+        {
+            double[] c = coordinates[axis];
+            if ((c[a] - ra > c[b] + rb) || (c[b] - rb > c[a] + ra))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean inProximity(int a, int b)
+    {
+        double dx = coordinates[0][a] - coordinates[0][b];
+        double dy = coordinates[1][a] - coordinates[1][b];
+        double dz = coordinates[2][a] - coordinates[2][b];
+        double r = radii[a] + radii[b];
+        return dx * dx + dy * dy + dz * dz <= r * r;
+    }
+
+    private void queueEvent(int a, int b, boolean began)
+    {
+        if (num_events == event_items.length)
+        {
+            int capacity = num_events * 2;
+            event_items = Arrays.copyOf(event_items, capacity);
+            event_others = Arrays.copyOf(event_others, capacity);
+            event_item_listeners = Arrays.copyOf(event_item_listeners, capacity);
+            event_other_listeners = Arrays.copyOf(event_other_listeners, capacity);
+            event_began = Arrays.copyOf(event_began, capacity);
+        }
+        event_items[num_events] = items[a];
+        event_others[num_events] = items[b];
+        event_item_listeners[num_events] = item_listeners[a];
+        event_other_listeners[num_events] = item_listeners[b];
+        event_began[num_events] = began;
+        num_events++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void notifyListeners(double time)
+    {
+        // Removed items are released only now that their events hold them.
+        for (int i = 0; i < num_removed; i++)
+        {
+            items[removed_handles[i]] = null;
+            item_listeners[removed_handles[i]] = null;
+        }
+        num_removed = 0;
+
+        int n = num_events;
+        num_events = 0;
+        for (int i = 0; i < n; i++)
+        {
+            T item = (T) event_items[i];
+            T other = (T) event_others[i];
+            IProximityListener<? super T> item_listener = (IProximityListener<? super T>) event_item_listeners[i];
+            IProximityListener<? super T> other_listener = (IProximityListener<? super T>) event_other_listeners[i];
+            if (event_began[i])
+            {
+                if (item_listener != null)
+                {
+                    item_listener.proximityBegan(item, other, time);
+                }
+                if (other_listener != null)
+                {
+                    other_listener.proximityBegan(other, item, time);
+                }
+                for (int k = 0; k < listeners.size(); k++)
+                {
+                    listeners.get(k).proximityBegan(item, other, time);
+                }
+            }
+            else
+            {
+                if (item_listener != null)
+                {
+                    item_listener.proximityEnded(item, other, time);
+                }
+                if (other_listener != null)
+                {
+                    other_listener.proximityEnded(other, item, time);
+                }
+                for (int k = 0; k < listeners.size(); k++)
+                {
+                    listeners.get(k).proximityEnded(item, other, time);
+                }
+            }
+            event_items[i] = null;
+            event_others[i] = null;
+            event_item_listeners[i] = null;
+            event_other_listeners[i] = null;
+        }
+    }
+
+    private void checkHandle(int handle)
+    {
+        if ((handle < 0) || (handle >= high_water) || !live[handle])
+        {
+            throw new IllegalArgumentException("No item has handle " + handle + ".");
+        }
+    }
+
+    private void allocateItems(int capacity)
+    {
+        if (items == null)
+        {
+            for (int axis = 0; axis < 3; axis++)
+            {
+                coordinates[axis] = new double[capacity];
+            }
+            radii = new double[capacity];
+            items = new Object[capacity];
+            item_listeners = new Object[capacity];
+            live = new boolean[capacity];
+            moved = new boolean[capacity];
+            partners = new int[capacity][];
+            partner_counts = new int[capacity];
+            for (int axis = 0; axis < dimensions; axis++)
+            {
+                positions[axis] = new int[2 * capacity];
+            }
+        }
+        else
+        {
+            for (int axis = 0; axis < 3; axis++)
+            {
+                coordinates[axis] = Arrays.copyOf(coordinates[axis], capacity);
+            }
+            radii = Arrays.copyOf(radii, capacity);
+            items = Arrays.copyOf(items, capacity);
+            item_listeners = Arrays.copyOf(item_listeners, capacity);
+            live = Arrays.copyOf(live, capacity);
+            moved = Arrays.copyOf(moved, capacity);
+            partners = Arrays.copyOf(partners, capacity);
+            partner_counts = Arrays.copyOf(partner_counts, capacity);
+            for (int axis = 0; axis < dimensions; axis++)
+            {
+                positions[axis] = Arrays.copyOf(positions[axis], 2 * capacity);
+            }
+        }
+    }
+
+    /**
+     * An open addressing hash set of unordered pairs of handles, with a state
+     * byte for each.
+     */
+    private static final class PairTable
+    {
+
+        static final byte IN_PROXIMITY = 1;
+        static final byte STALE = 4;
+
+        long[] keys = new long[64];
+        byte[] states = new byte[64];
+        int size = 0;
+
+        static int first(long key)
+        {
+            return (int) (key >>> 32) - 1;
+        }
+
+        static int second(long key)
+        {
+            return (int) key - 1;
+        }
+
+        private static long key(int a, int b)
+        {
+            return (a < b) ? (((long) (a + 1) << 32) | (b + 1)) : (((long) (b + 1) << 32) | (a + 1));
+        }
+
+        private int home(long key)
+        {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 40) & (keys.length - 1);
+        }
+
+        int find(int a, int b)
+        {
+            long key = key(a, b);
+            int mask = keys.length - 1;
+            for (int slot = home(key); ; slot = (slot + 1) & mask)
+            {
+                if (keys[slot] == key)
+                {
+                    return slot;
+                }
+                if (keys[slot] == 0)
+                {
+                    return -1;
+                }
+            }
+        }
+
+        void insert(int a, int b)
+        {
+            if (2 * (size + 1) > keys.length)
+            {
+                resize(keys.length * 2);
+            }
+            put(key(a, b), (byte) 0);
+            size++;
+        }
+
+        private void put(long key, byte state)
+        {
+            int mask = keys.length - 1;
+            int slot = home(key);
+            while (keys[slot] != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            states[slot] = state;
+        }
+
+        /**
+         * Remove the entry in a slot, shifting back the entries which follow
+         * it in its probe sequence.
+         */
+        void removeSlot(int slot)
+        {
+            int mask = keys.length - 1;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (keys[next] != 0)
+            {
+                int home = home(keys[next]);
+                // Move the entry back if its home is not cyclically within
+                // (hole, next].
+                if (((next - home) & mask) >= ((next - hole) & mask))
+                {
+                    keys[hole] = keys[next];
+                    states[hole] = states[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[hole] = 0;
+            states[hole] = 0;
+            size--;
+        }
+
+        void markAll(byte flag)
+        {
+            for (int slot = 0; slot < keys.length; slot++)
+            {
+                if (keys[slot] != 0)
+                {
+                    states[slot] |= flag;
+                }
+            }
+        }
+
+        private void resize(int capacity)
+        {
+            long[] old_keys = keys;
+            byte[] old_states = states;
+            keys = new long[capacity];
+            states = new byte[capacity];
+            for (int i = 0; i < old_keys.length; i++)
+            {
+                if (old_keys[i] != 0)
+                {
+                    put(old_keys[i], old_states[i]);
+                }
+            }
+        }
+    }
+}
@@ -27,7 +27,8 @@ import org.apache.logging.log4j.*;
  * A convenient set of time related constants and conversion methods. This class
  * defines time constants and convenience methods which make it easy to express
  * other units of time (e.g. days, weeks) as seconds. Methods are also provided
- * for the generation of random time values from a specified range.
+ * for the generation of random time values from a specified range, drawn from
+ * the calling thread's stream of the current RandomStreams provider.
  * 
  * @author Jeff Ridder
  */
@@ -35,7 +36,11 @@ public class TimeUtil
 {
 
     /**
+     * @deprecated The random time methods of this class draw from the
+     * calling thread's stream of the current RandomStreams provider, which is
+     * seeded by the universe, and no longer use this generator.
      */
+    @Deprecated
     public static final Random random = new Random();
 
     /**
@@ -87,7 +92,7 @@ public class TimeUtil
      */
     public static double randomMilliseconds(double milliseconds_range)
     {
-        double milliseconds = random.nextDouble() * milliseconds_range;
+        double milliseconds = RandomStreams.currentStream().nextDouble() * milliseconds_range;
         return milliseconds(milliseconds);
     }
 
@@ -100,7 +105,7 @@ public class TimeUtil
      */
     public static double randomMinutes(double minutes_range)
     {
-        double minutes = random.nextDouble() * minutes_range;
+        double minutes = RandomStreams.currentStream().nextDouble() * minutes_range;
         return minutes(minutes);
     }
 
@@ -113,7 +118,7 @@ public class TimeUtil
      */
     public static double randomHours(double hours_range)
     {
-        double hours = random.nextDouble() * hours_range;
+        double hours = RandomStreams.currentStream().nextDouble() * hours_range;
         return hours(hours);
     }
 
@@ -126,7 +131,7 @@ public class TimeUtil
      */
     public static double randomDays(double days_range)
     {
-        double days = random.nextDouble() * days_range;
+        double days = RandomStreams.currentStream().nextDouble() * days_range;
         return days(days);
     }
 
@@ -139,7 +144,7 @@ public class TimeUtil
      */
     public static double randomWeeks(double weeks_range)
     {
-        double weeks = random.nextDouble() * weeks_range;
+        double weeks = RandomStreams.currentStream().nextDouble() * weeks_range;
         return weeks(weeks);
     }
 
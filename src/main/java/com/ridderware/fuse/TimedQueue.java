@@ -0,0 +1,178 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import java.util.Arrays;
+
+/**
+ * An array based binary min-heap of timed entries, ordered by time and then
+ * by sequence number, together with a pool of released entries for reuse.
+ * The owner assigns the time and a unique sequence number before offering an
+ * entry, so that entries due at the same time are polled in the order of
+ * their sequence numbers. Not thread safe. Package scope. Only used by the
+ * simulation framework.
+ *
+ * @param <E> type of entry.
+ * @author Jeff Ridder
+ */
+final class TimedQueue<E extends TimedQueue.Entry>
+{
+
+    /**
+     * An entry of a timed queue. Subclasses carry the payload and clear it
+     * when the entry is released.
+     */
+    abstract static class Entry
+    {
+
+        double time;
+        long sequence;
+
+        /**
+         * Drop the references held by this entry before it is pooled.
+         */
+        abstract void clear();
+    }
+
+    private Entry[] queue = new Entry[64];
+    private int size = 0;
+    private Entry[] pool = new Entry[64];
+    private int pool_size = 0;
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Returns the earliest time in the queue, or Double.MAX_VALUE if the queue
+     * is empty.
+     *
+     * @return earliest time.
+     */
+    double peekTime()
+    {
+        return (size == 0) ? Double.MAX_VALUE : queue[0].time;
+    }
+
+    /**
+     * Returns a released entry for reuse, or null if there is none.
+     *
+     * @return pooled entry or null.
+     */
+    @SuppressWarnings("unchecked")
+    E obtain()
+    {
+        return (pool_size > 0) ? (E) pool[--pool_size] : null;
+    }
+
+    /**
+     * Clear an entry which is no longer needed and return it to the pool.
+     *
+     * @param entry the entry, which must not be queued.
+     */
+    void release(E entry)
+    {
+        entry.clear();
+        if (pool_size == pool.length)
+        {
+            pool = Arrays.copyOf(pool, pool_size * 2);
+        }
+        pool[pool_size++] = entry;
+    }
+
+    /**
+     * Release every queued entry.
+     */
+    @SuppressWarnings("unchecked")
+    void clear()
+    {
+        while (size > 0)
+        {
+            E entry = (E) queue[--size];
+            queue[size] = null;
+            release(entry);
+        }
+    }
+
+    void offer(E entry)
+    {
+        if (size == queue.length)
+        {
+            queue = Arrays.copyOf(queue, size * 2);
+        }
+        int index = size++;
+        while (index > 0)
+        {
+            int parent = (index - 1) >>> 1;
+            if (!before(entry, queue[parent]))
+            {
+                break;
+            }
+            queue[index] = queue[parent];
+            index = parent;
+        }
+        queue[index] = entry;
+    }
+
+    /**
+     * Removes and returns the earliest entry. The queue must not be empty.
+     *
+     * @return earliest entry.
+     */
+    @SuppressWarnings("unchecked")
+    E poll()
+    {
+        Entry result = queue[0];
+        Entry last = queue[--size];
+        queue[size] = null;
+        if (size > 0)
+        {
+            int index = 0;
+            int half = size >>> 1;
+            while (index < half)
+            {
+                int child = (index << 1) + 1;
+                int right = child + 1;
+                if ((right < size) && before(queue[right], queue[child]))
+                {
+                    child = right;
+                }
+                if (!before(queue[child], last))
+                {
+                    break;
+                }
+                queue[index] = queue[child];
+                index = child;
+            }
+            queue[index] = last;
+        }
+        return (E) result;
+    }
+
+    private static boolean before(Entry a, Entry b)
+    {
+        return (a.time < b.time) || ((a.time == b.time) && (a.sequence < b.sequence));
+    }
+}
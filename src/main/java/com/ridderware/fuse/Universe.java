@@ -20,6 +20,13 @@ package com.ridderware.fuse;
 
 import com.ridderware.jrandom.MersenneTwisterFast;
 import com.ridderware.jrandom.RandomNumberGenerator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Stream;
 
 /**
  * A Universe defines time boundaries and a scheduling policy for a collection
@@ -73,6 +80,80 @@ public abstract class Universe {
      */
     protected long state_transition_count = 0;
 
+    /**
+     * True if idle stretches in which only catch-up behaviors are scheduled
+     * are skipped over rather than stepped through.
+     */
+    protected boolean fast_forward = false;
+
+    /**
+     * The number of catch-up behavior events accounted for by fast-forward
+     * rather than performed.
+     */
+    protected long elided_event_count = 0;
+
+    /**
+     * The base seed from which per-replication seeds are derived.
+     */
+    protected long seed = 0;
+
+    /**
+     * The number of warm resets since the universe was last cleared by
+     * resetSimulation. Zero for the first replication.
+     */
+    protected int replication = 0;
+
+    /**
+     * Counters by name, and counters of the agents in each state by state
+     * name.
+     */
+    private final HashMap<String, SimulationCounter> counters = new HashMap<>();
+    private final HashMap<String, SimulationCounter> state_counters = new HashMap<>();
+
+    /**
+     * Time-in-state accounting, or null if not requested.
+     */
+    private StateOccupancy occupancy = null;
+
+    /**
+     * Agents by state, class and tag, or null if not requested.
+     */
+    private AgentIndex agent_index = null;
+
+    /**
+     * Columnar agent attributes, or null if not requested.
+     */
+    private AttributeStore attribute_store = null;
+
+    /**
+     * Random streams seeded from the replication seed, or null if not yet
+     * requested.
+     */
+    private RandomStreams random_streams = null;
+
+    /**
+     * All registered watchpoints.
+     */
+    private final ArrayList<Watchpoint> watchpoints = new ArrayList<>();
+
+    /**
+     * The dormant populations added to this universe, whose activated agents
+     * are removed at each warm reset.
+     */
+    private final ArrayList<DormantPopulation> dormant_populations = new ArrayList<>();
+
+    /**
+     * The number of agents the agents set of a subclass can hold before it
+     * must rehash.
+     */
+    private int agent_capacity = 3072;
+
+    /**
+     * Services which have asked, from another thread, for their service time
+     * to be recomputed.
+     */
+    private final ConcurrentLinkedQueue<ServiceAgent> deferred_reschedules = new ConcurrentLinkedQueue<>();
+
     /**
      * A flag which indicates that some external entity has requested the
      * simulation to stop at the completion of the current simulation step. No
@@ -120,6 +201,84 @@ public abstract class Universe {
         this.stopped = stopped;
     }
 
+    /**
+     * Enable or disable fast-forward. When enabled, whenever the next events
+     * are all those of ICatchUpBehavior instances, the universe advances those
+     * behaviors in bulk up to the next event of any other behavior rather than
+     * performing their events one at a time. Universes which do not support
+     * fast-forward ignore this setting.
+     *
+     * @param fast_forward true to enable fast-forward.
+     * @see ICatchUpBehavior
+     */
+    public void setFastForward(boolean fast_forward) {
+        this.fast_forward = fast_forward;
+    }
+
+    /**
+     * Returns true if fast-forward is enabled.
+     *
+     * @return true if fast-forward is enabled.
+     */
+    public boolean isFastForward() {
+        return this.fast_forward;
+    }
+
+    /**
+     * The number of events accounted for by fast-forward rather than performed
+     * since the simulation was last reset.
+     *
+     * @return elided event count.
+     */
+    public long getElidedEventCount() {
+        return this.elided_event_count;
+    }
+
+    /**
+     * Sets the base seed from which per-replication seeds are derived.
+     *
+     * @param seed base seed.
+     * @see #getReplicationSeed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        reseedRandomStreams();
+    }
+
+    /**
+     * Gets the base seed from which per-replication seeds are derived.
+     *
+     * @return base seed.
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * The number of warm resets since the universe was last cleared by
+     * resetSimulation. Zero for the first replication.
+     *
+     * @return replication index.
+     */
+    public int getReplication() {
+        return this.replication;
+    }
+
+    /**
+     * A seed unique to the current replication, derived from the base seed
+     * and the replication index. Agents and behaviors which own random number
+     * generators should re-seed them from this value in their reset methods so
+     * that every replication is reproducible.
+     *
+     * @return replication seed.
+     */
+    public long getReplicationSeed() {
+        long z = seed + (replication + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
     /**
      * Sets the DefaultRandomNumberGenerator attribute of the Universe object
      *
@@ -239,13 +398,228 @@ public abstract class Universe {
      * @param end_time
      */
     public void resetSimulation(double start_time, double end_time) {
+        resetRun(start_time, end_time);
+        this.replication = 0;
+        reseedRandomStreams();
+        dormant_populations.clear();
+        if (agent_index != null) {
+            agent_index.clear();
+        }
+        if (attribute_store != null) {
+            attribute_store.clear();
+        }
+    }
+
+    /**
+     * Prepare for another replication of the current population without
+     * discarding it. The simulation time boundaries and bookkeeping statistics
+     * are reset as in resetSimulation and the replication index is advanced.
+     * Universes which support warm reset retain their agents and behaviors and
+     * clear only their schedules; before the next simulation step every agent
+     * is initialized and reset again and every behavior is reset and
+     * rescheduled, exactly as when the agents were first added.
+     *
+     * @param start_time
+     * @param end_time
+     * @see #getReplicationSeed
+     */
+    public void warmResetSimulation(double start_time, double end_time) {
+        // Return the agents activated from dormant populations to dormancy,
+        // before the state counters are reset, so that every replication
+        // starts from the same population.
+        for (int i = 0; i < dormant_populations.size(); i++) {
+            dormant_populations.get(i).deactivateAll();
+        }
+        resetRun(start_time, end_time);
+        ++this.replication;
+        reseedRandomStreams();
+    }
+
+    private void reseedRandomStreams() {
+        if (random_streams != null) {
+            random_streams.setSeed(getReplicationSeed());
+        }
+    }
+
+    private void resetRun(double start_time, double end_time) {
         this.start_time = start_time;
         this.end_time = end_time;
         this.current_time = 0.;
         this.performed_behavior_count = 0;
+        this.elided_event_count = 0;
         this.state_transition_count = 0;
         this.stopped = false;
         this.done = false;
+        for (SimulationCounter counter : counters.values()) {
+            counter.reset();
+        }
+        for (SimulationCounter counter : state_counters.values()) {
+            counter.reset();
+        }
+        if (occupancy != null) {
+            occupancy.reset(start_time);
+        }
+        for (Watchpoint watchpoint : watchpoints) {
+            watchpoint.reset();
+        }
+    }
+
+    /**
+     * Returns the counter with the specified name, creating it if necessary.
+     * Counters and their watchpoints persist across simulation runs; their
+     * values are set to zero when the simulation is reset.
+     *
+     * @param name counter name.
+     * @return the counter.
+     */
+    public SimulationCounter getCounter(String name) {
+        SimulationCounter counter = counters.get(name);
+        if (counter == null) {
+            counter = new SimulationCounter(name);
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Returns a counter of the agents whose current state has the specified
+     * name, creating it if necessary. The universe updates the counter as
+     * agents change state. Only transitions made after the counter is created
+     * are counted, so state counters should be created before the simulation
+     * run begins. Agents in the UNDEFINED state are not counted.
+     *
+     * @param state_name state name.
+     * @return the counter.
+     */
+    public SimulationCounter getStateCounter(String state_name) {
+        SimulationCounter counter = state_counters.get(state_name);
+        if (counter == null) {
+            counter = new SimulationCounter("state " + state_name);
+            state_counters.put(state_name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Returns the time-in-state accounting for this universe, creating it if
+     * necessary. Only transitions made after it is created are accounted, so
+     * it should be created before the simulation run begins.
+     *
+     * @return the state occupancy tracker.
+     */
+    public StateOccupancy getStateOccupancy() {
+        if (occupancy == null) {
+            occupancy = new StateOccupancy(this);
+        }
+        return occupancy;
+    }
+
+    /**
+     * Returns the random stream provider of this universe, creating it if
+     * necessary. It is seeded from the replication seed and re-seeded
+     * whenever the seed changes or the universe is reset, so draws from it
+     * are reproducible for a fixed seed. It is made current on the thread
+     * which runs the universe.
+     *
+     * @return the random stream provider.
+     * @see #getReplicationSeed
+     */
+    public RandomStreams getRandomStreams() {
+        if (random_streams == null) {
+            random_streams = new RandomStreams(getReplicationSeed());
+        }
+        return random_streams;
+    }
+
+    /**
+     * Returns the index of the agents in this universe by state, class and
+     * tag, creating it if necessary. Only agents added after the index is
+     * created are indexed, so it should be created before the universe is
+     * populated.
+     *
+     * @return the agent index.
+     */
+    public AgentIndex getAgentIndex() {
+        if (agent_index == null) {
+            agent_index = new AgentIndex();
+        }
+        return agent_index;
+    }
+
+    /**
+     * Returns the columnar attribute store of this universe, creating a store
+     * on the heap if none has been installed. Only agents added after the
+     * store is created are assigned ids, so it should be created before the
+     * universe is populated.
+     *
+     * @return the attribute store.
+     */
+    public AttributeStore getAttributeStore() {
+        if (attribute_store == null) {
+            attribute_store = new AttributeStore();
+        }
+        return attribute_store;
+    }
+
+    /**
+     * Install an attribute store, for example one held off the heap. Only
+     * agents added after the store is installed are assigned ids.
+     *
+     * @param attribute_store the attribute store.
+     */
+    public void setAttributeStore(AttributeStore attribute_store) {
+        this.attribute_store = attribute_store;
+    }
+
+    /**
+     * Register a watchpoint whose condition depends on the specified counters.
+     * The condition is re-evaluated whenever one of the counters changes, and
+     * never otherwise, so no polling of agents is needed to detect it.
+     *
+     * @param watchpoint the watchpoint.
+     * @param inputs the counters on which the condition depends.
+     * @see Watchpoint
+     */
+    public void watch(Watchpoint watchpoint, SimulationCounter... inputs) {
+        if (watchpoint != null) {
+            watchpoint.associateWithUniverse(this);
+            watchpoints.add(watchpoint);
+            for (SimulationCounter input : inputs) {
+                input.addWatchpoint(watchpoint);
+            }
+        }
+    }
+
+    /**
+     * Used internally by the framework to maintain the state counters and
+     * state occupancy after an agent has changed state.
+     *
+     * @param agent the agent.
+     * @param old_state the state the agent has left.
+     * @param new_state the state the agent has entered.
+     */
+    void agentStateChanged(IAgent agent, IAgentState old_state, IAgentState new_state) {
+        if (occupancy != null) {
+            occupancy.transition(agent, old_state, new_state, current_time);
+        }
+        if ((agent_index != null) && (agent instanceof Agent)) {
+            agent_index.update((Agent) agent);
+        }
+        if (state_counters.isEmpty()) {
+            return;
+        }
+        if ((old_state != null) && (old_state != AgentState.UNDEFINED)) {
+            SimulationCounter counter = state_counters.get(old_state.getName());
+            if (counter != null) {
+                counter.decrement();
+            }
+        }
+        if ((new_state != null) && (new_state != AgentState.UNDEFINED)) {
+            SimulationCounter counter = state_counters.get(new_state.getName());
+            if (counter != null) {
+                counter.increment();
+            }
+        }
     }
 
     /**
@@ -258,6 +632,103 @@ public abstract class Universe {
     public void addAgent(Agent agent) {
         if (agent != null) {
             agent.associateWithUniverse(this);
+            if (agent_index != null) {
+                agent_index.add(agent);
+            }
+            if (attribute_store != null) {
+                attribute_store.register(agent);
+            }
+            if (agent instanceof DormantPopulation) {
+                dormant_populations.add((DormantPopulation) agent);
+            }
+        }
+    }
+
+    /**
+     * Remove an agent from this Universe. Its behaviors are disabled and
+     * removed from the schedule, it is removed from the agent index, and it no
+     * longer counts towards the population of its state. An agent may remove
+     * itself while performing one of its behaviors. Subclasses remove the
+     * agent from their own registries and then invoke this method.
+     *
+     * @param agent The agent to remove.
+     */
+    public void removeAgent(Agent agent) {
+        if ((agent != null) && (agent.getUniverse() == this)) {
+            // The agent leaves its state as far as the state counters and
+            // state occupancy are concerned.
+            agentStateChanged(agent, agent.getState(), null);
+            if (agent_index != null) {
+                agent_index.remove(agent);
+            }
+            if (attribute_store != null) {
+                attribute_store.unregister(agent);
+            }
+            if (agent instanceof DormantPopulation) {
+                dormant_populations.remove(agent);
+            }
+            for (IBehavior<? extends IAgent> behavior : agent.getBehaviors()) {
+                if (behavior instanceof Behavior) {
+                    ((Behavior) behavior).setEnabledQuietly(false);
+                }
+            }
+            agent.associateWithUniverse(null);
+        }
+    }
+
+    /**
+     * Used internally by the framework to keep the agent index current after
+     * an agent's state has been reset without a transition.
+     *
+     * @param agent the agent.
+     */
+    void agentStateReset(Agent agent) {
+        if (agent_index != null) {
+            agent_index.update(agent);
+        }
+    }
+
+    /**
+     * Used internally by the framework to keep the agent index current when
+     * an agent's tags change.
+     *
+     * @param agent the agent.
+     * @param position position of the tag among the agent's tags.
+     * @param added true if the tag was added, false if it is being removed.
+     */
+    void agentTagChanged(Agent agent, int position, boolean added) {
+        if (agent_index != null) {
+            agent_index.tagChanged(agent, position, added);
+        }
+    }
+
+    /**
+     * Add a collection of agents to this Universe. Equivalent to invoking
+     * addAgent for each agent in iteration order, but universes may presize
+     * their internal structures once for the whole collection.
+     *
+     * @param agents The agents to add.
+     */
+    public void addAgents(Collection<? extends Agent> agents) {
+        if (agents != null) {
+            for (Agent agent : agents) {
+                addAgent(agent);
+            }
+        }
+    }
+
+    /**
+     * Add a stream of agents to this Universe in encounter order. The stream
+     * is consumed sequentially and no intermediate collection is built.
+     *
+     * @param agents The agents to add.
+     */
+    public void addAgents(Stream<? extends Agent> agents) {
+        if (agents != null) {
+            Iterator<? extends Agent> iterator = agents.sequential().iterator();
+            while (iterator.hasNext()) {
+                addAgent(iterator.next());
+            }
         }
     }
 
@@ -271,12 +742,81 @@ public abstract class Universe {
      */
     public abstract void behaviorChanged(Behavior behavior);
 
+    /**
+     * Used internally by the framework to grow the agents set of a subclass,
+     * if necessary, so that the specified number of additional agents can be
+     * added without rehashing.
+     *
+     * @param agents the agents set of the subclass.
+     * @param additional the number of agents about to be added.
+     * @return the set to use from now on: the same set or a larger copy.
+     */
+    LinkedHashSet<IAgent> ensureAgentCapacity(LinkedHashSet<IAgent> agents, int additional) {
+        // The set doubles its table, and so its threshold, whenever it grows
+        // past the threshold on its own.
+        while (agents.size() > agent_capacity) {
+            agent_capacity *= 2;
+        }
+        int required = agents.size() + additional;
+        if (required > agent_capacity) {
+            // Grow geometrically, so that adding agents in many batches
+            // copies the set only a logarithmic number of times.
+            int capacity = agent_capacity;
+            while ((capacity < required) && (capacity < (1 << 29))) {
+                capacity *= 2;
+            }
+            LinkedHashSet<IAgent> resized = new LinkedHashSet<>((int) (capacity / 0.75f));
+            resized.addAll(agents);
+            agents = resized;
+            agent_capacity = capacity;
+        }
+        return agents;
+    }
+
+    /**
+     * Queue a reschedule requested by a service from a thread other than the
+     * one running the simulation. Safe to call from any thread.
+     *
+     * @param service the service to reschedule.
+     */
+    void deferReschedule(ServiceAgent service) {
+        deferred_reschedules.add(service);
+    }
+
+    /**
+     * Apply the reschedules queued by deferReschedule. Must be called on the
+     * thread running the simulation: by run and stepTo before each step, and
+     * by a process behavior each time its process yields control.
+     */
+    void applyDeferredReschedules() {
+        ServiceAgent service;
+        while ((service = deferred_reschedules.poll()) != null) {
+            service.applyRequestedReschedule(this);
+        }
+    }
+
+    /**
+     * Inform the Universe that a group of behaviors has changed together, as
+     * happens when an agent's state transition enables and disables its state
+     * gated behaviors. Universes with a priority queue override this method
+     * to update the schedule in a single batched operation.
+     *
+     * @param behaviors The behaviors which have changed.
+     */
+    public void behaviorsChanged(Collection<? extends Behavior> behaviors) {
+        for (Behavior behavior : behaviors) {
+            behaviorChanged(behavior);
+        }
+    }
+
     /**
      * Execute behaviors until we are stopped or the scheduling algorithm
      * indicates that the simulation is done.
      */
     public void run() {
+        getRandomStreams().makeCurrent();
         while ((!stopped) && (!done)) {
+            applyDeferredReschedules();
             step();
         }
     }
@@ -295,7 +835,9 @@ public abstract class Universe {
      * @param time The time tick value at which to pause the simulation.
      */
     public void stepTo(double time) {
+        getRandomStreams().makeCurrent();
         while ((current_time <= time) && (!stopped) && (!done)) {
+            applyDeferredReschedules();
             step();
         }
     }
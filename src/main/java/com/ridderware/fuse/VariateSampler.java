@@ -0,0 +1,266 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import com.ridderware.jrandom.RandomNumberGenerator;
+
+/**
+ * A sampler of random variates from a particular distribution, drawing its
+ * uniform variates from a RandomNumberGenerator. The exponential and normal
+ * samplers use the ziggurat method, so most samples need no call to Math.log
+ * or Math.exp. The lognormal sampler applies Math.exp to a normal sample and
+ * the Weibull sampler applies Math.pow to an exponential sample. Samples may
+ * be drawn one at a time or generated a block at a time into a primitive
+ * array, and any sampler can be wrapped by buffered to draw a block at a time
+ * behind a one at a time interface.
+ * <p>
+ * <pre>
+ * private final VariateSampler delay = VariateSampler.exponential(rng, 30.0);
+ *
+ * public double getNextScheduledTime(double current_time)
+ * {
+ *     return current_time + delay.sample();
+ * }
+ * </pre>
+ *
+ * @author Jeff Ridder
+ * @see AliasSampler
+ * @see EmpiricalSampler
+ */
+public abstract class VariateSampler
+{
+
+    protected final RandomNumberGenerator rng;
+
+    /**
+     * VariateSampler constructor.
+     *
+     * @param rng the source of uniform variates.
+     */
+    protected VariateSampler(RandomNumberGenerator rng)
+    {
+        if (rng == null)
+        {
+            throw new IllegalArgumentException("A random number generator is required.");
+        }
+        this.rng = rng;
+    }
+
+    /**
+     * Returns the next variate.
+     *
+     * @return variate.
+     */
+    public abstract double sample();
+
+    /**
+     * Generate a block of variates.
+     *
+     * @param values receives the variates.
+     * @param offset index of the first variate.
+     * @param length number of variates.
+     */
+    public void fill(double[] values, int offset, int length)
+    {
+        for (int i = offset; i < offset + length; i++)
+        {
+            values[i] = sample();
+        }
+    }
+
+    /**
+     * Returns a sampler which draws variates from this one a block at a time.
+     *
+     * @param block_size number of variates per block.
+     * @return buffered sampler.
+     */
+    public VariateSampler buffered(int block_size)
+    {
+        return new Buffered(this, block_size);
+    }
+
+    /**
+     * Returns the source of the uniform variates of this sampler.
+     *
+     * @return random number generator.
+     */
+    public RandomNumberGenerator getRandomNumberGenerator()
+    {
+        return rng;
+    }
+
+    /**
+     * Uniform variates in [low, high).
+     *
+     * @param rng the generator.
+     * @param low lower bound.
+     * @param high upper bound.
+     * @return sampler.
+     */
+    public static VariateSampler uniform(RandomNumberGenerator rng, final double low, final double high)
+    {
+        return new VariateSampler(rng)
+        {
+            @Override
+            public double sample()
+            {
+                return low + (high - low) * this.rng.nextDouble();
+            }
+        };
+    }
+
+    /**
+     * Exponential variates.
+     *
+     * @param rng the generator.
+     * @param mean the mean.
+     * @return sampler.
+     */
+    public static VariateSampler exponential(RandomNumberGenerator rng, final double mean)
+    {
+        return new VariateSampler(rng)
+        {
+            @Override
+            public double sample()
+            {
+                return mean * Ziggurat.exponential(this.rng);
+            }
+
+            @Override
+            public void fill(double[] values, int offset, int length)
+            {
+                for (int i = offset; i < offset + length; i++)
+                {
+                    values[i] = mean * Ziggurat.exponential(this.rng);
+                }
+            }
+        };
+    }
+
+    /**
+     * Normal variates.
+     *
+     * @param rng the generator.
+     * @param mean the mean.
+     * @param standard_deviation the standard deviation.
+     * @return sampler.
+     */
+    public static VariateSampler normal(RandomNumberGenerator rng, final double mean, final double standard_deviation)
+    {
+        return new VariateSampler(rng)
+        {
+            @Override
+            public double sample()
+            {
+                return mean + standard_deviation * Ziggurat.normal(this.rng);
+            }
+
+            @Override
+            public void fill(double[] values, int offset, int length)
+            {
+                for (int i = offset; i < offset + length; i++)
+                {
+                    values[i] = mean + standard_deviation * Ziggurat.normal(this.rng);
+                }
+            }
+        };
+    }
+
+    /**
+     * Lognormal variates, whose logarithm is normal with the specified
+     * parameters.
+     *
+     * @param rng the generator.
+     * @param mu mean of the logarithm.
+     * @param sigma standard deviation of the logarithm.
+     * @return sampler.
+     */
+    public static VariateSampler lognormal(RandomNumberGenerator rng, final double mu, final double sigma)
+    {
+        return new VariateSampler(rng)
+        {
+            @Override
+            public double sample()
+            {
+                return Math.exp(mu + sigma * Ziggurat.normal(this.rng));
+            }
+        };
+    }
+
+    /**
+     * Weibull variates.
+     *
+     * @param rng the generator.
+     * @param shape the shape parameter.
+     * @param scale the scale parameter.
+     * @return sampler.
+     */
+    public static VariateSampler weibull(RandomNumberGenerator rng, final double shape, final double scale)
+    {
+        if (shape == 1.0)
+        {
+            return exponential(rng, scale);
+        }
+        final double exponent = 1.0 / shape;
+        return new VariateSampler(rng)
+        {
+            @Override
+            public double sample()
+            {
+                return scale * Math.pow(Ziggurat.exponential(this.rng), exponent);
+            }
+        };
+    }
+
+    /**
+     * A sampler which draws from another a block at a time.
+     */
+    private static final class Buffered extends VariateSampler
+    {
+
+        private final VariateSampler source;
+        private final double[] block;
+        private int next;
+
+        private Buffered(VariateSampler source, int block_size)
+        {
+            super(source.rng);
+            this.source = source;
+            this.block = new double[Math.max(1, block_size)];
+            this.next = block.length;
+        }
+
+        @Override
+        public double sample()
+        {
+            if (next == block.length)
+            {
+                source.fill(block, 0, block.length);
+                next = 0;
+            }
+            return block[next++];
+        }
+
+        @Override
+        public VariateSampler buffered(int block_size)
+        {
+            return (block_size == block.length) ? this : source.buffered(block_size);
+        }
+    }
+}
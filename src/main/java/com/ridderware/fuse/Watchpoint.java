@@ -0,0 +1,157 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+/**
+ * A condition over one or more SimulationCounters which is re-evaluated only
+ * when one of those counters changes. A watchpoint fires when its condition
+ * becomes true, that is, on a transition from not triggered to triggered. It
+ * does not fire again until the condition has become false and then true once
+ * more. The condition is considered false at the start of each simulation run.
+ * <p>
+ * By default firing stops the simulation at the end of the current step.
+ * Override fire to take some other action.
+ *
+ * @author Jeff Ridder
+ * @see Universe#watch
+ */
+public abstract class Watchpoint
+{
+
+    private Universe universe = null;
+    private boolean triggered = false;
+    private long fire_count = 0;
+
+    /**
+     * The condition being watched. It should depend only on the counters the
+     * watchpoint was registered with.
+     *
+     * @return true if the condition holds.
+     */
+    protected abstract boolean isTriggered();
+
+    /**
+     * Invoked when the condition becomes true. Stops the simulation.
+     */
+    protected void fire()
+    {
+        universe.setStopped(true);
+    }
+
+    /**
+     * The universe with which this watchpoint is registered.
+     *
+     * @return universe.
+     */
+    public Universe getUniverse()
+    {
+        return universe;
+    }
+
+    /**
+     * The number of times this watchpoint has fired in the current run.
+     *
+     * @return fire count.
+     */
+    public long getFireCount()
+    {
+        return fire_count;
+    }
+
+    /**
+     * Creates a watchpoint which stops the simulation when the counter reaches
+     * or exceeds the threshold.
+     *
+     * @param counter the counter to watch.
+     * @param threshold the threshold.
+     * @return the watchpoint, to be registered with Universe.watch.
+     */
+    public static Watchpoint whenAtLeast(final SimulationCounter counter, final long threshold)
+    {
+        return new Watchpoint()
+        {
+            @Override
+            protected boolean isTriggered()
+            {
+                return counter.get() >= threshold;
+            }
+
+            @Override
+            public String toString()
+            {
+                return "[" + counter.getName() + " >= " + threshold + "]";
+            }
+        };
+    }
+
+    /**
+     * Creates a watchpoint which stops the simulation when the counter falls
+     * to or below the threshold.
+     *
+     * @param counter the counter to watch.
+     * @param threshold the threshold.
+     * @return the watchpoint, to be registered with Universe.watch.
+     */
+    public static Watchpoint whenAtMost(final SimulationCounter counter, final long threshold)
+    {
+        return new Watchpoint()
+        {
+            @Override
+            protected boolean isTriggered()
+            {
+                return counter.get() <= threshold;
+            }
+
+            @Override
+            public String toString()
+            {
+                return "[" + counter.getName() + " <= " + threshold + "]";
+            }
+        };
+    }
+
+    /**
+     * Re-evaluate the condition after an input has changed.
+     */
+    final void evaluate()
+    {
+        boolean now = isTriggered();
+        if (now && !triggered)
+        {
+            triggered = true;
+            fire_count++;
+            fire();
+        }
+        else if (!now)
+        {
+            triggered = false;
+        }
+    }
+
+    void associateWithUniverse(Universe universe)
+    {
+        this.universe = universe;
+    }
+
+    void reset()
+    {
+        triggered = false;
+        fire_count = 0;
+    }
+}
@@ -0,0 +1,145 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse;
+
+import com.ridderware.jrandom.RandomNumberGenerator;
+
+/**
+ * Ziggurat samplers for the standard exponential and normal distributions,
+ * after Marsaglia and Tsang. Each sample takes one uniform variate from the
+ * generator, whose 53 bits select one of 256 layers and a position within it;
+ * about 99% of samples are accepted at once with no call to Math.log or
+ * Math.exp. Package scope. Only used by the simulation framework.
+ *
+ * @author Jeff Ridder
+ */
+final class Ziggurat
+{
+
+    private static final int LAYERS = 256;
+
+    private static final double EXPONENTIAL_R = 7.69711747013104972;
+    private static final double EXPONENTIAL_V = 3.949659822581572e-3;
+    private static final double NORMAL_R = 3.6541528853610088;
+    private static final double NORMAL_V = 4.92867323399e-3;
+
+    private static final double[] exponential_x = new double[LAYERS + 1];
+    private static final double[] exponential_f = new double[LAYERS + 1];
+    private static final double[] normal_x = new double[LAYERS + 1];
+    private static final double[] normal_f = new double[LAYERS + 1];
+
+    static
+    {
+        exponential_x[0] = EXPONENTIAL_V / Math.exp(-EXPONENTIAL_R);
+        exponential_x[1] = EXPONENTIAL_R;
+        for (int i = 1; i < LAYERS - 1; i++)
+        {
+            exponential_x[i + 1] = -Math.log(EXPONENTIAL_V / exponential_x[i] + Math.exp(-exponential_x[i]));
+        }
+        exponential_x[LAYERS] = 0;
+        for (int i = 0; i <= LAYERS; i++)
+        {
+            exponential_f[i] = Math.exp(-exponential_x[i]);
+        }
+
+        normal_x[0] = NORMAL_V / Math.exp(-0.5 * NORMAL_R * NORMAL_R);
+        normal_x[1] = NORMAL_R;
+        for (int i = 1; i < LAYERS - 1; i++)
+        {
+            normal_x[i + 1] = Math.sqrt(-2 * Math.log(NORMAL_V / normal_x[i]
+                + Math.exp(-0.5 * normal_x[i] * normal_x[i])));
+        }
+        normal_x[LAYERS] = 0;
+        for (int i = 0; i <= LAYERS; i++)
+        {
+            normal_f[i] = Math.exp(-0.5 * normal_x[i] * normal_x[i]);
+        }
+    }
+
+    private Ziggurat()
+    {
+    }
+
+    /**
+     * Returns an exponential variate with mean one.
+     *
+     * @param rng the generator.
+     * @return variate.
+     */
+    static double exponential(RandomNumberGenerator rng)
+    {
+        while (true)
+        {
+            long bits = (long) (rng.nextDouble() * 0x1.0p53);
+            int i = (int) bits & (LAYERS - 1);
+            double x = (bits >>> 8) * 0x1.0p-45 * exponential_x[i];
+            if (x < exponential_x[i + 1])
+            {
+                return x;
+            }
+            if (i == 0)
+            {
+                // The tail beyond R is itself exponential.
+                return EXPONENTIAL_R - Math.log(1.0 - rng.nextDouble());
+            }
+            double y = exponential_f[i] + rng.nextDouble() * (exponential_f[i + 1] - exponential_f[i]);
+            if (y < Math.exp(-x))
+            {
+                return x;
+            }
+        }
+    }
+
+    /**
+     * Returns a standard normal variate.
+     *
+     * @param rng the generator.
+     * @return variate.
+     */
+    static double normal(RandomNumberGenerator rng)
+    {
+        while (true)
+        {
+            long bits = (long) (rng.nextDouble() * 0x1.0p53);
+            int i = (int) bits & (LAYERS - 1);
+            boolean negative = ((bits >>> 8) & 1) != 0;
+            double x = (bits >>> 9) * 0x1.0p-44 * normal_x[i];
+            if (x < normal_x[i + 1])
+            {
+                return negative ? -x : x;
+            }
+            if (i == 0)
+            {
+                double a;
+                double b;
+                do
+                {
+                    a = -Math.log(1.0 - rng.nextDouble()) / NORMAL_R;
+                    b = -Math.log(1.0 - rng.nextDouble());
+                } while (b + b < a * a);
+                return negative ? -(NORMAL_R + a) : NORMAL_R + a;
+            }
+            double y = normal_f[i] + rng.nextDouble() * (normal_f[i + 1] - normal_f[i]);
+            if (y < Math.exp(-0.5 * x * x))
+            {
+                return negative ? -x : x;
+            }
+        }
+    }
+}
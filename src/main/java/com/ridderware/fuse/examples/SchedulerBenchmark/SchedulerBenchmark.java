@@ -0,0 +1,180 @@
+/* %%
+ * 
+ * Fast Universal Simulation Engine (FUSE)
+ * 
+ * Copyright 2014 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.fuse.examples.SchedulerBenchmark;
+
+import com.ridderware.fuse.*;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures the cost per event of the ContinuousTimeUniverse scheduler on a
+ * periodic workload, in which every behavior shares the same period, and on a
+ * stochastic workload, in which every behavior waits an exponentially
+ * distributed time between events. The
+ * periodic workload is also run with PeriodicBehavior instances, which the
+ * universe schedules in a periodic lane.
+ * <p>
+ * Usage: SchedulerBenchmark [agents] [end time] [repetitions]
+ *
+ * @author Jeff Ridder
+ */
+public class SchedulerBenchmark
+{
+
+    public static void main(String[] args)
+    {
+        int agents = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        double end_time = (args.length > 1) ? Double.parseDouble(args[1]) : 100.0;
+        int repetitions = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+        for (String workload : new String[] { "periodic", "lane", "stochastic" })
+        {
+            // The first repetition warms up the JIT and is not reported.
+            long best = Long.MAX_VALUE;
+            long events = 0;
+            for (int i = 0; i <= repetitions; i++)
+            {
+                ContinuousTimeUniverse universe = new ContinuousTimeUniverse();
+                universe.resetSimulation(0.0, end_time);
+                universe.addAgents(createAgents(agents, workload));
+
+                long start = System.nanoTime();
+                while (step(universe))
+                {
+                }
+                long elapsed = System.nanoTime() - start;
+
+                if (i > 0)
+                {
+                    best = Math.min(best, elapsed);
+                }
+                events = universe.getPerformedBehaviorCount();
+            }
+            System.out.printf("%-10s %,12d events %10.1f ms %8.1f ns/event%n",
+                    workload, events, best / 1.0e6, (double) best / Math.max(1, events));
+        }
+    }
+
+    private static boolean step(Universe universe)
+    {
+        long before = universe.getPerformedBehaviorCount();
+        universe.step();
+        return universe.getPerformedBehaviorCount() != before;
+    }
+
+    private static ArrayList<Agent> createAgents(int count, String workload)
+    {
+        ArrayList<Agent> agents = new ArrayList<>(count);
+        Random random = new Random(count);
+        for (int i = 0; i < count; i++)
+        {
+            Agent agent = new Agent("A-" + i);
+            if (workload.equals("periodic"))
+            {
+                agent.addBehavior(new Periodic(1.0, random.nextInt(10) / 10.0));
+            }
+            else if (workload.equals("lane"))
+            {
+                agent.addBehavior(new Sweep(1.0, random.nextInt(10) / 10.0));
+            }
+            else
+            {
+                agent.addBehavior(new Stochastic(1.0, random.nextLong()));
+            }
+            agents.add(agent);
+        }
+        return agents;
+    }
+
+    /**
+     * A behavior which runs at a fixed period after an initial phase.
+     */
+    private static class Periodic extends Behavior<Agent>
+    {
+
+        private final double period;
+        private final double phase;
+        private long work = 0;
+
+        Periodic(double period, double phase)
+        {
+            this.period = period;
+            this.phase = phase;
+        }
+
+        @Override
+        public double getNextScheduledTime(double current_time)
+        {
+            return (work == 0) ? current_time + phase + period : current_time + period;
+        }
+
+        @Override
+        public void perform(double current_time)
+        {
+            work++;
+        }
+    }
+
+    /**
+     * The equivalent of Periodic as a PeriodicBehavior.
+     */
+    private static class Sweep extends PeriodicBehavior<Agent>
+    {
+
+        private long work = 0;
+
+        Sweep(double period, double phase)
+        {
+            super(period, phase);
+        }
+
+        @Override
+        public void perform(double current_time)
+        {
+            work++;
+        }
+    }
+
+    /**
+     * A behavior which runs at exponentially distributed intervals.
+     */
+    private static class Stochastic extends Behavior<Agent>
+    {
+
+        private final double mean;
+        private final Random random;
+
+        Stochastic(double mean, long seed)
+        {
+            this.mean = mean;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public double getNextScheduledTime(double current_time)
+        {
+            return current_time - mean * Math.log(1.0 - random.nextDouble());
+        }
+
+        @Override
+        public void perform(double current_time)
+        {
+        }
+    }
+}